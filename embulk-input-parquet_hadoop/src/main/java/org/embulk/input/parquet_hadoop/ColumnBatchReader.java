@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.io.api.PrimitiveConverter;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.Type;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.spi.Column;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.type.JsonType;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads records of flat row groups into typed columns of a {@link PageBuilder} by batches.
+ *
+ * Records of a flat schema need no assembly by levels, so each column chunk is decoded by
+ * {@link ColumnVectorReader} into a vector of values for a batch of records, and records are set
+ * to the page from the vectors. Values are converted by {@link ColumnConverters} in the same way
+ * as the record reader.
+ */
+class ColumnBatchReader
+{
+    interface Task
+    {
+        @Config("vectorized_read")
+        @ConfigDefault("true")
+        boolean getVectorizedRead();
+    }
+
+    private static final int BATCH_SIZE = 4096;
+
+    private final ParquetRowReader<?> reader;
+    private final PageBuilder pageBuilder;
+    private final Column[] columns;
+    // descriptors and converters are null if the field of the column is not in the file
+    private final ColumnDescriptor[] descriptors;
+    private final PrimitiveConverter[] converters;
+    private final ColumnVector[] vectors;
+    private final ColumnVectorReader[] columnReaders;
+
+    private RowSelection rowGroup;
+    private int rowGroupSize;
+    private int rowGroupPos;
+    private int batchStart;
+    private int batchSize;
+    private int batchPos;
+
+    /**
+     * @param reader a reader whose requested schema is accepted by {@link #isApplicable(ParquetRowReader, PageBuilder)}
+     */
+    ColumnBatchReader(ParquetRowReader<?> reader, PageBuilder pageBuilder)
+    {
+        this.reader = reader;
+        this.pageBuilder = pageBuilder;
+        List<Column> pageColumns = pageBuilder.getSchema().getColumns();
+        this.columns = pageColumns.toArray(new Column[pageColumns.size()]);
+        this.descriptors = new ColumnDescriptor[columns.length];
+        this.converters = new PrimitiveConverter[columns.length];
+        this.vectors = new ColumnVector[columns.length];
+        this.columnReaders = new ColumnVectorReader[columns.length];
+        MessageType schema = reader.getRequestedSchema();
+        for (int i = 0; i < columns.length; i++) {
+            String[] path = new String[] {columns[i].getName()};
+            if (!schema.containsPath(path)) {
+                continue;
+            }
+            Type field = schema.getType(path);
+            descriptors[i] = schema.getColumnDescription(path);
+            converters[i] = ColumnConverters.newConverter(field, columns[i], pageBuilder).asPrimitiveConverter();
+            vectors[i] = new ColumnVector(descriptors[i].getType(), BATCH_SIZE);
+        }
+    }
+
+    /**
+     * @return true if the reader reads only non-repeated primitive fields, none of which is set
+     *         to a json column, and records can be selected without assembling them
+     */
+    static boolean isApplicable(ParquetRowReader<?> reader, PageBuilder pageBuilder)
+    {
+        if (!reader.canReadRowGroups()) {
+            return false;
+        }
+        MessageType schema = reader.getRequestedSchema();
+        for (Type field : schema.getFields()) {
+            if (!field.isPrimitive() || field.isRepetition(Type.Repetition.REPEATED)) {
+                return false;
+            }
+        }
+        for (Column column : pageBuilder.getSchema().getColumns()) {
+            if (column.getType() instanceof JsonType && schema.containsField(column.getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes values of the next batch of records.
+     *
+     * @return false if all row groups are read
+     */
+    boolean nextBatch() throws IOException
+    {
+        while (rowGroup == null || rowGroupPos >= rowGroupSize) {
+            rowGroup = reader.readRowGroup();
+            if (rowGroup == null) {
+                return false;
+            }
+            PageReadStore pages = rowGroup.getPages();
+            for (int i = 0; i < columns.length; i++) {
+                if (descriptors[i] == null) {
+                    continue;
+                }
+                columnReaders[i] = new ColumnVectorReader(descriptors[i], pages.getPageReader(descriptors[i]));
+                if (columnReaders[i].getDictionary() != null) {
+                    converters[i].setDictionary(columnReaders[i].getDictionary());
+                }
+            }
+            rowGroupSize = rowGroup.getRowCount();
+            rowGroupPos = 0;
+        }
+        batchSize = Math.min(BATCH_SIZE, rowGroupSize - rowGroupPos);
+        for (int i = 0; i < columns.length; i++) {
+            if (columnReaders[i] != null) {
+                columnReaders[i].read(vectors[i], batchSize);
+            }
+        }
+        batchStart = rowGroupPos;
+        rowGroupPos += batchSize;
+        batchPos = 0;
+        return true;
+    }
+
+    /**
+     * Sets the next record of the batch selected by the filter to the current row of the page.
+     *
+     * @return false if no more records are in the batch
+     */
+    boolean nextRecord()
+    {
+        while (batchPos < batchSize) {
+            int row = batchPos++;
+            if (!rowGroup.isSelected(batchStart + row)) {
+                continue;
+            }
+            for (int i = 0; i < columns.length; i++) {
+                if (descriptors[i] == null || vectors[i].nulls[row]) {
+                    pageBuilder.setNull(columns[i]);
+                }
+                else {
+                    vectors[i].write(row, converters[i]);
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.embulk.config.ConfigException;
+import org.embulk.spi.type.Type;
+
+/**
+ * An element of "columns" option.
+ *
+ * It is written as a name string (`user.address.city`) or a hash (`{name: user.address.city}`).
+ * A hash may have `type` (`{name: id, type: long}`) to output the field as a typed Embulk column
+ * instead of a key of the "record" JSON column.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ColumnConfig
+{
+    private final String name;
+    private final Type type;
+
+    @JsonCreator
+    public ColumnConfig(@JsonProperty("name") String name, @JsonProperty("type") Type type)
+    {
+        if (name == null || name.isEmpty()) {
+            throw new ConfigException("name of a column must not be empty");
+        }
+        this.name = name;
+        this.type = type;
+    }
+
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static ColumnConfig fromName(String name)
+    {
+        return new ColumnConfig(name, null);
+    }
+
+    @JsonProperty("name")
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return the Embulk type, or null if the column is a key of the "record" JSON column
+     */
+    @JsonProperty("type")
+    public Type getType()
+    {
+        return type;
+    }
+
+    @JsonIgnore
+    public boolean isTyped()
+    {
+        return type != null;
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import jp.co.cyberagent.parquet.msgpack.read.converter.ParentContainerUpdater;
+import jp.co.cyberagent.parquet.msgpack.read.converter.ParquetValueConverter;
+import org.apache.parquet.column.Dictionary;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.Converter;
+import org.apache.parquet.io.api.PrimitiveConverter;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Type;
+import org.embulk.spi.Column;
+import org.embulk.spi.DataException;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.time.Timestamp;
+import org.embulk.spi.type.BooleanType;
+import org.embulk.spi.type.DoubleType;
+import org.embulk.spi.type.JsonType;
+import org.embulk.spi.type.LongType;
+import org.embulk.spi.type.StringType;
+import org.embulk.spi.type.TimestampType;
+import org.msgpack.value.Value;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Converters which set values of a Parquet field to a typed Embulk column directly, without
+ * building MessagePack values.
+ *
+ * Dictionary encoded columns are converted once per dictionary entry.
+ */
+final class ColumnConverters
+{
+    private static final long JULIAN_DAY_OF_EPOCH = 2440588L;
+    private static final long SECONDS_PER_DAY = 24L * 60 * 60;
+    private static final long NANOS_PER_SECOND = 1000L * 1000 * 1000;
+
+    private ColumnConverters()
+    {
+    }
+
+    /**
+     * Creates a converter of a top-level field for the column.
+     *
+     * A `json` column accepts any field. Other types accept a non-repeated primitive field.
+     * The converter of a `json` column implements
+     * {@link jp.co.cyberagent.parquet.msgpack.read.converter.HasParentContainerUpdater}.
+     */
+    static Converter newConverter(Type field, final Column column, final PageBuilder pageBuilder)
+    {
+        if (column.getType() instanceof JsonType) {
+            return ParquetValueConverter.createFieldConverter(field, new ParentContainerUpdater.Noop() {
+                @Override
+                public void set(Value value)
+                {
+                    pageBuilder.setJson(column, value);
+                }
+            });
+        }
+
+        if (!field.isPrimitive() || field.isRepetition(Type.Repetition.REPEATED)) {
+            throw unsupported(field, column);
+        }
+        PrimitiveType primitive = field.asPrimitiveType();
+        PrimitiveTypeName typeName = primitive.getPrimitiveTypeName();
+        OriginalType originalType = primitive.getOriginalType();
+
+        if (originalType == OriginalType.DECIMAL) {
+            int scale = primitive.getDecimalMetadata().getScale();
+            if (column.getType() instanceof DoubleType) {
+                return new DecimalConverter(column, pageBuilder, typeName, scale, false);
+            }
+            else if (column.getType() instanceof StringType) {
+                return new DecimalConverter(column, pageBuilder, typeName, scale, true);
+            }
+            throw unsupported(field, column);
+        }
+
+        if (column.getType() instanceof BooleanType) {
+            if (typeName == PrimitiveTypeName.BOOLEAN) {
+                return new BooleanConverter(column, pageBuilder, typeName);
+            }
+        }
+        else if (column.getType() instanceof LongType) {
+            if (typeName == PrimitiveTypeName.INT32 || typeName == PrimitiveTypeName.INT64) {
+                return new LongConverter(column, pageBuilder, typeName, originalType == OriginalType.UINT_32);
+            }
+        }
+        else if (column.getType() instanceof DoubleType) {
+            switch (typeName) {
+                case INT32:
+                case INT64:
+                case FLOAT:
+                case DOUBLE:
+                    return new DoubleConverter(column, pageBuilder, typeName);
+                default:
+                    break;
+            }
+        }
+        else if (column.getType() instanceof StringType) {
+            switch (typeName) {
+                case BOOLEAN:
+                case INT32:
+                case INT64:
+                case FLOAT:
+                case DOUBLE:
+                case BINARY:
+                    return new StringConverter(column, pageBuilder, typeName);
+                default:
+                    break;
+            }
+        }
+        else if (column.getType() instanceof TimestampType) {
+            if (typeName == PrimitiveTypeName.INT96) {
+                return new TimestampConverter(column, pageBuilder, typeName, TimestampUnit.INT96);
+            }
+            else if (typeName == PrimitiveTypeName.INT64 && originalType == OriginalType.TIMESTAMP_MILLIS) {
+                return new TimestampConverter(column, pageBuilder, typeName, TimestampUnit.MILLIS);
+            }
+            else if (typeName == PrimitiveTypeName.INT32 && originalType == OriginalType.DATE) {
+                return new TimestampConverter(column, pageBuilder, typeName, TimestampUnit.DAYS);
+            }
+        }
+        throw unsupported(field, column);
+    }
+
+    private static DataException unsupported(Type field, Column column)
+    {
+        String parquetType = field.isPrimitive() ? field.asPrimitiveType().getPrimitiveTypeName().toString() : "group";
+        if (field.getOriginalType() != null) {
+            parquetType += " (" + field.getOriginalType() + ")";
+        }
+        if (field.isRepetition(Type.Repetition.REPEATED)) {
+            parquetType = "repeated " + parquetType;
+        }
+        return new DataException(String.format("Parquet field '%s' of %s can't be converted to %s column",
+                field.getName(), parquetType, column.getType()));
+    }
+
+    private enum TimestampUnit
+    {
+        INT96, MILLIS, DAYS
+    }
+
+    private abstract static class ColumnConverter
+            extends PrimitiveConverter
+    {
+        protected final Column column;
+        protected final PageBuilder pageBuilder;
+        protected final PrimitiveTypeName typeName;
+
+        ColumnConverter(Column column, PageBuilder pageBuilder, PrimitiveTypeName typeName)
+        {
+            this.column = column;
+            this.pageBuilder = pageBuilder;
+            this.typeName = typeName;
+        }
+
+        @Override
+        public boolean hasDictionarySupport()
+        {
+            return true;
+        }
+
+        /**
+         * @return a numeric dictionary entry of INT32, INT64, FLOAT or DOUBLE column
+         */
+        protected Number decodeNumber(Dictionary dictionary, int id)
+        {
+            switch (typeName) {
+                case INT32:
+                    return dictionary.decodeToInt(id);
+                case INT64:
+                    return dictionary.decodeToLong(id);
+                case FLOAT:
+                    return dictionary.decodeToFloat(id);
+                case DOUBLE:
+                    return dictionary.decodeToDouble(id);
+                default:
+                    throw new UnsupportedOperationException("not a numeric dictionary: " + typeName);
+            }
+        }
+    }
+
+    private static class BooleanConverter
+            extends ColumnConverter
+    {
+        private boolean[] dictionaryValues;
+
+        BooleanConverter(Column column, PageBuilder pageBuilder, PrimitiveTypeName typeName)
+        {
+            super(column, pageBuilder, typeName);
+        }
+
+        @Override
+        public void setDictionary(Dictionary dictionary)
+        {
+            dictionaryValues = new boolean[dictionary.getMaxId() + 1];
+            for (int id = 0; id < dictionaryValues.length; id++) {
+                dictionaryValues[id] = dictionary.decodeToBoolean(id);
+            }
+        }
+
+        @Override
+        public void addValueFromDictionary(int dictionaryId)
+        {
+            pageBuilder.setBoolean(column, dictionaryValues[dictionaryId]);
+        }
+
+        @Override
+        public void addBoolean(boolean value)
+        {
+            pageBuilder.setBoolean(column, value);
+        }
+    }
+
+    private static class LongConverter
+            extends ColumnConverter
+    {
+        private final boolean unsigned;
+        private long[] dictionaryValues;
+
+        LongConverter(Column column, PageBuilder pageBuilder, PrimitiveTypeName typeName, boolean unsigned)
+        {
+            super(column, pageBuilder, typeName);
+            this.unsigned = unsigned;
+        }
+
+        @Override
+        public void setDictionary(Dictionary dictionary)
+        {
+            dictionaryValues = new long[dictionary.getMaxId() + 1];
+            for (int id = 0; id < dictionaryValues.length; id++) {
+                if (typeName == PrimitiveTypeName.INT32) {
+                    dictionaryValues[id] = toLong(dictionary.decodeToInt(id));
+                }
+                else {
+                    dictionaryValues[id] = dictionary.decodeToLong(id);
+                }
+            }
+        }
+
+        private long toLong(int value)
+        {
+            return unsigned ? value & 0xffffffffL : value;
+        }
+
+        @Override
+        public void addValueFromDictionary(int dictionaryId)
+        {
+            pageBuilder.setLong(column, dictionaryValues[dictionaryId]);
+        }
+
+        @Override
+        public void addInt(int value)
+        {
+            pageBuilder.setLong(column, toLong(value));
+        }
+
+        @Override
+        public void addLong(long value)
+        {
+            pageBuilder.setLong(column, value);
+        }
+    }
+
+    private static class DoubleConverter
+            extends ColumnConverter
+    {
+        private double[] dictionaryValues;
+
+        DoubleConverter(Column column, PageBuilder pageBuilder, PrimitiveTypeName typeName)
+        {
+            super(column, pageBuilder, typeName);
+        }
+
+        @Override
+        public void setDictionary(Dictionary dictionary)
+        {
+            dictionaryValues = new double[dictionary.getMaxId() + 1];
+            for (int id = 0; id < dictionaryValues.length; id++) {
+                dictionaryValues[id] = decodeNumber(dictionary, id).doubleValue();
+            }
+        }
+
+        @Override
+        public void addValueFromDictionary(int dictionaryId)
+        {
+            pageBuilder.setDouble(column, dictionaryValues[dictionaryId]);
+        }
+
+        @Override
+        public void addInt(int value)
+        {
+            pageBuilder.setDouble(column, value);
+        }
+
+        @Override
+        public void addLong(long value)
+        {
+            pageBuilder.setDouble(column, value);
+        }
+
+        @Override
+        public void addFloat(float value)
+        {
+            pageBuilder.setDouble(column, value);
+        }
+
+        @Override
+        public void addDouble(double value)
+        {
+            pageBuilder.setDouble(column, value);
+        }
+    }
+
+    private static class StringConverter
+            extends ColumnConverter
+    {
+        private String[] dictionaryValues;
+
+        StringConverter(Column column, PageBuilder pageBuilder, PrimitiveTypeName typeName)
+        {
+            super(column, pageBuilder, typeName);
+        }
+
+        @Override
+        public void setDictionary(Dictionary dictionary)
+        {
+            dictionaryValues = new String[dictionary.getMaxId() + 1];
+            for (int id = 0; id < dictionaryValues.length; id++) {
+                switch (typeName) {
+                    case BINARY:
+                        dictionaryValues[id] = dictionary.decodeToBinary(id).toStringUsingUTF8();
+                        break;
+                    case BOOLEAN:
+                        dictionaryValues[id] = String.valueOf(dictionary.decodeToBoolean(id));
+                        break;
+                    default:
+                        dictionaryValues[id] = decodeNumber(dictionary, id).toString();
+                        break;
+                }
+            }
+        }
+
+        @Override
+        public void addValueFromDictionary(int dictionaryId)
+        {
+            pageBuilder.setString(column, dictionaryValues[dictionaryId]);
+        }
+
+        @Override
+        public void addBinary(Binary value)
+        {
+            pageBuilder.setString(column, value.toStringUsingUTF8());
+        }
+
+        @Override
+        public void addBoolean(boolean value)
+        {
+            pageBuilder.setString(column, String.valueOf(value));
+        }
+
+        @Override
+        public void addInt(int value)
+        {
+            pageBuilder.setString(column, String.valueOf(value));
+        }
+
+        @Override
+        public void addLong(long value)
+        {
+            pageBuilder.setString(column, String.valueOf(value));
+        }
+
+        @Override
+        public void addFloat(float value)
+        {
+            pageBuilder.setString(column, String.valueOf(value));
+        }
+
+        @Override
+        public void addDouble(double value)
+        {
+            pageBuilder.setString(column, String.valueOf(value));
+        }
+    }
+
+    private static class DecimalConverter
+            extends ColumnConverter
+    {
+        private final int scale;
+        private final boolean toString;
+        private BigDecimal[] dictionaryValues;
+
+        DecimalConverter(Column column, PageBuilder pageBuilder, PrimitiveTypeName typeName, int scale, boolean toString)
+        {
+            super(column, pageBuilder, typeName);
+            this.scale = scale;
+            this.toString = toString;
+        }
+
+        @Override
+        public void setDictionary(Dictionary dictionary)
+        {
+            dictionaryValues = new BigDecimal[dictionary.getMaxId() + 1];
+            for (int id = 0; id < dictionaryValues.length; id++) {
+                switch (typeName) {
+                    case INT32:
+                        dictionaryValues[id] = BigDecimal.valueOf(dictionary.decodeToInt(id), scale);
+                        break;
+                    case INT64:
+                        dictionaryValues[id] = BigDecimal.valueOf(dictionary.decodeToLong(id), scale);
+                        break;
+                    default:
+                        dictionaryValues[id] = toDecimal(dictionary.decodeToBinary(id));
+                        break;
+                }
+            }
+        }
+
+        private BigDecimal toDecimal(Binary value)
+        {
+            return new BigDecimal(new BigInteger(value.getBytes()), scale);
+        }
+
+        private void set(BigDecimal value)
+        {
+            if (toString) {
+                pageBuilder.setString(column, value.toPlainString());
+            }
+            else {
+                pageBuilder.setDouble(column, value.doubleValue());
+            }
+        }
+
+        @Override
+        public void addValueFromDictionary(int dictionaryId)
+        {
+            set(dictionaryValues[dictionaryId]);
+        }
+
+        @Override
+        public void addInt(int value)
+        {
+            set(BigDecimal.valueOf(value, scale));
+        }
+
+        @Override
+        public void addLong(long value)
+        {
+            set(BigDecimal.valueOf(value, scale));
+        }
+
+        @Override
+        public void addBinary(Binary value)
+        {
+            set(toDecimal(value));
+        }
+    }
+
+    private static class TimestampConverter
+            extends ColumnConverter
+    {
+        private final TimestampUnit unit;
+        private Timestamp[] dictionaryValues;
+
+        TimestampConverter(Column column, PageBuilder pageBuilder, PrimitiveTypeName typeName, TimestampUnit unit)
+        {
+            super(column, pageBuilder, typeName);
+            this.unit = unit;
+        }
+
+        @Override
+        public void setDictionary(Dictionary dictionary)
+        {
+            dictionaryValues = new Timestamp[dictionary.getMaxId() + 1];
+            for (int id = 0; id < dictionaryValues.length; id++) {
+                switch (unit) {
+                    case INT96:
+                        dictionaryValues[id] = fromInt96(dictionary.decodeToBinary(id));
+                        break;
+                    case MILLIS:
+                        dictionaryValues[id] = Timestamp.ofEpochMilli(dictionary.decodeToLong(id));
+                        break;
+                    default:
+                        dictionaryValues[id] = fromDays(dictionary.decodeToInt(id));
+                        break;
+                }
+            }
+        }
+
+        // INT96 timestamp is nanoseconds of the day (8 bytes) followed by Julian day (4 bytes) in little endian
+        private static Timestamp fromInt96(Binary value)
+        {
+            ByteBuffer buf = value.toByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            long nanosOfDay = buf.getLong();
+            long julianDay = buf.getInt();
+            long seconds = (julianDay - JULIAN_DAY_OF_EPOCH) * SECONDS_PER_DAY + nanosOfDay / NANOS_PER_SECOND;
+            return Timestamp.ofEpochSecond(seconds, nanosOfDay % NANOS_PER_SECOND);
+        }
+
+        private static Timestamp fromDays(int days)
+        {
+            return Timestamp.ofEpochSecond(days * SECONDS_PER_DAY);
+        }
+
+        @Override
+        public void addValueFromDictionary(int dictionaryId)
+        {
+            pageBuilder.setTimestamp(column, dictionaryValues[dictionaryId]);
+        }
+
+        @Override
+        public void addBinary(Binary value)
+        {
+            pageBuilder.setTimestamp(column, fromInt96(value));
+        }
+
+        @Override
+        public void addLong(long value)
+        {
+            pageBuilder.setTimestamp(column, Timestamp.ofEpochMilli(value));
+        }
+
+        @Override
+        public void addInt(int value)
+        {
+            pageBuilder.setTimestamp(column, fromDays(value));
+        }
+    }
+}
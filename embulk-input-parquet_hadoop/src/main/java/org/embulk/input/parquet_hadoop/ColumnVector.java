@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.PrimitiveConverter;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+
+import java.util.Arrays;
+
+/**
+ * Values of a flat column for a batch of records.
+ *
+ * Values are stored at the index of their record in an array of the primitive type. Values of a
+ * dictionary-encoded page are stored as dictionary ids, which are converted once per entry by
+ * converters. Byte arrays of BINARY, FIXED_LEN_BYTE_ARRAY and INT96 values are copied into a
+ * buffer with their offsets and lengths.
+ */
+class ColumnVector
+{
+    final PrimitiveTypeName type;
+    final boolean[] nulls;
+    // true if the value is a dictionary id in ids
+    final boolean[] encoded;
+    final int[] ids;
+
+    final boolean[] booleans;
+    final int[] ints;
+    final long[] longs;
+    final float[] floats;
+    final double[] doubles;
+    final int[] offsets;
+    final int[] lengths;
+    byte[] bytes;
+    int bytesSize;
+
+    ColumnVector(PrimitiveTypeName type, int capacity)
+    {
+        this.type = type;
+        this.nulls = new boolean[capacity];
+        this.encoded = new boolean[capacity];
+        this.ids = new int[capacity];
+        this.booleans = type == PrimitiveTypeName.BOOLEAN ? new boolean[capacity] : null;
+        this.ints = type == PrimitiveTypeName.INT32 ? new int[capacity] : null;
+        this.longs = type == PrimitiveTypeName.INT64 ? new long[capacity] : null;
+        this.floats = type == PrimitiveTypeName.FLOAT ? new float[capacity] : null;
+        this.doubles = type == PrimitiveTypeName.DOUBLE ? new double[capacity] : null;
+        boolean binary = type == PrimitiveTypeName.BINARY || type == PrimitiveTypeName.FIXED_LEN_BYTE_ARRAY
+                || type == PrimitiveTypeName.INT96;
+        this.offsets = binary ? new int[capacity] : null;
+        this.lengths = binary ? new int[capacity] : null;
+        this.bytes = binary ? new byte[capacity * 16] : null;
+    }
+
+    int getCapacity()
+    {
+        return nulls.length;
+    }
+
+    /**
+     * Discards byte arrays of the previous batch.
+     */
+    void reset()
+    {
+        bytesSize = 0;
+    }
+
+    /**
+     * Appends a byte array to the buffer.
+     *
+     * @return the offset of the byte array in the buffer
+     */
+    int appendBytes(byte[] source, int offset, int length)
+    {
+        if (bytesSize + length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, bytesSize + length));
+        }
+        System.arraycopy(source, offset, bytes, bytesSize, length);
+        int start = bytesSize;
+        bytesSize += length;
+        return start;
+    }
+
+    /**
+     * Passes the value of a non-null record to the converter.
+     */
+    void write(int row, PrimitiveConverter converter)
+    {
+        if (encoded[row]) {
+            converter.addValueFromDictionary(ids[row]);
+            return;
+        }
+        switch (type) {
+            case BOOLEAN:
+                converter.addBoolean(booleans[row]);
+                break;
+            case INT32:
+                converter.addInt(ints[row]);
+                break;
+            case INT64:
+                converter.addLong(longs[row]);
+                break;
+            case FLOAT:
+                converter.addFloat(floats[row]);
+                break;
+            case DOUBLE:
+                converter.addDouble(doubles[row]);
+                break;
+            default:
+                converter.addBinary(Binary.fromConstantByteArray(bytes, offsets[row], lengths[row]));
+                break;
+        }
+    }
+}
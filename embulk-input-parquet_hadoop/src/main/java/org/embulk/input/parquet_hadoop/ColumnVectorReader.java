@@ -0,0 +1,333 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.parquet.bytes.BytesUtils;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.Dictionary;
+import org.apache.parquet.column.Encoding;
+import org.apache.parquet.column.ValuesType;
+import org.apache.parquet.column.page.DataPage;
+import org.apache.parquet.column.page.DataPageV1;
+import org.apache.parquet.column.page.DataPageV2;
+import org.apache.parquet.column.page.DictionaryPage;
+import org.apache.parquet.column.page.PageReader;
+import org.apache.parquet.column.values.ValuesReader;
+import org.apache.parquet.io.ParquetDecodingException;
+import org.apache.parquet.io.api.Binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes pages of a flat column chunk into {@link ColumnVector}s.
+ *
+ * Definition levels and dictionary ids are decoded by {@link RunLengthDecoder}, and PLAIN values
+ * are copied from pages in bulk. Values of other encodings (e.g. DELTA_BINARY_PACKED) are read by
+ * ValuesReader of parquet-mr one by one.
+ */
+class ColumnVectorReader
+{
+    private final ColumnDescriptor column;
+    private final PageReader pageReader;
+    private final Dictionary dictionary;
+    private final int maxDefinitionLevel;
+    private final int typeLength;
+
+    // levels and values of the current page
+    private int remaining = 0;
+    private RunLengthDecoder levelDecoder;
+    private ValuesReader levelReader;
+    private byte[] page;
+    private int pos;
+    private int end;
+    private int bitPos;
+    private RunLengthDecoder idDecoder;
+    private ValuesReader valuesReader;
+
+    private int[] levels = new int[0];
+
+    ColumnVectorReader(ColumnDescriptor column, PageReader pageReader) throws IOException
+    {
+        this.column = column;
+        this.pageReader = pageReader;
+        DictionaryPage dictionaryPage = pageReader.readDictionaryPage();
+        this.dictionary = dictionaryPage == null ? null : dictionaryPage.getEncoding().initDictionary(column, dictionaryPage);
+        this.maxDefinitionLevel = column.getMaxDefinitionLevel();
+        switch (column.getType()) {
+            case INT96:
+                this.typeLength = 12;
+                break;
+            case FIXED_LEN_BYTE_ARRAY:
+                this.typeLength = column.getTypeLength();
+                break;
+            default:
+                this.typeLength = -1;
+                break;
+        }
+    }
+
+    /**
+     * @return the dictionary of the column chunk, or null if it has no dictionary page
+     */
+    Dictionary getDictionary()
+    {
+        return dictionary;
+    }
+
+    /**
+     * Reads values of the next {@code count} records from the beginning of the vector.
+     */
+    void read(ColumnVector vector, int count) throws IOException
+    {
+        vector.reset();
+        int row = 0;
+        while (row < count) {
+            if (remaining == 0) {
+                readPage();
+            }
+            int n = Math.min(remaining, count - row);
+            int nonNulls = readLevels(vector, row, n);
+            if (idDecoder != null) {
+                readIds(vector, row, nonNulls);
+            }
+            else if (valuesReader != null) {
+                readValues(vector, row, nonNulls);
+            }
+            else {
+                readPlain(vector, row, nonNulls);
+            }
+            if (nonNulls < n) {
+                scatter(vector, row, n, nonNulls);
+            }
+            remaining -= n;
+            row += n;
+        }
+    }
+
+    private void readPage() throws IOException
+    {
+        DataPage dataPage = pageReader.readPage();
+        if (dataPage == null) {
+            throw new ParquetDecodingException("no more pages in column chunk " + column);
+        }
+        remaining = dataPage.getValueCount();
+        levelDecoder = null;
+        levelReader = null;
+        idDecoder = null;
+        valuesReader = null;
+        bitPos = 0;
+        Encoding encoding;
+        if (dataPage instanceof DataPageV1) {
+            DataPageV1 v1 = (DataPageV1) dataPage;
+            page = v1.getBytes().toByteArray();
+            pos = 0;
+            end = page.length;
+            if (maxDefinitionLevel > 0) {
+                if (v1.getDlEncoding() == Encoding.RLE) {
+                    int length = BytesUtils.readIntLittleEndian(page, pos);
+                    levelDecoder = new RunLengthDecoder(BytesUtils.getWidthFromMaxInt(maxDefinitionLevel),
+                            page, pos + 4, pos + 4 + length);
+                    pos += 4 + length;
+                }
+                else {
+                    levelReader = v1.getDlEncoding().getValuesReader(column, ValuesType.DEFINITION_LEVEL);
+                    levelReader.initFromPage(remaining, page, pos);
+                    pos = levelReader.getNextOffset();
+                }
+            }
+            encoding = v1.getValueEncoding();
+        }
+        else {
+            DataPageV2 v2 = (DataPageV2) dataPage;
+            if (maxDefinitionLevel > 0) {
+                byte[] levelBytes = v2.getDefinitionLevels().toByteArray();
+                levelDecoder = new RunLengthDecoder(BytesUtils.getWidthFromMaxInt(maxDefinitionLevel),
+                        levelBytes, 0, levelBytes.length);
+            }
+            page = v2.getData().toByteArray();
+            pos = 0;
+            end = page.length;
+            encoding = v2.getDataEncoding();
+        }
+
+        if (encoding.usesDictionary()) {
+            if (dictionary == null) {
+                throw new ParquetDecodingException("no dictionary page for dictionary-encoded page in column chunk " + column);
+            }
+            // a page of nulls may have no bit width
+            int bitWidth = pos < end ? page[pos] & 0xff : 0;
+            idDecoder = new RunLengthDecoder(bitWidth, page, Math.min(pos + 1, end), end);
+        }
+        else if (encoding != Encoding.PLAIN) {
+            valuesReader = encoding.getValuesReader(column, ValuesType.VALUES);
+            valuesReader.initFromPage(remaining, page, pos);
+        }
+    }
+
+    // sets nulls of records and returns the number of non-null values
+    private int readLevels(ColumnVector vector, int row, int n)
+    {
+        if (maxDefinitionLevel == 0) {
+            for (int i = row; i < row + n; i++) {
+                vector.nulls[i] = false;
+            }
+            return n;
+        }
+        if (levels.length < n) {
+            levels = new int[vector.getCapacity()];
+        }
+        if (levelDecoder != null) {
+            levelDecoder.read(levels, 0, n);
+        }
+        else {
+            for (int i = 0; i < n; i++) {
+                levels[i] = levelReader.readInteger();
+            }
+        }
+        int nonNulls = 0;
+        for (int i = 0; i < n; i++) {
+            boolean isNull = levels[i] != maxDefinitionLevel;
+            vector.nulls[row + i] = isNull;
+            if (!isNull) {
+                nonNulls++;
+            }
+        }
+        return nonNulls;
+    }
+
+    private void readIds(ColumnVector vector, int row, int count)
+    {
+        idDecoder.read(vector.ids, row, count);
+        for (int i = row; i < row + count; i++) {
+            vector.encoded[i] = true;
+        }
+    }
+
+    private void readPlain(ColumnVector vector, int row, int count) throws IOException
+    {
+        for (int i = row; i < row + count; i++) {
+            vector.encoded[i] = false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(page, pos, end - pos).slice().order(ByteOrder.LITTLE_ENDIAN);
+        switch (column.getType()) {
+            case BOOLEAN:
+                // bit-packed from the least significant bit
+                for (int i = row; i < row + count; i++) {
+                    vector.booleans[i] = (page[pos + (bitPos >>> 3)] & (1 << (bitPos & 7))) != 0;
+                    bitPos++;
+                }
+                return;
+            case INT32:
+                buffer.asIntBuffer().get(vector.ints, row, count);
+                pos += count * 4;
+                return;
+            case INT64:
+                buffer.asLongBuffer().get(vector.longs, row, count);
+                pos += count * 8;
+                return;
+            case FLOAT:
+                buffer.asFloatBuffer().get(vector.floats, row, count);
+                pos += count * 4;
+                return;
+            case DOUBLE:
+                buffer.asDoubleBuffer().get(vector.doubles, row, count);
+                pos += count * 8;
+                return;
+            case BINARY:
+                for (int i = row; i < row + count; i++) {
+                    int length = BytesUtils.readIntLittleEndian(page, pos);
+                    vector.offsets[i] = vector.appendBytes(page, pos + 4, length);
+                    vector.lengths[i] = length;
+                    pos += 4 + length;
+                }
+                return;
+            default:
+                for (int i = row; i < row + count; i++) {
+                    vector.offsets[i] = vector.appendBytes(page, pos, typeLength);
+                    vector.lengths[i] = typeLength;
+                    pos += typeLength;
+                }
+                return;
+        }
+    }
+
+    private void readValues(ColumnVector vector, int row, int count)
+    {
+        for (int i = row; i < row + count; i++) {
+            vector.encoded[i] = false;
+            switch (column.getType()) {
+                case BOOLEAN:
+                    vector.booleans[i] = valuesReader.readBoolean();
+                    break;
+                case INT32:
+                    vector.ints[i] = valuesReader.readInteger();
+                    break;
+                case INT64:
+                    vector.longs[i] = valuesReader.readLong();
+                    break;
+                case FLOAT:
+                    vector.floats[i] = valuesReader.readFloat();
+                    break;
+                case DOUBLE:
+                    vector.doubles[i] = valuesReader.readDouble();
+                    break;
+                default:
+                    Binary value = valuesReader.readBytes();
+                    byte[] bytes = value.getBytesUnsafe();
+                    vector.offsets[i] = vector.appendBytes(bytes, 0, bytes.length);
+                    vector.lengths[i] = bytes.length;
+                    break;
+            }
+        }
+    }
+
+    // moves values decoded contiguously from row to the positions of non-null records
+    private static void scatter(ColumnVector vector, int row, int n, int nonNulls)
+    {
+        int from = row + nonNulls - 1;
+        for (int to = row + n - 1; to >= row && from < to; to--) {
+            if (vector.nulls[to]) {
+                continue;
+            }
+            vector.encoded[to] = vector.encoded[from];
+            vector.ids[to] = vector.ids[from];
+            switch (vector.type) {
+                case BOOLEAN:
+                    vector.booleans[to] = vector.booleans[from];
+                    break;
+                case INT32:
+                    vector.ints[to] = vector.ints[from];
+                    break;
+                case INT64:
+                    vector.longs[to] = vector.longs[from];
+                    break;
+                case FLOAT:
+                    vector.floats[to] = vector.floats[from];
+                    break;
+                case DOUBLE:
+                    vector.doubles[to] = vector.doubles[from];
+                    break;
+                default:
+                    vector.offsets[to] = vector.offsets[from];
+                    vector.lengths[to] = vector.lengths[from];
+                    break;
+            }
+            from--;
+        }
+    }
+}
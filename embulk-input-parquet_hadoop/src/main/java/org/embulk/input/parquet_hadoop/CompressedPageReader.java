@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.parquet.bytes.BytesInput;
+import org.apache.parquet.column.page.DataPage;
+import org.apache.parquet.column.page.DataPageV1;
+import org.apache.parquet.column.page.DataPageV2;
+import org.apache.parquet.column.page.DictionaryPage;
+import org.apache.parquet.format.DataPageHeader;
+import org.apache.parquet.format.DataPageHeaderV2;
+import org.apache.parquet.format.DictionaryPageHeader;
+import org.apache.parquet.format.PageHeader;
+import org.apache.parquet.format.PageType;
+import org.apache.parquet.format.Util;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.io.ParquetDecodingException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads pages of a column chunk from its bytes in memory. Pages are decompressed when they are read.
+ */
+class CompressedPageReader
+        implements SkippablePageReader
+{
+    private static final ParquetMetadataConverter converter = new ParquetMetadataConverter();
+
+    private final CompressionCodec codec;
+    private final DictionaryPage compressedDictionaryPage;
+    private final List<DataPage> compressedPages;
+    private final long totalValueCount;
+    private int nextPage = 0;
+
+    private CompressedPageReader(CompressionCodec codec, DictionaryPage compressedDictionaryPage,
+            List<DataPage> compressedPages, long totalValueCount)
+    {
+        this.codec = codec;
+        this.compressedDictionaryPage = compressedDictionaryPage;
+        this.compressedPages = compressedPages;
+        this.totalValueCount = totalValueCount;
+    }
+
+    /**
+     * Parses pages of a column chunk.
+     *
+     * @param codec codec to decompress pages, or null if the chunk is not compressed
+     * @param createdBy "created_by" of the file, which tells whether statistics are reliable
+     * @param bytes the buffer containing the column chunk from {@code offset}
+     */
+    static CompressedPageReader parse(ColumnChunkMetaData chunk, CompressionCodec codec, String createdBy,
+            byte[] bytes, int offset) throws IOException
+    {
+        int length = (int) chunk.getTotalSize();
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes, offset, length);
+        DictionaryPage dictionaryPage = null;
+        List<DataPage> pages = new ArrayList<>();
+        long valuesRead = 0;
+        while (valuesRead < chunk.getValueCount()) {
+            if (in.available() == 0) {
+                throw new ParquetDecodingException(String.format(
+                        "column chunk %s ended after %d of %d values", chunk.getPath(), valuesRead, chunk.getValueCount()));
+            }
+            PageHeader header = Util.readPageHeader(in);
+            int compressedSize = header.getCompressed_page_size();
+            int uncompressedSize = header.getUncompressed_page_size();
+            int pos = offset + length - in.available();
+            if (compressedSize > in.available()) {
+                throw new ParquetDecodingException(String.format(
+                        "page of %d bytes exceeds column chunk %s", compressedSize, chunk.getPath()));
+            }
+
+            switch (header.getType()) {
+                case DICTIONARY_PAGE:
+                    DictionaryPageHeader dictionaryHeader = header.getDictionary_page_header();
+                    dictionaryPage = new DictionaryPage(BytesInput.from(bytes, pos, compressedSize), uncompressedSize,
+                            dictionaryHeader.getNum_values(), converter.getEncoding(dictionaryHeader.getEncoding()));
+                    break;
+                case DATA_PAGE:
+                    DataPageHeader v1 = header.getData_page_header();
+                    pages.add(new DataPageV1(BytesInput.from(bytes, pos, compressedSize), v1.getNum_values(), uncompressedSize,
+                            ParquetMetadataConverter.fromParquetStatistics(createdBy, v1.getStatistics(), chunk.getType()),
+                            converter.getEncoding(v1.getRepetition_level_encoding()),
+                            converter.getEncoding(v1.getDefinition_level_encoding()),
+                            converter.getEncoding(v1.getEncoding())));
+                    valuesRead += v1.getNum_values();
+                    break;
+                case DATA_PAGE_V2:
+                    DataPageHeaderV2 v2 = header.getData_page_header_v2();
+                    int rlLength = v2.getRepetition_levels_byte_length();
+                    int dlLength = v2.getDefinition_levels_byte_length();
+                    int dataSize = compressedSize - rlLength - dlLength;
+                    pages.add(new DataPageV2(v2.getNum_rows(), v2.getNum_nulls(), v2.getNum_values(),
+                            BytesInput.from(bytes, pos, rlLength),
+                            BytesInput.from(bytes, pos + rlLength, dlLength),
+                            converter.getEncoding(v2.getEncoding()),
+                            BytesInput.from(bytes, pos + rlLength + dlLength, dataSize),
+                            uncompressedSize,
+                            ParquetMetadataConverter.fromParquetStatistics(createdBy, v2.getStatistics(), chunk.getType()),
+                            v2.isIs_compressed()));
+                    valuesRead += v2.getNum_values();
+                    break;
+                default:
+                    // skip unknown pages (e.g. index pages)
+                    break;
+            }
+            in.skip(compressedSize);
+        }
+        return new CompressedPageReader(codec, dictionaryPage, pages, valuesRead);
+    }
+
+    /**
+     * Parses and decompresses the dictionary page at the beginning of a column chunk.
+     *
+     * @param bytes the buffer containing the dictionary page from {@code offset}
+     * @return the dictionary page, or null if the chunk doesn't start with a dictionary page
+     */
+    static DictionaryPage parseDictionaryPage(ColumnChunkMetaData chunk, CompressionCodec codec,
+            byte[] bytes, int offset, int length) throws IOException
+    {
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes, offset, length);
+        PageHeader header = Util.readPageHeader(in);
+        if (header.getType() != PageType.DICTIONARY_PAGE) {
+            return null;
+        }
+        int compressedSize = header.getCompressed_page_size();
+        int pos = offset + length - in.available();
+        if (compressedSize > in.available()) {
+            throw new ParquetDecodingException(String.format(
+                    "dictionary page of %d bytes exceeds column chunk %s", compressedSize, chunk.getPath()));
+        }
+        DictionaryPageHeader dictionaryHeader = header.getDictionary_page_header();
+        return new DictionaryPage(
+                decompress(codec, BytesInput.from(bytes, pos, compressedSize), header.getUncompressed_page_size()),
+                dictionaryHeader.getNum_values(), converter.getEncoding(dictionaryHeader.getEncoding()));
+    }
+
+    @Override
+    public DictionaryPage readDictionaryPage()
+    {
+        if (compressedDictionaryPage == null) {
+            return null;
+        }
+        try {
+            DictionaryPage page = compressedDictionaryPage;
+            return new DictionaryPage(decompress(codec, page.getBytes(), page.getUncompressedSize()),
+                    page.getDictionarySize(), page.getEncoding());
+        }
+        catch (IOException e) {
+            throw new ParquetDecodingException("could not decompress a dictionary page", e);
+        }
+    }
+
+    @Override
+    public long getTotalValueCount()
+    {
+        return totalValueCount;
+    }
+
+    @Override
+    public List<DataPage> peekPages()
+    {
+        return Collections.unmodifiableList(compressedPages.subList(nextPage, compressedPages.size()));
+    }
+
+    @Override
+    public void skipPage()
+    {
+        if (nextPage < compressedPages.size()) {
+            compressedPages.set(nextPage++, null);
+        }
+    }
+
+    @Override
+    public DataPage readPage()
+    {
+        if (nextPage >= compressedPages.size()) {
+            return null;
+        }
+        // release the compressed page after it's read
+        DataPage page = compressedPages.set(nextPage++, null);
+        try {
+            if (page instanceof DataPageV1) {
+                DataPageV1 v1 = (DataPageV1) page;
+                return new DataPageV1(decompress(codec, v1.getBytes(), v1.getUncompressedSize()), v1.getValueCount(),
+                        v1.getUncompressedSize(), v1.getStatistics(),
+                        v1.getRlEncoding(), v1.getDlEncoding(), v1.getValueEncoding());
+            }
+            DataPageV2 v2 = (DataPageV2) page;
+            if (!v2.isCompressed()) {
+                return v2;
+            }
+            int dataSize = (int) (v2.getUncompressedSize() - v2.getRepetitionLevels().size() - v2.getDefinitionLevels().size());
+            return DataPageV2.uncompressed(v2.getRowCount(), v2.getNullCount(), v2.getValueCount(),
+                    v2.getRepetitionLevels(), v2.getDefinitionLevels(), v2.getDataEncoding(),
+                    decompress(codec, v2.getData(), dataSize), v2.getStatistics());
+        }
+        catch (IOException e) {
+            throw new ParquetDecodingException("could not decompress a page", e);
+        }
+    }
+
+    private static BytesInput decompress(CompressionCodec codec, BytesInput bytes, int uncompressedSize) throws IOException
+    {
+        if (codec == null) {
+            return bytes;
+        }
+        Decompressor decompressor = CodecPool.getDecompressor(codec);
+        try {
+            InputStream in = codec.createInputStream(new ByteArrayInputStream(bytes.toByteArray()), decompressor);
+            byte[] decompressed = new byte[uncompressedSize];
+            IOUtils.readFully(in, decompressed, 0, uncompressedSize);
+            return BytesInput.from(decompressed);
+        }
+        finally {
+            if (decompressor != null) {
+                CodecPool.returnDecompressor(decompressor);
+            }
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.Dictionary;
+import org.apache.parquet.column.Encoding;
+import org.apache.parquet.column.page.DictionaryPage;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.filter2.predicate.Operators;
+import org.apache.parquet.filter2.predicate.UserDefinedPredicate;
+import org.apache.parquet.format.PageHeader;
+import org.apache.parquet.format.PageType;
+import org.apache.parquet.format.Util;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnPath;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.ParquetDecodingException;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Drops row groups by dictionaries of column chunks.
+ *
+ * Min/max statistics can't drop a row group by an equality on a column with many distinct values.
+ * When all pages of a column chunk are dictionary-encoded, its dictionary has every value in the
+ * chunk, so a row group is dropped if no dictionary entry is equal to the value of "==" or any
+ * value of "in". Only the dictionary pages are read for it.
+ */
+class DictionaryFilter
+{
+    interface Task
+    {
+        @Config("dictionary_filter")
+        @ConfigDefault("true")
+        boolean getDictionaryFilter();
+    }
+
+    // encodings which may appear in a chunk without data pages other than dictionary-encoded ones
+    private static final Set<Encoding> DICTIONARY_CHUNK_ENCODINGS = EnumSet.of(
+            Encoding.PLAIN_DICTIONARY, Encoding.RLE, Encoding.BIT_PACKED);
+
+    // bytes read from the beginning of a column chunk, which contain small dictionary pages
+    private static final int DICTIONARY_READ_SIZE = 64 * 1024;
+
+    private final Configuration conf;
+    private final FSDataInputStream in;
+    private final ParquetFooterReader.Tail tail;
+    private final Map<CompressionCodecName, CompressionCodec> codecs = new EnumMap<>(CompressionCodecName.class);
+
+    /**
+     * @param in stream to read dictionary pages, which is not closed by this filter
+     * @param tail the footer and the bytes read with it
+     */
+    DictionaryFilter(Configuration conf, FSDataInputStream in, ParquetFooterReader.Tail tail)
+    {
+        this.conf = conf;
+        this.in = in;
+        this.tail = tail;
+    }
+
+    /**
+     * @return row groups which may have records matching the predicate
+     */
+    List<BlockMetaData> filterRowGroups(FilterPredicate predicate, List<BlockMetaData> blocks, MessageType schema)
+            throws IOException
+    {
+        List<BlockMetaData> filtered = new ArrayList<>();
+        for (BlockMetaData block : blocks) {
+            if (!canDrop(predicate, block, schema)) {
+                filtered.add(block);
+            }
+        }
+        return filtered;
+    }
+
+    private boolean canDrop(FilterPredicate predicate, BlockMetaData block, MessageType schema) throws IOException
+    {
+        Map<ColumnPath, ColumnChunkMetaData> chunks = new HashMap<>();
+        for (ColumnChunkMetaData chunk : block.getColumns()) {
+            chunks.put(chunk.getPath(), chunk);
+        }
+        DropVisitor visitor = new DropVisitor(chunks, schema);
+        boolean drop = predicate.accept(visitor);
+        if (visitor.exception != null) {
+            throw visitor.exception;
+        }
+        return drop;
+    }
+
+    /**
+     * @return true if all data pages of the chunk are dictionary-encoded
+     */
+    static boolean isFullyDictionaryEncoded(ColumnChunkMetaData chunk)
+    {
+        // files written in v2 format use PLAIN for dictionary pages too, so PLAIN data pages
+        // after dictionary fallback can't be told from them
+        Set<Encoding> encodings = chunk.getEncodings();
+        return encodings.contains(Encoding.PLAIN_DICTIONARY) && DICTIONARY_CHUNK_ENCODINGS.containsAll(encodings);
+    }
+
+    private Dictionary readDictionary(ColumnChunkMetaData chunk, ColumnDescriptor descriptor) throws IOException
+    {
+        // parquet-mr before 1.9 doesn't write dictionary_page_offset, so the size of the
+        // dictionary page is known only by its header at the beginning of the chunk
+        long start = chunk.getStartingPos();
+        int length = (int) Math.min(chunk.getTotalSize(), DICTIONARY_READ_SIZE);
+        byte[] bytes = read(start, length);
+        ByteArrayInputStream headerIn = new ByteArrayInputStream(bytes);
+        PageHeader header = Util.readPageHeader(headerIn);
+        if (header.getType() != PageType.DICTIONARY_PAGE) {
+            return null;
+        }
+        int pageSize = length - headerIn.available() + header.getCompressed_page_size();
+        if (pageSize > chunk.getTotalSize()) {
+            throw new ParquetDecodingException(String.format(
+                    "dictionary page of %d bytes exceeds column chunk %s", pageSize, chunk.getPath()));
+        }
+        if (pageSize > length) {
+            bytes = read(start, pageSize);
+        }
+        DictionaryPage page = CompressedPageReader.parseDictionaryPage(chunk, getCodec(chunk.getCodec()),
+                bytes, 0, pageSize);
+        return page.getEncoding().initDictionary(descriptor, page);
+    }
+
+    private byte[] read(long start, int length) throws IOException
+    {
+        if (tail.contains(start, start + length)) {
+            int offset = (int) (start - tail.getStart());
+            return Arrays.copyOfRange(tail.getBytes(), offset, offset + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(start, bytes);
+        return bytes;
+    }
+
+    private CompressionCodec getCodec(CompressionCodecName codecName)
+    {
+        if (codecName == CompressionCodecName.UNCOMPRESSED) {
+            return null;
+        }
+        CompressionCodec codec = codecs.get(codecName);
+        if (codec == null) {
+            Class<?> codecClass = codecName.getHadoopCompressionCodecClass();
+            codec = (CompressionCodec) ReflectionUtils.newInstance(codecClass, conf);
+            codecs.put(codecName, codec);
+        }
+        return codec;
+    }
+
+    private static boolean dictionaryContains(Dictionary dictionary, ColumnDescriptor descriptor, Object value)
+    {
+        for (int id = 0; id <= dictionary.getMaxId(); id++) {
+            boolean equal;
+            switch (descriptor.getType()) {
+                case INT32:
+                    equal = dictionary.decodeToInt(id) == (Integer) value;
+                    break;
+                case INT64:
+                    equal = dictionary.decodeToLong(id) == (Long) value;
+                    break;
+                case FLOAT:
+                    equal = dictionary.decodeToFloat(id) == (Float) value;
+                    break;
+                case DOUBLE:
+                    equal = dictionary.decodeToDouble(id) == (Double) value;
+                    break;
+                case BINARY:
+                    equal = dictionary.decodeToBinary(id).equals((Binary) value);
+                    break;
+                default:
+                    return true;
+            }
+            if (equal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // returns true if no record of the row group can match
+    private class DropVisitor
+            implements FilterPredicate.Visitor<Boolean>
+    {
+        private final Map<ColumnPath, ColumnChunkMetaData> chunks;
+        private final MessageType schema;
+        // dictionaries read for this row group. null if a chunk has no usable dictionary
+        private final Map<ColumnPath, Dictionary> dictionaries = new HashMap<>();
+        private IOException exception;
+
+        DropVisitor(Map<ColumnPath, ColumnChunkMetaData> chunks, MessageType schema)
+        {
+            this.chunks = chunks;
+            this.schema = schema;
+        }
+
+        @Override
+        public <T extends Comparable<T>> Boolean visit(Operators.Eq<T> eq)
+        {
+            T value = eq.getValue();
+            if (value == null || exception != null) {
+                // nulls are not in dictionaries
+                return false;
+            }
+            ColumnPath path = eq.getColumn().getColumnPath();
+            ColumnChunkMetaData chunk = chunks.get(path);
+            if (chunk == null) {
+                // eq on a missing column is false, which is dropped by statistics
+                return false;
+            }
+            ColumnDescriptor descriptor = schema.getColumnDescription(path.toArray());
+            Dictionary dictionary;
+            if (dictionaries.containsKey(path)) {
+                dictionary = dictionaries.get(path);
+            }
+            else {
+                dictionary = null;
+                if (isFullyDictionaryEncoded(chunk)) {
+                    try {
+                        dictionary = readDictionary(chunk, descriptor);
+                    }
+                    catch (IOException e) {
+                        exception = e;
+                        return false;
+                    }
+                }
+                dictionaries.put(path, dictionary);
+            }
+            return dictionary != null && !dictionaryContains(dictionary, descriptor, value);
+        }
+
+        @Override
+        public <T extends Comparable<T>> Boolean visit(Operators.NotEq<T> notEq)
+        {
+            return false;
+        }
+
+        @Override
+        public <T extends Comparable<T>> Boolean visit(Operators.Lt<T> lt)
+        {
+            return false;
+        }
+
+        @Override
+        public <T extends Comparable<T>> Boolean visit(Operators.LtEq<T> ltEq)
+        {
+            return false;
+        }
+
+        @Override
+        public <T extends Comparable<T>> Boolean visit(Operators.Gt<T> gt)
+        {
+            return false;
+        }
+
+        @Override
+        public <T extends Comparable<T>> Boolean visit(Operators.GtEq<T> gtEq)
+        {
+            return false;
+        }
+
+        @Override
+        public Boolean visit(Operators.And and)
+        {
+            return and.getLeft().accept(this) || and.getRight().accept(this);
+        }
+
+        @Override
+        public Boolean visit(Operators.Or or)
+        {
+            return or.getLeft().accept(this) && or.getRight().accept(this);
+        }
+
+        @Override
+        public Boolean visit(Operators.Not not)
+        {
+            // a dropped row group by the child doesn't mean all records match it
+            return false;
+        }
+
+        @Override
+        public <T extends Comparable<T>, U extends UserDefinedPredicate<T>> Boolean visit(Operators.UserDefined<T, U> udp)
+        {
+            return false;
+        }
+
+        @Override
+        public <T extends Comparable<T>, U extends UserDefinedPredicate<T>> Boolean visit(Operators.LogicalNotUserDefined<T, U> udp)
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.parquet.hadoop.util.HiddenFileFilter;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.config.ConfigException;
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lists Parquet files under glob matched paths.
+ *
+ * Directories are walked by listing them concurrently on a bounded thread pool. On object stores,
+ * whose "directories" are just key prefixes, a directory tree is listed with the flat
+ * {@link FileSystem#listFiles(Path, boolean)} iterator instead.
+ * Hidden files and directories (starting with '_' or '.') are skipped.
+ *
+ * With "partition_filter", a directory whose partition values can't match is not listed. Flat
+ * listing is disabled by default then, because it can't skip directories.
+ */
+public class FileLister
+{
+    private static final Logger logger = Exec.getLogger(FileLister.class);
+
+    private static final Set<String> FLAT_LISTING_SCHEMES = ImmutableSet.of(
+            "s3", "s3a", "s3n", "gs", "wasb", "wasbs", "abfs", "abfss", "oss");
+
+    interface Task
+    {
+        @Config("list_threads")
+        @ConfigDefault("8")
+        int getListThreads();
+
+        @Config("flat_listing")
+        @ConfigDefault("null")
+        Optional<Boolean> getFlatListing();
+    }
+
+    private final FileSystem fs;
+    private final int threads;
+    private final boolean flatListing;
+    private final HivePartitions partitions;
+
+    private final List<FileStatus> results = Collections.synchronizedList(Lists.<FileStatus>newArrayList());
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicInteger prunedEntries = new AtomicInteger();
+    private ExecutorService executor;
+
+    public FileLister(Task task, FileSystem fs)
+    {
+        this(task, fs, HivePartitions.none());
+    }
+
+    FileLister(Task task, FileSystem fs, HivePartitions partitions)
+    {
+        if (task.getListThreads() <= 0) {
+            throw new ConfigException("list_threads must be positive: " + task.getListThreads());
+        }
+        this.fs = fs;
+        this.threads = task.getListThreads();
+        this.flatListing = task.getFlatListing().or(
+                !partitions.hasFilter() && FLAT_LISTING_SCHEMES.contains(fs.getUri().getScheme()));
+        this.partitions = partitions;
+    }
+
+    /**
+     * @return file statuses sorted by path
+     */
+    public List<FileStatus> list(Path rootPath) throws IOException
+    {
+        FileStatus[] entries = fs.globStatus(rootPath, HiddenFileFilter.INSTANCE);
+        if (entries == null) {
+            return Lists.newArrayList();
+        }
+
+        for (FileStatus entry : entries) {
+            if (!entry.isDirectory()) {
+                addFile(entry);
+            }
+            else if (!partitions.mayMatch(entry.getPath())) {
+                prunedEntries.incrementAndGet();
+            }
+            else if (flatListing) {
+                listFlat(entry.getPath());
+            }
+            else {
+                walk(entry.getPath());
+            }
+        }
+        awaitWalk();
+        if (partitions.hasFilter()) {
+            logger.info("embulk-input-parquet_hadoop: skipped {} directories and files by partition_filter",
+                    prunedEntries.get());
+        }
+
+        List<FileStatus> statusList = Lists.newArrayList(results);
+        Collections.sort(statusList, new Comparator<FileStatus>() {
+            @Override
+            public int compare(FileStatus o1, FileStatus o2)
+            {
+                return o1.getPath().compareTo(o2.getPath());
+            }
+        });
+        return statusList;
+    }
+
+    private void addFile(FileStatus status)
+    {
+        if (partitions.matches(status.getPath().getParent())) {
+            results.add(status);
+        }
+        else {
+            prunedEntries.incrementAndGet();
+        }
+    }
+
+    private void listFlat(Path dir) throws IOException
+    {
+        String prefix = dir.toUri().getPath();
+        RemoteIterator<LocatedFileStatus> iterator = fs.listFiles(dir, true);
+        while (iterator.hasNext()) {
+            LocatedFileStatus status = iterator.next();
+            if (!isHidden(status.getPath(), prefix)) {
+                addFile(status);
+            }
+        }
+    }
+
+    // Hidden directories are pruned by listStatus on walk, but listFiles returns files under them.
+    private static boolean isHidden(Path path, String prefix)
+    {
+        String relative = path.toUri().getPath();
+        if (relative.startsWith(prefix)) {
+            relative = relative.substring(prefix.length());
+        }
+        for (String name : relative.split("/")) {
+            if (name.startsWith("_") || name.startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void walk(final Path dir)
+    {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                    .setNameFormat("embulk-input-parquet_hadoop-lister-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+
+        pending.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
+                    if (failure.get() == null) {
+                        for (FileStatus entry : fs.listStatus(dir, HiddenFileFilter.INSTANCE)) {
+                            if (!entry.isDirectory()) {
+                                addFile(entry);
+                            }
+                            else if (partitions.mayMatch(entry.getPath())) {
+                                walk(entry.getPath());
+                            }
+                            else {
+                                prunedEntries.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+                catch (Throwable e) {
+                    // including errors, so that files are never listed partially without a failure
+                    failure.compareAndSet(null, e);
+                }
+                finally {
+                    if (pending.decrementAndGet() == 0) {
+                        synchronized (pending) {
+                            pending.notifyAll();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private void awaitWalk() throws IOException
+    {
+        if (executor == null) {
+            return;
+        }
+
+        try {
+            synchronized (pending) {
+                while (pending.get() > 0) {
+                    pending.wait();
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while listing files");
+        }
+        finally {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        Throwable e = failure.get();
+        if (e != null) {
+            Throwables.propagateIfPossible(e, IOException.class);
+            throw Throwables.propagate(e);
+        }
+        logger.debug("embulk-input-parquet_hadoop: listed {} files", results.size());
+    }
+}
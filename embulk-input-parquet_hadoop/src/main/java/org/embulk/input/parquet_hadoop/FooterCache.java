@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.config.ConfigException;
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Footers read during the transaction, shared with tasks running in the same JVM.
+ *
+ * Footers are cached with all row groups and keyed by the path, the length and the modification
+ * time of the file, so a file changed after the transaction is read again. A task falls back to
+ * reading the footer when it's not cached, e.g. on another host or after eviction.
+ * The total serialized size of cached footers is bounded by "footer_cache_size".
+ *
+ * With "footer_index_dir", footers not cached in memory are looked up in {@link FooterIndex}
+ * before they are read from the file, and footers read from files are stored into it.
+ */
+class FooterCache
+{
+    interface Task
+            extends ParquetFooterReader.Task, FooterIndex.Task
+    {
+        @Config("footer_cache_size")
+        @ConfigDefault("33554432")
+        long getFooterCacheSize();
+    }
+
+    private static final Logger logger = Exec.getLogger(FooterCache.class);
+
+    private static Cache<Key, Entry> cache;
+    private static long cacheSize = 0;
+
+    private FooterCache()
+    {
+    }
+
+    /**
+     * Reads the footer with all row groups, or gets it from the cache.
+     */
+    static ParquetMetadata get(Task task, FileSystem fs, FileStatus status) throws IOException
+    {
+        Key key = new Key(status.getPath().toString(), status.getLen(), status.getModificationTime());
+        Cache<Key, Entry> cache = getCache(task);
+        if (cache != null) {
+            Entry entry = cache.getIfPresent(key);
+            if (entry != null) {
+                return entry.footer;
+            }
+        }
+        Optional<FooterIndex> index = FooterIndex.open(task);
+        Entry entry = index.isPresent() ? getFromIndex(index.get(), key) : null;
+        if (entry == null) {
+            ParquetFooterReader.Tail tail = ParquetFooterReader.readTail(task, fs, status, ParquetMetadataConverter.NO_FILTER);
+            entry = new Entry(tail.getMetadata(), tail.getFooterLength());
+            if (index.isPresent()) {
+                index.get().put(key.path, key.length, key.modificationTime, tail.getFooterBytes());
+            }
+        }
+        if (cache != null) {
+            cache.put(key, entry);
+        }
+        return entry.footer;
+    }
+
+    /**
+     * @return the cached footer with all row groups, or null if it's not cached
+     */
+    static ParquetMetadata getIfPresent(Task task, String path, long length, long modificationTime)
+    {
+        Key key = new Key(path, length, modificationTime);
+        Cache<Key, Entry> cache = getCache(task);
+        Entry entry = cache == null ? null : cache.getIfPresent(key);
+        if (entry == null) {
+            Optional<FooterIndex> index = FooterIndex.open(task);
+            if (index.isPresent()) {
+                entry = getFromIndex(index.get(), key);
+                if (entry != null && cache != null) {
+                    cache.put(key, entry);
+                }
+            }
+        }
+        return entry == null ? null : entry.footer;
+    }
+
+    private static Entry getFromIndex(FooterIndex index, Key key)
+    {
+        byte[] bytes = index.get(key.path, key.length, key.modificationTime);
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            return new Entry(ParquetFooterReader.parseFooter(bytes, ParquetMetadataConverter.NO_FILTER), bytes.length);
+        }
+        catch (IOException | RuntimeException e) {
+            logger.warn("embulk-input-parquet_hadoop: Ignoring a broken footer of {} in the index", key.path, e);
+            index.remove(key.path, key.length, key.modificationTime);
+            return null;
+        }
+    }
+
+    private static synchronized Cache<Key, Entry> getCache(Task task)
+    {
+        long size = task.getFooterCacheSize();
+        if (size < 0) {
+            throw new ConfigException("footer_cache_size must not be negative: " + size);
+        }
+        if (size != cacheSize) {
+            // another job in this JVM configured a different size
+            cache = size == 0 ? null : CacheBuilder.newBuilder()
+                    .maximumWeight(size)
+                    // the weight is bounded for each segment, so a segment caches footers up to the whole size
+                    .concurrencyLevel(1)
+                    .weigher(new Weigher<Key, Entry>()
+                    {
+                        @Override
+                        public int weigh(Key key, Entry entry)
+                        {
+                            return entry.footerLength;
+                        }
+                    })
+                    .<Key, Entry>build();
+            cacheSize = size;
+        }
+        return cache;
+    }
+
+    private static class Key
+    {
+        private final String path;
+        private final long length;
+        private final long modificationTime;
+
+        Key(String path, long length, long modificationTime)
+        {
+            this.path = path;
+            this.length = length;
+            this.modificationTime = modificationTime;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return path.equals(other.path) && length == other.length && modificationTime == other.modificationTime;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(path, length, modificationTime);
+        }
+    }
+
+    private static class Entry
+    {
+        private final ParquetMetadata footer;
+        private final int footerLength;
+
+        Entry(ParquetMetadata footer, int footerLength)
+        {
+            this.footer = footer;
+            this.footerLength = footerLength;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import com.google.common.base.Optional;
+import com.google.common.hash.Hashing;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.config.ConfigException;
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serialized footers stored in a local directory across runs.
+ *
+ * A footer contains everything to plan splits and to prune files: the schema, offsets and row
+ * counts of row groups, and statistics of column chunks. Entries are keyed by the path, the
+ * length and the modification time of the file, so a changed file gets a new entry. The total
+ * size of the entries is bounded by "footer_index_size" and the least recently used entries are
+ * deleted first.
+ */
+class FooterIndex
+{
+    interface Task
+    {
+        @Config("footer_index_dir")
+        @ConfigDefault("null")
+        Optional<String> getFooterIndexDir();
+
+        @Config("footer_index_size")
+        @ConfigDefault("268435456")
+        long getFooterIndexSize();
+    }
+
+    private static final Logger logger = Exec.getLogger(FooterIndex.class);
+
+    private static final String ENTRY_SUFFIX = ".footer";
+    // entries are evicted down to this ratio of the limit so that eviction doesn't run every time
+    private static final double EVICTION_RATIO = 0.9;
+
+    private static final Map<Path, FooterIndex> indexes = new HashMap<>();
+
+    private final Path dir;
+    private final long maxSize;
+    private long size;
+
+    private FooterIndex(Path dir, long maxSize, long size)
+    {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.size = size;
+    }
+
+    /**
+     * @return the index of "footer_index_dir" shared in this JVM, or absent if it's not set
+     */
+    static Optional<FooterIndex> open(Task task)
+    {
+        if (!task.getFooterIndexDir().isPresent()) {
+            return Optional.absent();
+        }
+        if (task.getFooterIndexSize() <= 0) {
+            throw new ConfigException("footer_index_size must be positive: " + task.getFooterIndexSize());
+        }
+        Path dir = Paths.get(task.getFooterIndexDir().get()).toAbsolutePath().normalize();
+        synchronized (indexes) {
+            FooterIndex index = indexes.get(dir);
+            if (index == null || index.maxSize != task.getFooterIndexSize()) {
+                try {
+                    Files.createDirectories(dir);
+                    index = new FooterIndex(dir, task.getFooterIndexSize(), 0);
+                    index.size = index.totalSize(index.listEntries());
+                    if (index.size > index.maxSize) {
+                        // the limit was lowered since the last run
+                        index.evict();
+                    }
+                }
+                catch (IOException e) {
+                    throw new ConfigException("footer_index_dir is not available: " + dir, e);
+                }
+                indexes.put(dir, index);
+            }
+            return Optional.of(index);
+        }
+    }
+
+    /**
+     * @return the serialized footer, or null if it's not stored
+     */
+    byte[] get(String path, long length, long modificationTime)
+    {
+        Path entry = entryPath(path, length, modificationTime);
+        try {
+            byte[] footer = Files.readAllBytes(entry);
+            // mark as recently used
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return footer;
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        catch (IOException e) {
+            logger.warn("embulk-input-parquet_hadoop: Failed to read a footer of {} from the index", path, e);
+            return null;
+        }
+    }
+
+    void put(String path, long length, long modificationTime, byte[] footer)
+    {
+        if (footer.length > maxSize) {
+            return;
+        }
+        Path entry = entryPath(path, length, modificationTime);
+        try {
+            // other processes may read the entry at the same time
+            Path temp = Files.createTempFile(dir, entry.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temp, footer);
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        catch (IOException e) {
+            logger.warn("embulk-input-parquet_hadoop: Failed to write a footer of {} to the index", path, e);
+            return;
+        }
+
+        synchronized (this) {
+            size += footer.length;
+            if (size > maxSize) {
+                evict();
+            }
+        }
+    }
+
+    /**
+     * Deletes an entry which could not be parsed.
+     */
+    void remove(String path, long length, long modificationTime)
+    {
+        try {
+            Files.deleteIfExists(entryPath(path, length, modificationTime));
+        }
+        catch (IOException e) {
+            logger.warn("embulk-input-parquet_hadoop: Failed to delete a footer of {} from the index", path, e);
+        }
+    }
+
+    private Path entryPath(String path, long length, long modificationTime)
+    {
+        String key = path + "\n" + length + "\n" + modificationTime;
+        return dir.resolve(Hashing.sha256().hashString(key, StandardCharsets.UTF_8).toString() + ENTRY_SUFFIX);
+    }
+
+    private synchronized void evict()
+    {
+        try {
+            List<Entry> entries = listEntries();
+            size = totalSize(entries);
+            Collections.sort(entries, new Comparator<Entry>()
+            {
+                @Override
+                public int compare(Entry o1, Entry o2)
+                {
+                    return Long.compare(o1.lastUsed, o2.lastUsed);
+                }
+            });
+            int evicted = 0;
+            for (Entry entry : entries) {
+                if (size <= maxSize * EVICTION_RATIO) {
+                    break;
+                }
+                if (Files.deleteIfExists(entry.path)) {
+                    evicted++;
+                }
+                size -= entry.size;
+            }
+            logger.info("embulk-input-parquet_hadoop: Evicted {} footers from the index {}", evicted, dir);
+        }
+        catch (IOException e) {
+            logger.warn("embulk-input-parquet_hadoop: Failed to evict footers from the index {}", dir, e);
+        }
+    }
+
+    private List<Entry> listEntries() throws IOException
+    {
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + ENTRY_SUFFIX)) {
+            for (Path path : stream) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    entries.add(new Entry(path, attributes.size(), attributes.lastModifiedTime().toMillis()));
+                }
+                catch (NoSuchFileException e) {
+                    // deleted by another process
+                }
+            }
+        }
+        return entries;
+    }
+
+    private long totalSize(List<Entry> entries)
+    {
+        long size = 0;
+        for (Entry entry : entries) {
+            size += entry.size;
+        }
+        return size;
+    }
+
+    private static class Entry
+    {
+        private final Path path;
+        private final long size;
+        private final long lastUsed;
+
+        Entry(Path path, long size, long lastUsed)
+        {
+            this.path = path;
+            this.size = size;
+            this.lastUsed = lastUsed;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import com.google.common.base.Optional;
+import org.apache.hadoop.fs.Path;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.config.ConfigException;
+import org.embulk.spi.Column;
+import org.embulk.spi.DataException;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partition columns given by Hive-style "key=value" directory names.
+ *
+ * "partition_filter" is evaluated on the partition values of a directory while files are listed,
+ * and a directory which can't match is not listed. Partition values of a file are added to its
+ * records as keys of "record" column, or as typed columns after "columns".
+ */
+class HivePartitions
+{
+    interface Task
+    {
+        @Config("partition_columns")
+        @ConfigDefault("[]")
+        List<ColumnConfig> getPartitionColumns();
+
+        @Config("partition_filter")
+        @ConfigDefault("null")
+        Optional<ParquetFilter> getPartitionFilter();
+    }
+
+    // directory name of null partition values written by Hive
+    static final String DEFAULT_PARTITION_NAME = "__HIVE_DEFAULT_PARTITION__";
+
+    private final Map<String, Type> columns;
+    private final Optional<ParquetFilter> filter;
+
+    HivePartitions(Task task)
+    {
+        Map<String, Type> columns = new LinkedHashMap<>();
+        for (ColumnConfig column : task.getPartitionColumns()) {
+            Type type = column.isTyped() ? column.getType() : Types.STRING;
+            if (type != Types.STRING && type != Types.LONG && type != Types.DOUBLE && type != Types.BOOLEAN) {
+                throw new ConfigException(String.format("partition column '%s' must be string, long, double or boolean: %s",
+                        column.getName(), type));
+            }
+            if (columns.put(column.getName(), type) != null) {
+                throw new ConfigException("duplicated partition column: " + column.getName());
+            }
+        }
+        if (task.getPartitionFilter().isPresent()) {
+            for (String name : task.getPartitionFilter().get().getColumnNames()) {
+                if (!columns.containsKey(name)) {
+                    throw new ConfigException("partition_filter must refer to partition_columns only: " + name);
+                }
+            }
+        }
+        this.columns = Collections.unmodifiableMap(columns);
+        this.filter = task.getPartitionFilter();
+    }
+
+    private HivePartitions()
+    {
+        this.columns = Collections.emptyMap();
+        this.filter = Optional.absent();
+    }
+
+    /**
+     * @return partitions without columns, which match any directory
+     */
+    static HivePartitions none()
+    {
+        return new HivePartitions();
+    }
+
+    /**
+     * @return names and types of partition columns in order
+     */
+    Map<String, Type> getColumns()
+    {
+        return columns;
+    }
+
+    boolean hasFilter()
+    {
+        return filter.isPresent();
+    }
+
+    /**
+     * @return true if files under the directory may match the filter. partitions in
+     *         subdirectories are unknown.
+     */
+    boolean mayMatch(Path dir)
+    {
+        if (!filter.isPresent()) {
+            return true;
+        }
+        Boolean result = filter.get().evaluate(parse(dir));
+        return result == null || result;
+    }
+
+    /**
+     * @return true if files in the directory match the filter. partitions not in the path are null.
+     */
+    boolean matches(Path dir)
+    {
+        if (!filter.isPresent()) {
+            return true;
+        }
+        return Boolean.TRUE.equals(filter.get().evaluate(getValues(dir)));
+    }
+
+    /**
+     * @return values of all partition columns of files in the directory in order. a partition
+     *         not in the path is null.
+     */
+    Map<String, Object> getValues(Path dir)
+    {
+        Map<String, Object> parsed = parse(dir);
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (String name : columns.keySet()) {
+            values.put(name, parsed.get(name));
+        }
+        return values;
+    }
+
+    private Map<String, Object> parse(Path dir)
+    {
+        Map<String, Object> values = new HashMap<>();
+        for (String name : dir.toUri().getPath().split("/")) {
+            int index = name.indexOf('=');
+            if (index <= 0) {
+                continue;
+            }
+            String key = unescape(name.substring(0, index));
+            Type type = columns.get(key);
+            if (type != null) {
+                values.put(key, toValue(key, type, unescape(name.substring(index + 1))));
+            }
+        }
+        return values;
+    }
+
+    private static Object toValue(String key, Type type, String value)
+    {
+        if (value.equals(DEFAULT_PARTITION_NAME)) {
+            return null;
+        }
+        try {
+            if (type == Types.LONG) {
+                return Long.valueOf(value);
+            }
+            else if (type == Types.DOUBLE) {
+                return Double.valueOf(value);
+            }
+            else if (type == Types.BOOLEAN) {
+                if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                    throw new IllegalArgumentException();
+                }
+                return Boolean.valueOf(value);
+            }
+            return value;
+        }
+        catch (IllegalArgumentException e) {
+            throw new DataException(String.format("partition value '%s' of '%s' is not a %s", value, key, type));
+        }
+    }
+
+    // reverses escaping of special characters in directory names by Hive, e.g. "%3A" for ':'
+    private static String unescape(String name)
+    {
+        if (name.indexOf('%') < 0) {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder();
+        // consecutive escaped bytes are decoded together as UTF-8
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '%' && i + 2 < name.length() && isHex(name.charAt(i + 1)) && isHex(name.charAt(i + 2))) {
+                bytes.write(Integer.parseInt(name.substring(i + 1, i + 3), 16));
+                i += 2;
+                continue;
+            }
+            if (bytes.size() > 0) {
+                sb.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+                bytes.reset();
+            }
+            sb.append(c);
+        }
+        sb.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        return sb.toString();
+    }
+
+    private static boolean isHex(char c)
+    {
+        return Character.digit(c, 16) >= 0;
+    }
+
+    /**
+     * @return keys and values to add to maps of "record" column. a field of the same name in a
+     *         file is replaced.
+     */
+    static Value[] toKeyValues(Map<String, Object> values)
+    {
+        List<Value> kvs = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            kvs.add(ValueFactory.newString(entry.getKey()));
+            kvs.add(toMessagePack(entry.getValue()));
+        }
+        return kvs.toArray(new Value[kvs.size()]);
+    }
+
+    private static Value toMessagePack(Object value)
+    {
+        if (value == null) {
+            return ValueFactory.newNil();
+        }
+        else if (value instanceof Long) {
+            return ValueFactory.newInteger((Long) value);
+        }
+        else if (value instanceof Double) {
+            return ValueFactory.newFloat((Double) value);
+        }
+        else if (value instanceof Boolean) {
+            return ValueFactory.newBoolean((Boolean) value);
+        }
+        return ValueFactory.newString(value.toString());
+    }
+
+    /**
+     * Sets a partition value to a typed column.
+     */
+    static void setColumn(PageBuilder pageBuilder, Column column, Object value)
+    {
+        if (value == null) {
+            pageBuilder.setNull(column);
+        }
+        else if (value instanceof Long) {
+            pageBuilder.setLong(column, (Long) value);
+        }
+        else if (value instanceof Double) {
+            pageBuilder.setDouble(column, (Double) value);
+        }
+        else if (value instanceof Boolean) {
+            pageBuilder.setBoolean(column, (Boolean) value);
+        }
+        else {
+            pageBuilder.setString(column, value.toString());
+        }
+    }
+}
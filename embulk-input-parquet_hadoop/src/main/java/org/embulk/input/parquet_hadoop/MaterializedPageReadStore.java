@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.parquet.bytes.BytesInput;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.page.DataPage;
+import org.apache.parquet.column.page.DataPageV1;
+import org.apache.parquet.column.page.DataPageV2;
+import org.apache.parquet.column.page.DictionaryPage;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.column.page.PageReader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Pages of a row group held in memory after decompression.
+ *
+ * Pages returned by {@link org.apache.parquet.hadoop.ParquetFileReader#readNextRowGroup()} are
+ * decompressed lazily when a record reader reads them. Materializing them moves the
+ * decompression to the thread which calls {@link #materialize(PageReadStore, List)}, or to threads
+ * of an executor which decompress column chunks concurrently.
+ */
+class MaterializedPageReadStore
+        implements PageReadStore
+{
+    private final long rowCount;
+    private final Map<ColumnDescriptor, MaterializedPageReader> readers;
+    private final long byteSize;
+
+    private MaterializedPageReadStore(long rowCount, Map<ColumnDescriptor, MaterializedPageReader> readers)
+    {
+        this.rowCount = rowCount;
+        this.readers = readers;
+        long byteSize = 0;
+        for (MaterializedPageReader reader : readers.values()) {
+            byteSize += reader.byteSize;
+        }
+        this.byteSize = byteSize;
+    }
+
+    /**
+     * Reads and decompresses all pages of the columns.
+     */
+    static MaterializedPageReadStore materialize(PageReadStore pages, List<ColumnDescriptor> columns)
+            throws IOException
+    {
+        Map<ColumnDescriptor, MaterializedPageReader> readers = new HashMap<>();
+        for (ColumnDescriptor column : columns) {
+            readers.put(column, MaterializedPageReader.materialize(pages.getPageReader(column)));
+        }
+        return new MaterializedPageReadStore(pages.getRowCount(), readers);
+    }
+
+    /**
+     * Reads and decompresses all pages of the columns by a task of the executor for each column.
+     *
+     * @param pages pages whose column chunks can be decompressed by different threads
+     */
+    static MaterializedPageReadStore materialize(PageReadStore pages, List<ColumnDescriptor> columns,
+            ExecutorService executor) throws IOException
+    {
+        Map<ColumnDescriptor, Future<MaterializedPageReader>> futures = new LinkedHashMap<>();
+        for (ColumnDescriptor column : columns) {
+            final PageReader reader = pages.getPageReader(column);
+            futures.put(column, executor.submit(new Callable<MaterializedPageReader>()
+            {
+                @Override
+                public MaterializedPageReader call() throws IOException
+                {
+                    try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
+                        return MaterializedPageReader.materialize(reader);
+                    }
+                }
+            }));
+        }
+
+        Map<ColumnDescriptor, MaterializedPageReader> readers = new HashMap<>();
+        try {
+            for (Map.Entry<ColumnDescriptor, Future<MaterializedPageReader>> entry : futures.entrySet()) {
+                readers.put(entry.getKey(), entry.getValue().get());
+            }
+        }
+        catch (InterruptedException e) {
+            cancel(futures.values());
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while decompressing column chunks");
+        }
+        catch (ExecutionException e) {
+            cancel(futures.values());
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        return new MaterializedPageReadStore(pages.getRowCount(), readers);
+    }
+
+    private static void cancel(Iterable<? extends Future<?>> futures)
+    {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    @Override
+    public PageReader getPageReader(ColumnDescriptor descriptor)
+    {
+        MaterializedPageReader reader = readers.get(descriptor);
+        if (reader == null) {
+            throw new IllegalArgumentException(descriptor + " is not materialized");
+        }
+        return reader;
+    }
+
+    @Override
+    public long getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * @return total bytes of decompressed pages
+     */
+    long getByteSize()
+    {
+        return byteSize;
+    }
+
+    static class MaterializedPageReader
+            implements SkippablePageReader
+    {
+        private final DictionaryPage dictionaryPage;
+        private final List<DataPage> dataPages;
+        private final long totalValueCount;
+        private final long byteSize;
+        private int nextPage = 0;
+
+        private MaterializedPageReader(DictionaryPage dictionaryPage, List<DataPage> dataPages)
+        {
+            this.dictionaryPage = dictionaryPage;
+            this.dataPages = dataPages;
+            long totalValueCount = 0;
+            long byteSize = dictionaryPage == null ? 0 : dictionaryPage.getUncompressedSize();
+            for (DataPage page : dataPages) {
+                totalValueCount += page.getValueCount();
+                byteSize += page.getUncompressedSize();
+            }
+            this.totalValueCount = totalValueCount;
+            this.byteSize = byteSize;
+        }
+
+        static MaterializedPageReader materialize(PageReader reader) throws IOException
+        {
+            DictionaryPage dictionaryPage = reader.readDictionaryPage();
+            if (dictionaryPage != null) {
+                dictionaryPage = dictionaryPage.copy();
+            }
+            List<DataPage> dataPages = new ArrayList<>();
+            DataPage page;
+            while ((page = reader.readPage()) != null) {
+                dataPages.add(copy(page));
+            }
+            return new MaterializedPageReader(dictionaryPage, dataPages);
+        }
+
+        /**
+         * @return a reader of the same pages from the first page
+         */
+        MaterializedPageReader duplicate()
+        {
+            return new MaterializedPageReader(dictionaryPage, new ArrayList<>(dataPages));
+        }
+
+        private static DataPage copy(DataPage page) throws IOException
+        {
+            if (page instanceof DataPageV1) {
+                DataPageV1 v1 = (DataPageV1) page;
+                return new DataPageV1(BytesInput.copy(v1.getBytes()), v1.getValueCount(), v1.getUncompressedSize(),
+                        v1.getStatistics(), v1.getRlEncoding(), v1.getDlEncoding(), v1.getValueEncoding());
+            }
+            DataPageV2 v2 = (DataPageV2) page;
+            return DataPageV2.uncompressed(v2.getRowCount(), v2.getNullCount(), v2.getValueCount(),
+                    BytesInput.copy(v2.getRepetitionLevels()), BytesInput.copy(v2.getDefinitionLevels()),
+                    v2.getDataEncoding(), BytesInput.copy(v2.getData()), v2.getStatistics());
+        }
+
+        @Override
+        public DictionaryPage readDictionaryPage()
+        {
+            return dictionaryPage;
+        }
+
+        @Override
+        public long getTotalValueCount()
+        {
+            return totalValueCount;
+        }
+
+        @Override
+        public List<DataPage> peekPages()
+        {
+            return Collections.unmodifiableList(dataPages.subList(nextPage, dataPages.size()));
+        }
+
+        @Override
+        public void skipPage()
+        {
+            if (nextPage < dataPages.size()) {
+                dataPages.set(nextPage++, null);
+            }
+        }
+
+        @Override
+        public DataPage readPage()
+        {
+            if (nextPage >= dataPages.size()) {
+                return null;
+            }
+            // release the page after it's read
+            return dataPages.set(nextPage++, null);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import jp.co.cyberagent.parquet.msgpack.read.SchemaProjection;
+import jp.co.cyberagent.parquet.msgpack.read.converter.HasParentContainerUpdater;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.column.Dictionary;
+import org.apache.parquet.hadoop.api.InitContext;
+import org.apache.parquet.hadoop.api.ReadSupport;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.Converter;
+import org.apache.parquet.io.api.GroupConverter;
+import org.apache.parquet.io.api.PrimitiveConverter;
+import org.apache.parquet.io.api.RecordMaterializer;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.Type;
+import org.embulk.spi.Column;
+import org.embulk.spi.PageBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads records into the current row of a {@link PageBuilder}.
+ *
+ * Each column of the page is a top-level field of the same name. Values are set to the page by
+ * {@link ColumnConverters} without building an intermediate record. A column missing from a file
+ * is null.
+ */
+public class PageBuilderReadSupport
+        extends ReadSupport<PageBuilder>
+{
+    private final PageBuilder pageBuilder;
+    private final SchemaProjection readProjection;
+
+    /**
+     * @param extraColumns dotted paths of fields to read but not to set to the page
+     *                     (e.g. columns used by a filter)
+     */
+    public PageBuilderReadSupport(PageBuilder pageBuilder, List<String> extraColumns)
+    {
+        List<String> readColumns = new ArrayList<>();
+        for (Column column : pageBuilder.getSchema().getColumns()) {
+            readColumns.add(column.getName());
+        }
+        readColumns.addAll(extraColumns);
+        this.pageBuilder = pageBuilder;
+        this.readProjection = SchemaProjection.of(readColumns);
+    }
+
+    @Override
+    public ReadContext init(InitContext context)
+    {
+        return new ReadContext(readProjection.project(context.getFileSchema()));
+    }
+
+    @Override
+    public RecordMaterializer<PageBuilder> prepareForRead(Configuration configuration, Map<String, String> keyValueMetaData, MessageType fileSchema, ReadContext readContext)
+    {
+        final RecordConverter root = new RecordConverter(readContext.getRequestedSchema(), pageBuilder);
+        return new RecordMaterializer<PageBuilder>()
+        {
+            @Override
+            public PageBuilder getCurrentRecord()
+            {
+                return pageBuilder;
+            }
+
+            @Override
+            public GroupConverter getRootConverter()
+            {
+                return root;
+            }
+        };
+    }
+
+    private static class RecordConverter
+            extends GroupConverter
+    {
+        private final PageBuilder pageBuilder;
+        private final Converter[] converters;
+        private final List<HasParentContainerUpdater> jsonConverters = new ArrayList<>();
+
+        RecordConverter(MessageType schema, PageBuilder pageBuilder)
+        {
+            this.pageBuilder = pageBuilder;
+            this.converters = new Converter[schema.getFieldCount()];
+            for (int i = 0; i < converters.length; i++) {
+                Type field = schema.getType(i);
+                Column column = lookupColumn(pageBuilder, field.getName());
+                if (column == null) {
+                    converters[i] = newDiscardingConverter(field);
+                    continue;
+                }
+                converters[i] = ColumnConverters.newConverter(field, column, pageBuilder);
+                if (converters[i] instanceof HasParentContainerUpdater) {
+                    jsonConverters.add((HasParentContainerUpdater) converters[i]);
+                }
+            }
+        }
+
+        private static Column lookupColumn(PageBuilder pageBuilder, String name)
+        {
+            for (Column column : pageBuilder.getSchema().getColumns()) {
+                if (column.getName().equals(name)) {
+                    return column;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Converter getConverter(int fieldIndex)
+        {
+            return converters[fieldIndex];
+        }
+
+        @Override
+        public void start()
+        {
+            for (Column column : pageBuilder.getSchema().getColumns()) {
+                pageBuilder.setNull(column);
+            }
+            for (HasParentContainerUpdater converter : jsonConverters) {
+                converter.getUpdater().start();
+            }
+        }
+
+        @Override
+        public void end()
+        {
+            for (HasParentContainerUpdater converter : jsonConverters) {
+                converter.getUpdater().end();
+            }
+        }
+    }
+
+    private static Converter newDiscardingConverter(Type field)
+    {
+        if (field.isPrimitive()) {
+            return new DiscardingPrimitiveConverter();
+        }
+        final Converter[] converters = new Converter[field.asGroupType().getFieldCount()];
+        for (int i = 0; i < converters.length; i++) {
+            converters[i] = newDiscardingConverter(field.asGroupType().getType(i));
+        }
+        return new GroupConverter()
+        {
+            @Override
+            public Converter getConverter(int fieldIndex)
+            {
+                return converters[fieldIndex];
+            }
+
+            @Override
+            public void start()
+            {
+            }
+
+            @Override
+            public void end()
+            {
+            }
+        };
+    }
+
+    // Reads values of a column which is read only to evaluate a filter.
+    private static class DiscardingPrimitiveConverter
+            extends PrimitiveConverter
+    {
+        @Override
+        public boolean hasDictionarySupport()
+        {
+            return true;
+        }
+
+        @Override
+        public void setDictionary(Dictionary dictionary)
+        {
+        }
+
+        @Override
+        public void addValueFromDictionary(int dictionaryId)
+        {
+        }
+
+        @Override
+        public void addBinary(Binary value)
+        {
+        }
+
+        @Override
+        public void addBoolean(boolean value)
+        {
+        }
+
+        @Override
+        public void addDouble(double value)
+        {
+        }
+
+        @Override
+        public void addFloat(float value)
+        {
+        }
+
+        @Override
+        public void addInt(int value)
+        {
+        }
+
+        @Override
+        public void addLong(long value)
+        {
+        }
+    }
+}
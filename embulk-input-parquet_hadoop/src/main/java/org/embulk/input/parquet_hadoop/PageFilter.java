@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.Encoding;
+import org.apache.parquet.column.page.DataPage;
+import org.apache.parquet.column.page.DataPageV1;
+import org.apache.parquet.column.page.DataPageV2;
+import org.apache.parquet.column.statistics.Statistics;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.filter2.predicate.Operators;
+import org.apache.parquet.filter2.predicate.UserDefinedPredicate;
+import org.apache.parquet.filter2.statisticslevel.StatisticsFilter;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnPath;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds records of a row group which may match a predicate by statistics of data pages.
+ *
+ * Row groups are skipped by statistics of column chunks, but a large row group rarely has a
+ * column chunk whose min/max can't match. Each data page header has statistics of its values,
+ * so pages of a sorted column are skipped as an index. Pages of a flat column have a value for
+ * each record, so they are mapped to ranges of records, and ranges of different columns are
+ * combined by "and" and "or" of the predicate.
+ */
+class PageFilter
+{
+    interface Task
+    {
+        @Config("page_filter")
+        @ConfigDefault("true")
+        boolean getPageFilter();
+    }
+
+    private PageFilter()
+    {
+    }
+
+    /**
+     * @param pages data pages of flat columns of the predicate, which may be compressed
+     * @return records which may match the predicate
+     */
+    static BitSet filterRows(FilterPredicate predicate, Map<ColumnDescriptor, List<DataPage>> pages, int rowCount)
+    {
+        return predicate.accept(new RowVisitor(pages, rowCount));
+    }
+
+    // returns records of pages whose statistics may match each leaf of the predicate
+    private static class RowVisitor
+            implements FilterPredicate.Visitor<BitSet>
+    {
+        private final Map<ColumnDescriptor, List<DataPage>> pages;
+        private final int rowCount;
+
+        RowVisitor(Map<ColumnDescriptor, List<DataPage>> pages, int rowCount)
+        {
+            this.pages = pages;
+            this.rowCount = rowCount;
+        }
+
+        private BitSet allRows()
+        {
+            BitSet rows = new BitSet(rowCount);
+            rows.set(0, rowCount);
+            return rows;
+        }
+
+        private BitSet visitLeaf(FilterPredicate leaf, Operators.Column<?> column)
+        {
+            ColumnPath path = column.getColumnPath();
+            List<DataPage> columnPages = null;
+            ColumnDescriptor descriptor = null;
+            for (Map.Entry<ColumnDescriptor, List<DataPage>> entry : pages.entrySet()) {
+                if (ColumnPath.get(entry.getKey().getPath()).equals(path)) {
+                    descriptor = entry.getKey();
+                    columnPages = entry.getValue();
+                }
+            }
+            if (columnPages == null) {
+                return allRows();
+            }
+            BitSet rows = new BitSet(rowCount);
+            int start = 0;
+            for (DataPage page : columnPages) {
+                int end = start + page.getValueCount();
+                // StatisticsFilter reads statistics and the value count of a chunk
+                ColumnChunkMetaData chunk = ColumnChunkMetaData.get(path, descriptor.getType(),
+                        CompressionCodecName.UNCOMPRESSED, Collections.<Encoding>emptySet(), getStatistics(page),
+                        0, 0, page.getValueCount(), 0, 0);
+                if (!StatisticsFilter.canDrop(leaf, Collections.singletonList(chunk))) {
+                    rows.set(start, Math.min(end, rowCount));
+                }
+                start = end;
+            }
+            if (start < rowCount) {
+                // records not in the pages are unknown
+                rows.set(start, rowCount);
+            }
+            return rows;
+        }
+
+        private static Statistics<?> getStatistics(DataPage page)
+        {
+            return page instanceof DataPageV1 ? ((DataPageV1) page).getStatistics() : ((DataPageV2) page).getStatistics();
+        }
+
+        @Override
+        public <T extends Comparable<T>> BitSet visit(Operators.Eq<T> eq)
+        {
+            return visitLeaf(eq, eq.getColumn());
+        }
+
+        @Override
+        public <T extends Comparable<T>> BitSet visit(Operators.NotEq<T> notEq)
+        {
+            return visitLeaf(notEq, notEq.getColumn());
+        }
+
+        @Override
+        public <T extends Comparable<T>> BitSet visit(Operators.Lt<T> lt)
+        {
+            return visitLeaf(lt, lt.getColumn());
+        }
+
+        @Override
+        public <T extends Comparable<T>> BitSet visit(Operators.LtEq<T> ltEq)
+        {
+            return visitLeaf(ltEq, ltEq.getColumn());
+        }
+
+        @Override
+        public <T extends Comparable<T>> BitSet visit(Operators.Gt<T> gt)
+        {
+            return visitLeaf(gt, gt.getColumn());
+        }
+
+        @Override
+        public <T extends Comparable<T>> BitSet visit(Operators.GtEq<T> gtEq)
+        {
+            return visitLeaf(gtEq, gtEq.getColumn());
+        }
+
+        @Override
+        public BitSet visit(Operators.And and)
+        {
+            BitSet rows = and.getLeft().accept(this);
+            rows.and(and.getRight().accept(this));
+            return rows;
+        }
+
+        @Override
+        public BitSet visit(Operators.Or or)
+        {
+            BitSet rows = or.getLeft().accept(this);
+            rows.or(or.getRight().accept(this));
+            return rows;
+        }
+
+        @Override
+        public BitSet visit(Operators.Not not)
+        {
+            // records not in the pages of the child may match "not"
+            return allRows();
+        }
+
+        @Override
+        public <T extends Comparable<T>, U extends UserDefinedPredicate<T>> BitSet visit(Operators.UserDefined<T, U> udp)
+        {
+            return visitLeaf(udp, udp.getColumn());
+        }
+
+        @Override
+        public <T extends Comparable<T>, U extends UserDefinedPredicate<T>> BitSet visit(Operators.LogicalNotUserDefined<T, U> udp)
+        {
+            return visitLeaf(udp, udp.getUserDefined().getColumn());
+        }
+    }
+}
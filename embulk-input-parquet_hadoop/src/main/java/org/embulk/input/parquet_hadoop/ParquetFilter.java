@@ -0,0 +1,595 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.filter2.predicate.FilterApi;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.filter2.predicate.Operators;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.GroupType;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.Type;
+import org.embulk.config.ConfigException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * A filter expression given by "filter" option.
+ *
+ * <pre>
+ * filter:
+ *   and:
+ *     - {column: dt, op: "&gt;=", value: "2017-01-01"}
+ *     - {column: country, in: [JP, US]}
+ *     - not: {column: user.deleted, op: "==", value: true}
+ * </pre>
+ *
+ * An expression is compiled against the schema of each file to a {@link FilterPredicate}, which is
+ * used to drop row groups by statistics and then to filter records.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ParquetFilter
+{
+    private final List<ParquetFilter> and;
+    private final List<ParquetFilter> or;
+    private final ParquetFilter not;
+    private final String column;
+    private final String op;
+    private final Object value;
+    private final List<Object> in;
+
+    @JsonCreator
+    public ParquetFilter(
+            @JsonProperty("and") List<ParquetFilter> and,
+            @JsonProperty("or") List<ParquetFilter> or,
+            @JsonProperty("not") ParquetFilter not,
+            @JsonProperty("column") String column,
+            @JsonProperty("op") String op,
+            @JsonProperty("value") Object value,
+            @JsonProperty("in") List<Object> in)
+    {
+        int kinds = (and != null ? 1 : 0) + (or != null ? 1 : 0) + (not != null ? 1 : 0) + (column != null ? 1 : 0);
+        if (kinds != 1) {
+            throw new ConfigException("filter must have exactly one of 'and', 'or', 'not' or 'column'");
+        }
+        if (column != null && (op == null) == (in == null)) {
+            throw new ConfigException("filter on column '" + column + "' must have exactly one of 'op' or 'in'");
+        }
+        this.and = and;
+        this.or = or;
+        this.not = not;
+        this.column = column;
+        this.op = op;
+        this.value = value;
+        this.in = in;
+    }
+
+    @JsonProperty("and")
+    public List<ParquetFilter> getAnd()
+    {
+        return and;
+    }
+
+    @JsonProperty("or")
+    public List<ParquetFilter> getOr()
+    {
+        return or;
+    }
+
+    @JsonProperty("not")
+    public ParquetFilter getNot()
+    {
+        return not;
+    }
+
+    @JsonProperty("column")
+    public String getColumn()
+    {
+        return column;
+    }
+
+    @JsonProperty("op")
+    public String getOp()
+    {
+        return op;
+    }
+
+    @JsonProperty("value")
+    public Object getValue()
+    {
+        return value;
+    }
+
+    @JsonProperty("in")
+    public List<Object> getIn()
+    {
+        return in;
+    }
+
+    /**
+     * @return names of columns referred by this expression
+     */
+    @JsonIgnore
+    public List<String> getColumnNames()
+    {
+        List<String> names = new ArrayList<>();
+        collectColumnNames(names);
+        return names;
+    }
+
+    private void collectColumnNames(List<String> names)
+    {
+        if (column != null) {
+            names.add(column);
+        }
+        else if (not != null) {
+            not.collectColumnNames(names);
+        }
+        else {
+            for (ParquetFilter child : (and != null ? and : or)) {
+                child.collectColumnNames(names);
+            }
+        }
+    }
+
+    /**
+     * Compiles this expression against a file schema.
+     *
+     * A column missing from the file is evaluated as null, so a comparison on it may become a
+     * constant. {@link Compiled#isAlwaysFalse()} means no record of the file can match.
+     * A comparison of an integral column with a non-integral value is rounded toward the
+     * direction of the operator (e.g. {@code < 1.5} to {@code <= 1}), or becomes a constant.
+     */
+    public Compiled compile(MessageType schema)
+    {
+        if (and != null || or != null) {
+            boolean isAnd = and != null;
+            FilterPredicate predicate = null;
+            for (ParquetFilter child : (isAnd ? and : or)) {
+                Compiled c = child.compile(schema);
+                if (c.isConstant()) {
+                    if (c.constant == isAnd) {
+                        continue;
+                    }
+                    return Compiled.of(!isAnd);
+                }
+                if (predicate == null) {
+                    predicate = c.predicate;
+                }
+                else {
+                    predicate = isAnd ? FilterApi.and(predicate, c.predicate) : FilterApi.or(predicate, c.predicate);
+                }
+            }
+            return predicate == null ? Compiled.of(isAnd) : Compiled.of(predicate);
+        }
+        else if (not != null) {
+            Compiled c = not.compile(schema);
+            return c.isConstant() ? Compiled.of(!c.constant) : Compiled.of(FilterApi.not(c.predicate));
+        }
+
+        String[] path = column.split("\\.");
+        if (!containsPrimitivePath(schema, path)) {
+            return Compiled.of(evaluateOnNull());
+        }
+        ColumnDescriptor descriptor = schema.getColumnDescription(path);
+        if (descriptor.getMaxRepetitionLevel() > 0) {
+            throw new ConfigException("filter on repeated column is not supported: " + column);
+        }
+        OriginalType originalType = schema.getType(path).getOriginalType();
+
+        if (in != null) {
+            FilterPredicate predicate = null;
+            for (Object v : in) {
+                Compiled eq = compileComparison("==", descriptor, originalType, v);
+                if (eq.isConstant()) {
+                    if (eq.constant) {
+                        return eq;
+                    }
+                    continue;
+                }
+                predicate = predicate == null ? eq.predicate : FilterApi.or(predicate, eq.predicate);
+            }
+            return predicate == null ? Compiled.of(false) : Compiled.of(predicate);
+        }
+        switch (op) {
+            case "is_null":
+                return compileComparison("==", descriptor, originalType, null);
+            case "is_not_null":
+                return compileComparison("!=", descriptor, originalType, null);
+            default:
+                if (value == null) {
+                    throw new ConfigException("filter on column '" + column + "' requires 'value' for op: " + op);
+                }
+                return compileComparison(op, descriptor, originalType, value);
+        }
+    }
+
+    /**
+     * @return true if the path is a primitive field of the schema, or false if it's missing
+     * @throws ConfigException if the path refers to a group, or to a child of a primitive field
+     */
+    private boolean containsPrimitivePath(MessageType schema, String[] path)
+    {
+        GroupType group = schema;
+        for (int i = 0; i < path.length; i++) {
+            if (!group.containsField(path[i])) {
+                return false;
+            }
+            Type type = group.getType(path[i]);
+            if (type.isPrimitive() != (i == path.length - 1)) {
+                throw new ConfigException("filter column must be a primitive field: " + column);
+            }
+            if (!type.isPrimitive()) {
+                group = type.asGroupType();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates this expression on values known without reading files, e.g. partition values.
+     *
+     * A value is a String, Long, Double, Boolean or null. A column not in {@code values} is unknown.
+     *
+     * @return the result, or null if it depends on unknown columns
+     */
+    public Boolean evaluate(Map<String, Object> values)
+    {
+        if (and != null || or != null) {
+            boolean isAnd = and != null;
+            boolean unknown = false;
+            for (ParquetFilter child : (isAnd ? and : or)) {
+                Boolean result = child.evaluate(values);
+                if (result == null) {
+                    unknown = true;
+                }
+                else if (result != isAnd) {
+                    return !isAnd;
+                }
+            }
+            return unknown ? null : isAnd;
+        }
+        else if (not != null) {
+            Boolean result = not.evaluate(values);
+            return result == null ? null : !result;
+        }
+
+        if (!values.containsKey(column)) {
+            return null;
+        }
+        Object actual = values.get(column);
+        if (actual == null) {
+            return evaluateOnNull();
+        }
+        if (in != null) {
+            for (Object v : in) {
+                if (v != null && compareValue(actual, v) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        switch (op) {
+            case "is_null":
+                return false;
+            case "is_not_null":
+                return true;
+            default:
+                if (value == null) {
+                    throw new ConfigException("filter on column '" + column + "' requires 'value' for op: " + op);
+                }
+        }
+        int c = compareValue(actual, value);
+        switch (op) {
+            case "==":
+                return c == 0;
+            case "!=":
+                return c != 0;
+            case "<":
+                return c < 0;
+            case "<=":
+                return c <= 0;
+            case ">":
+                return c > 0;
+            case ">=":
+                return c >= 0;
+            default:
+                throw new ConfigException("Unknown filter op: " + op);
+        }
+    }
+
+    private int compareValue(Object actual, Object v)
+    {
+        if (actual instanceof Long) {
+            // without truncating a non-integral value
+            return BigDecimal.valueOf((Long) actual).compareTo(toDecimal(v));
+        }
+        else if (actual instanceof Double) {
+            return ((Double) actual).compareTo(toDecimal(v).doubleValue());
+        }
+        else if (actual instanceof Boolean) {
+            return ((Boolean) actual).compareTo(toBoolean(v));
+        }
+        return actual.toString().compareTo(v.toString());
+    }
+
+    private boolean evaluateOnNull()
+    {
+        if (in != null) {
+            // the same as "in" compiled to eq(column, null) for a null in the list
+            return in.contains(null);
+        }
+        // same as parquet's filter2 where null is not equal to any value
+        switch (op) {
+            case "is_null":
+            case "!=":
+                return true;
+            case "is_not_null":
+            case "==":
+            case "<":
+            case "<=":
+            case ">":
+            case ">=":
+                return false;
+            default:
+                throw new ConfigException("Unknown filter op: " + op);
+        }
+    }
+
+    private Compiled compileComparison(String op, ColumnDescriptor descriptor, OriginalType originalType, Object v)
+    {
+        String path = column;
+        switch (descriptor.getType()) {
+            case BOOLEAN:
+                return Compiled.of(compareEq(op, FilterApi.booleanColumn(path), v == null ? null : toBoolean(v)));
+            case INT32:
+                if (originalType == OriginalType.DATE && v instanceof String) {
+                    return Compiled.of(compare(op, FilterApi.intColumn(path), toEpochDay((String) v)));
+                }
+                checkNoOriginalType(originalType, OriginalType.INT_8, OriginalType.INT_16, OriginalType.INT_32, OriginalType.DATE);
+                if (v == null) {
+                    return Compiled.of(compare(op, FilterApi.intColumn(path), (Integer) null));
+                }
+                return compareIntegral(op, FilterApi.intColumn(path), toDecimal(v), Integer.MIN_VALUE, Integer.MAX_VALUE);
+            case INT64:
+                checkNoOriginalType(originalType, OriginalType.INT_64, OriginalType.TIMESTAMP_MILLIS);
+                if (v == null) {
+                    return Compiled.of(compare(op, FilterApi.longColumn(path), (Long) null));
+                }
+                return compareIntegral(op, FilterApi.longColumn(path), toDecimal(v), Long.MIN_VALUE, Long.MAX_VALUE);
+            case FLOAT:
+                return Compiled.of(compare(op, FilterApi.floatColumn(path), v == null ? null : toDecimal(v).floatValue()));
+            case DOUBLE:
+                return Compiled.of(compare(op, FilterApi.doubleColumn(path), v == null ? null : toDecimal(v).doubleValue()));
+            case BINARY:
+                checkNoOriginalType(originalType, OriginalType.UTF8, OriginalType.ENUM, OriginalType.JSON);
+                return Compiled.of(compare(op, FilterApi.binaryColumn(path), v == null ? null : Binary.fromString(v.toString())));
+            default:
+                throw new ConfigException(String.format("filter on %s column is not supported: %s", descriptor.getType(), column));
+        }
+    }
+
+    /**
+     * Compares an int32 or int64 column with a value which may be non-integral or out of the range
+     * of the column type. The comparison is rewritten to an equivalent one with an integral value
+     * in the range, or a constant. Nulls match only "!=" as in {@link #evaluateOnNull()}.
+     */
+    private Compiled compareIntegral(String op, Operators.Column<?> column, BigDecimal value, long min, long max)
+    {
+        BigDecimal floor = value.setScale(0, RoundingMode.FLOOR);
+        BigDecimal bound = floor;
+        if (floor.compareTo(value) != 0) {
+            switch (op) {
+                case "==":
+                    return Compiled.of(false);
+                case "!=":
+                    return Compiled.of(true);
+                case "<":
+                case "<=":
+                    // x < 1.5 and x <= 1.5 mean x <= 1
+                    op = "<=";
+                    break;
+                case ">":
+                case ">=":
+                    // x > 1.5 and x >= 1.5 mean x >= 2
+                    op = ">=";
+                    bound = floor.add(BigDecimal.ONE);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (bound.compareTo(BigDecimal.valueOf(max)) > 0) {
+            switch (op) {
+                case "==":
+                case ">":
+                case ">=":
+                    return Compiled.of(false);
+                case "!=":
+                    return Compiled.of(true);
+                case "<":
+                case "<=":
+                    op = "<=";
+                    bound = BigDecimal.valueOf(max);
+                    break;
+                default:
+                    break;
+            }
+        }
+        else if (bound.compareTo(BigDecimal.valueOf(min)) < 0) {
+            switch (op) {
+                case "==":
+                case "<":
+                case "<=":
+                    return Compiled.of(false);
+                case "!=":
+                    return Compiled.of(true);
+                case ">":
+                case ">=":
+                    op = ">=";
+                    bound = BigDecimal.valueOf(min);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (column instanceof Operators.IntColumn) {
+            return Compiled.of(compare(op, (Operators.IntColumn) column, bound.intValueExact()));
+        }
+        return Compiled.of(compare(op, (Operators.LongColumn) column, bound.longValueExact()));
+    }
+
+    private void checkNoOriginalType(OriginalType originalType, OriginalType... supported)
+    {
+        if (originalType != null && !ImmutableList.copyOf(supported).contains(originalType)) {
+            throw new ConfigException(String.format("filter on %s column is not supported: %s", originalType, column));
+        }
+    }
+
+    private static <T extends Comparable<T>, C extends Operators.Column<T> & Operators.SupportsLtGt> FilterPredicate compare(
+            String op, C column, T value)
+    {
+        switch (op) {
+            case "<":
+                return FilterApi.lt(column, value);
+            case "<=":
+                return FilterApi.ltEq(column, value);
+            case ">":
+                return FilterApi.gt(column, value);
+            case ">=":
+                return FilterApi.gtEq(column, value);
+            default:
+                return compareEq(op, column, value);
+        }
+    }
+
+    private static <T extends Comparable<T>, C extends Operators.Column<T> & Operators.SupportsEqNotEq> FilterPredicate compareEq(
+            String op, C column, T value)
+    {
+        switch (op) {
+            case "==":
+                return FilterApi.eq(column, value);
+            case "!=":
+                return FilterApi.notEq(column, value);
+            default:
+                throw new ConfigException(String.format("filter op '%s' is not supported on column: %s", op, column.getColumnPath().toDotString()));
+        }
+    }
+
+    private BigDecimal toDecimal(Object v)
+    {
+        // integral values (e.g. int64 above 2^53) are kept exactly
+        try {
+            if (v instanceof Long || v instanceof Integer || v instanceof Short || v instanceof Byte) {
+                return BigDecimal.valueOf(((Number) v).longValue());
+            }
+            else if (v instanceof BigInteger) {
+                return new BigDecimal((BigInteger) v);
+            }
+            else if (v instanceof BigDecimal) {
+                return (BigDecimal) v;
+            }
+            else if (v instanceof Number) {
+                return BigDecimal.valueOf(((Number) v).doubleValue());
+            }
+            return new BigDecimal(v.toString());
+        }
+        catch (NumberFormatException e) {
+            throw new ConfigException(String.format("filter value '%s' is not a number for column: %s", v, column), e);
+        }
+    }
+
+    private Boolean toBoolean(Object v)
+    {
+        if (v instanceof Boolean) {
+            return (Boolean) v;
+        }
+        throw new ConfigException(String.format("filter value '%s' is not a boolean for column: %s", v, column));
+    }
+
+    private Integer toEpochDay(String v)
+    {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return (int) (format.parse(v).getTime() / (24L * 60 * 60 * 1000));
+        }
+        catch (ParseException e) {
+            throw new ConfigException(String.format("filter value '%s' is not a date (yyyy-MM-dd) for column: %s", v, column), e);
+        }
+    }
+
+    /**
+     * Result of {@link ParquetFilter#compile(MessageType)}: a predicate or a constant.
+     */
+    public static class Compiled
+    {
+        private final FilterPredicate predicate;
+        private final boolean constant;
+
+        private Compiled(FilterPredicate predicate, boolean constant)
+        {
+            this.predicate = predicate;
+            this.constant = constant;
+        }
+
+        static Compiled of(FilterPredicate predicate)
+        {
+            return new Compiled(predicate, false);
+        }
+
+        static Compiled of(boolean constant)
+        {
+            return new Compiled(null, constant);
+        }
+
+        public boolean isConstant()
+        {
+            return predicate == null;
+        }
+
+        public boolean isAlwaysFalse()
+        {
+            return predicate == null && !constant;
+        }
+
+        /**
+         * @return the predicate, or null if this is a constant
+         */
+        public FilterPredicate getPredicate()
+        {
+            return predicate;
+        }
+    }
+}
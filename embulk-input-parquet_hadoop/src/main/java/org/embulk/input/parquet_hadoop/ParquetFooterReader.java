@@ -0,0 +1,263 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.apache.parquet.format.converter.ParquetMetadataConverter.MetadataFilter;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.config.ConfigException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the footer of a Parquet file by a single positioned read of the file tail.
+ *
+ * {@link org.apache.parquet.hadoop.ParquetFileReader#readFooter} reads the footer length first and
+ * then seeks to the footer, which costs two requests or more on object stores. This reads the last
+ * "footer_read_size" bytes at once, which contain the whole footer in most files, and reads the
+ * rest of the footer only if it is larger. The read size grows to a larger footer seen in this
+ * JVM so that following files of the same dataset are read by a request, and decays toward the
+ * sizes of footers read later so that a single large footer doesn't inflate reads of other files.
+ *
+ * A file up to "small_file_size" bytes is read whole by the request, and {@link Tail} keeps the
+ * bytes so that column chunks in it are read from memory.
+ */
+public class ParquetFooterReader
+{
+    public interface Task
+    {
+        @Config("footer_read_size")
+        @ConfigDefault("65536")
+        int getFooterReadSize();
+
+        @Config("small_file_size")
+        @ConfigDefault("1048576")
+        long getSmallFileSize();
+    }
+
+    // read size doesn't grow beyond this even if a larger footer is seen
+    private static final int MAX_ADAPTIVE_TAIL_SIZE = 16 * 1024 * 1024;
+
+    private static final byte[] MAGIC = ParquetFileWriter.MAGIC;
+    // footer length (4 bytes) and magic
+    private static final int FOOTER_TRAILER_SIZE = 4 + MAGIC.length;
+
+    private static final ParquetMetadataConverter converter = new ParquetMetadataConverter();
+
+    // a smaller footer moves the adaptive size by 1/DECAY_DIVISOR of the difference
+    private static final int DECAY_DIVISOR = 4;
+
+    // size of footers including their trailer seen recently in this JVM
+    private static final AtomicInteger adaptiveFooterSize = new AtomicInteger(0);
+
+    private ParquetFooterReader()
+    {
+    }
+
+    public static ParquetMetadata readFooter(Task task, FileSystem fs, FileStatus status, MetadataFilter filter)
+            throws IOException
+    {
+        return readTail(task, fs, status, filter).getMetadata();
+    }
+
+    /**
+     * Reads the footer without keeping the bytes of a small file, which are not used.
+     */
+    static Tail readTail(Task task, FileSystem fs, FileStatus status, MetadataFilter filter)
+            throws IOException
+    {
+        try (FSDataInputStream in = fs.open(status.getPath())) {
+            return readTail(task, in, status.getPath(), status.getLen(), filter, false);
+        }
+    }
+
+    /**
+     * Reads the footer and keeps the bytes read with it.
+     *
+     * @param in stream of the file, which is not closed
+     */
+    static Tail readTail(Task task, FSDataInputStream in, Path path, long fileLength, MetadataFilter filter)
+            throws IOException
+    {
+        return readTail(task, in, path, fileLength, filter, true);
+    }
+
+    private static Tail readTail(Task task, FSDataInputStream in, Path path, long fileLength, MetadataFilter filter,
+            boolean readSmallFile) throws IOException
+    {
+        if (task.getFooterReadSize() <= 0) {
+            throw new ConfigException("footer_read_size must be positive: " + task.getFooterReadSize());
+        }
+        // a small file is read into an array
+        if (task.getSmallFileSize() < 0 || task.getSmallFileSize() > Integer.MAX_VALUE) {
+            throw new ConfigException("small_file_size must be between 0 and " + Integer.MAX_VALUE + ": " + task.getSmallFileSize());
+        }
+        return readTail(task.getFooterReadSize(), readSmallFile ? task.getSmallFileSize() : 0,
+                in, path, fileLength, filter);
+    }
+
+    private static Tail readTail(int tailSize, long smallFileSize, FSDataInputStream in, Path path, long fileLength,
+            MetadataFilter filter) throws IOException
+    {
+        if (fileLength < MAGIC.length + FOOTER_TRAILER_SIZE) {
+            throw new IOException(path + " is not a Parquet file (too small)");
+        }
+
+        int tailLength;
+        if (fileLength <= smallFileSize) {
+            tailLength = (int) fileLength;
+        }
+        else {
+            int adaptiveSize = Math.min(adaptiveFooterSize.get(), MAX_ADAPTIVE_TAIL_SIZE);
+            tailLength = (int) Math.min(fileLength, Math.max(tailSize, adaptiveSize));
+        }
+        byte[] tail = new byte[tailLength];
+        in.readFully(fileLength - tailLength, tail);
+
+        byte[] magic = Arrays.copyOfRange(tail, tailLength - MAGIC.length, tailLength);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException(String.format("%s is not a Parquet file. expected magic number at tail %s but found %s",
+                    path, Arrays.toString(MAGIC), Arrays.toString(magic)));
+        }
+        int footerLength = readIntLittleEndian(tail, tailLength - FOOTER_TRAILER_SIZE);
+        if (footerLength < 0 || footerLength > fileLength - MAGIC.length - FOOTER_TRAILER_SIZE) {
+            throw new IOException(String.format("corrupted file: footer length %d of %s is out of the file",
+                    footerLength, path));
+        }
+        updateAdaptiveFooterSize(footerLength + FOOTER_TRAILER_SIZE);
+
+        byte[] footer;
+        int footerOffset;
+        if (footerLength + FOOTER_TRAILER_SIZE <= tailLength) {
+            footer = tail;
+            footerOffset = tailLength - FOOTER_TRAILER_SIZE - footerLength;
+        }
+        else {
+            footer = new byte[footerLength];
+            footerOffset = 0;
+            in.readFully(fileLength - FOOTER_TRAILER_SIZE - footerLength, footer);
+        }
+        ParquetMetadata metadata = converter.readParquetMetadata(
+                new ByteArrayInputStream(footer, footerOffset, footerLength), filter);
+        return new Tail(metadata, footer, footerOffset, footerLength, fileLength - tailLength, tail);
+    }
+
+    /**
+     * Parses a footer returned by {@link Tail#getFooterBytes()}.
+     */
+    static ParquetMetadata parseFooter(byte[] footer, MetadataFilter filter) throws IOException
+    {
+        return converter.readParquetMetadata(new ByteArrayInputStream(footer), filter);
+    }
+
+    private static void updateAdaptiveFooterSize(int size)
+    {
+        int current;
+        int next;
+        do {
+            current = adaptiveFooterSize.get();
+            next = size >= current ? size : current - (current - size) / DECAY_DIVISOR;
+        } while (next != current && !adaptiveFooterSize.compareAndSet(current, next));
+    }
+
+    private static int readIntLittleEndian(byte[] bytes, int offset)
+    {
+        return (bytes[offset] & 0xff)
+                | (bytes[offset + 1] & 0xff) << 8
+                | (bytes[offset + 2] & 0xff) << 16
+                | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    /**
+     * The footer and the bytes at the end of the file read with it.
+     */
+    static class Tail
+    {
+        private final ParquetMetadata metadata;
+        private final byte[] footer;
+        private final int footerOffset;
+        private final int footerLength;
+        private final long start;
+        private final byte[] bytes;
+
+        private Tail(ParquetMetadata metadata, byte[] footer, int footerOffset, int footerLength, long start, byte[] bytes)
+        {
+            this.metadata = metadata;
+            this.footer = footer;
+            this.footerOffset = footerOffset;
+            this.footerLength = footerLength;
+            this.start = start;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return a tail without bytes for a footer which was read before
+         */
+        static Tail withoutBytes(ParquetMetadata metadata, long fileLength)
+        {
+            return new Tail(metadata, new byte[0], 0, 0, fileLength, new byte[0]);
+        }
+
+        ParquetMetadata getMetadata()
+        {
+            return metadata;
+        }
+
+        /**
+         * @return serialized size of the footer, or 0 if it's not read here
+         */
+        int getFooterLength()
+        {
+            return footerLength;
+        }
+
+        /**
+         * @return the serialized footer
+         */
+        byte[] getFooterBytes()
+        {
+            return Arrays.copyOfRange(footer, footerOffset, footerOffset + footerLength);
+        }
+
+        /**
+         * @return file offset of {@link #getBytes()}
+         */
+        long getStart()
+        {
+            return start;
+        }
+
+        byte[] getBytes()
+        {
+            return bytes;
+        }
+
+        boolean contains(long start, long end)
+        {
+            return this.start <= start && end <= this.start + bytes.length;
+        }
+    }
+}
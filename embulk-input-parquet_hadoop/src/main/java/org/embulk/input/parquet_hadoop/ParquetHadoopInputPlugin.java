@@ -15,9 +15,11 @@
  */
 package org.embulk.input.parquet_hadoop;
 
-import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import jp.co.cyberagent.parquet.msgpack.read.MessagePackReadSupport;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
@@ -25,10 +27,13 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathNotFoundException;
 import org.apache.parquet.ParquetRuntimeException;
-import org.apache.parquet.hadoop.util.HiddenFileFilter;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.apache.parquet.hadoop.api.ReadSupport;
+import org.apache.parquet.schema.MessageType;
 import org.embulk.config.Config;
 import org.embulk.config.ConfigDefault;
 import org.embulk.config.ConfigDiff;
+import org.embulk.config.ConfigException;
 import org.embulk.config.ConfigSource;
 import org.embulk.config.Task;
 import org.embulk.config.TaskReport;
@@ -45,10 +50,10 @@ import org.msgpack.value.Value;
 import org.slf4j.Logger;
 import org.slf4j.bridge.SLF4JBridgeHandler;
 
-import javax.annotation.Nullable;
-
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 
 public class ParquetHadoopInputPlugin
@@ -57,22 +62,86 @@ public class ParquetHadoopInputPlugin
     private static final Logger logger = Exec.getLogger(ParquetHadoopInputPlugin.class);
 
     public interface PluginTask
-            extends Task, ConfigurationFactory.Task
+            extends Task, ConfigurationFactory.Task, FileLister.Task, SplitPlanner.Task, ParquetRowReader.Task,
+            HivePartitions.Task, ColumnBatchReader.Task
     {
         @Config("path")
         String getPath();
 
+        @Config("columns")
+        @ConfigDefault("null")
+        Optional<List<ColumnConfig>> getColumns();
+
+        @Config("filter")
+        @ConfigDefault("null")
+        Optional<ParquetFilter> getFilter();
+
+        @Config("omit_null_fields")
+        @ConfigDefault("false")
+        boolean getOmitNullFields();
+
         @Config("parquet_log_level")
         @ConfigDefault("\"INFO\"")
         String getParquetLogLevel();
 
-        List<String> getFiles();
-        void setFiles(List<String> files);
+        List<List<ParquetSplit>> getTaskSplits();
+        void setTaskSplits(List<List<ParquetSplit>> taskSplits);
+    }
+
+    Schema newSchema(PluginTask task)
+    {
+        if (!isTyped(task)) {
+            return Schema.builder().add("record", Types.JSON).build();
+        }
+        Schema.Builder builder = Schema.builder();
+        Set<String> names = Sets.newHashSet();
+        for (ColumnConfig column : task.getColumns().get()) {
+            builder.add(column.getName(), column.getType());
+            names.add(column.getName());
+        }
+        // partition columns follow the columns in the files
+        for (Map.Entry<String, org.embulk.spi.type.Type> column : new HivePartitions(task).getColumns().entrySet()) {
+            if (!names.add(column.getKey())) {
+                throw new ConfigException("partition column is also in columns: " + column.getKey());
+            }
+            builder.add(column.getKey(), column.getValue());
+        }
+        return builder.build();
+    }
+
+    private static void validateFilter(PluginTask task, HivePartitions partitions)
+    {
+        if (!task.getFilter().isPresent()) {
+            return;
+        }
+        for (String name : task.getFilter().get().getColumnNames()) {
+            if (partitions.getColumns().containsKey(name)) {
+                throw new ConfigException("filter can't refer to a partition column, use partition_filter instead: " + name);
+            }
+        }
     }
 
-    Schema newSchema()
+    /**
+     * @return true if columns are output as typed columns instead of the "record" JSON column
+     */
+    private static boolean isTyped(PluginTask task)
     {
-        return Schema.builder().add("record", Types.JSON).build();
+        if (!task.getColumns().isPresent()) {
+            return false;
+        }
+        int typed = 0;
+        for (ColumnConfig column : task.getColumns().get()) {
+            if (column.isTyped()) {
+                if (column.getName().contains(".")) {
+                    throw new ConfigException("typed column must be a top-level field: " + column.getName());
+                }
+                typed++;
+            }
+        }
+        if (typed > 0 && typed < task.getColumns().get().size()) {
+            throw new ConfigException("type must be set to all columns or none of them");
+        }
+        return typed > 0;
     }
 
     @Override
@@ -83,12 +152,14 @@ public class ParquetHadoopInputPlugin
         configureParquetLogger(task);
 
         Path rootPath = new Path(task.getPath());
+        HivePartitions partitions = new HivePartitions(task);
+        validateFilter(task, partitions);
 
         try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
             Configuration conf = ConfigurationFactory.create(task);
 
             FileSystem fs = FileSystem.get(rootPath.toUri(), conf);
-            List<FileStatus> statusList = listFileStatuses(fs, rootPath);
+            List<FileStatus> statusList = new FileLister(task, fs, partitions).list(rootPath);
             if (statusList.isEmpty()) {
                 throw new PathNotFoundException(rootPath.toString());
             }
@@ -98,22 +169,15 @@ public class ParquetHadoopInputPlugin
                         status.getPath(), status.getLen());
             }
 
-            List<String> files = Lists.transform(statusList, new Function<FileStatus, String>() {
-                    @Nullable
-                    @Override
-                    public String apply(@Nullable FileStatus input)
-                    {
-                        return input.getPath().toString();
-                    }
-            });
-            task.setFiles(files);
+            List<ParquetSplit> splits = SplitPlanner.plan(task, conf, statusList, task.getFilter());
+            task.setTaskSplits(SplitPlanner.packTasks(task, splits));
         }
         catch (IOException e) {
             throw Throwables.propagate(e);
         }
 
-        Schema schema = newSchema();
-        int taskCount = task.getFiles().size();
+        Schema schema = newSchema(task);
+        int taskCount = task.getTaskSplits().size();
 
         return resume(task.dump(), schema, taskCount, control);
     }
@@ -142,48 +206,59 @@ public class ParquetHadoopInputPlugin
         PluginTask task = taskSource.loadTask(PluginTask.class);
         configureParquetLogger(task);
 
-        final Column jsonColumn = schema.getColumn(0);
+        List<ParquetSplit> splits = task.getTaskSplits().get(taskIndex);
 
         Configuration conf;
-        Path filePath;
         try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
             conf = ConfigurationFactory.create(task);
-            filePath = new Path(task.getFiles().get(taskIndex));
         }
 
-        try (PageBuilder pageBuilder = newPageBuilder(schema, output)) {
-            ParquetRowReader<Value> reader;
-            try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
-                reader = new ParquetRowReader<>(conf, filePath, new MessagePackReadSupport());
-            }
-            catch (ParquetRuntimeException | IOException e) {
-                throw new DataException(e);
-            }
+        HivePartitions partitions = new HivePartitions(task);
 
-            Value value;
-            while (true) {
-                try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
-                    value = reader.read();
+        try (final PageBuilder pageBuilder = newPageBuilder(schema, output)) {
+            if (isTyped(task)) {
+                // converters set values to the page directly
+                ReadSupport<PageBuilder> readSupport = new PageBuilderReadSupport(pageBuilder, filterColumnNames(task));
+                final List<Column> partitionColumns = Lists.newArrayList();
+                for (String name : partitions.getColumns().keySet()) {
+                    partitionColumns.add(lookupColumn(schema, name));
                 }
-                catch (ParquetRuntimeException | IOException e) {
-                    throw new DataException(e);
+                for (ParquetSplit split : splits) {
+                    final List<Object> values = Lists.newArrayList(
+                            partitions.getValues(new Path(split.getPath()).getParent()).values());
+                    RecordWriter<PageBuilder> writer = new RecordWriter<PageBuilder>() {
+                        @Override
+                        public void write(PageBuilder record)
+                        {
+                            for (int i = 0; i < partitionColumns.size(); i++) {
+                                HivePartitions.setColumn(pageBuilder, partitionColumns.get(i), values.get(i));
+                            }
+                            pageBuilder.addRecord();
+                        }
+                    };
+                    readTypedSplit(task, conf, split, readSupport, pageBuilder, writer);
                 }
-                if (value == null) {
-                    break;
+            }
+            else {
+                final Column jsonColumn = schema.getColumn(0);
+                MessagePackReadSupport readSupport = newReadSupport(task);
+                RecordWriter<Value> writer = new RecordWriter<Value>() {
+                    @Override
+                    public void write(Value record)
+                    {
+                        pageBuilder.setJson(jsonColumn, record);
+                        pageBuilder.addRecord();
+                    }
+                };
+                for (ParquetSplit split : splits) {
+                    // partition values are built in records by the materializer of the file
+                    readSupport.setExtraFields(HivePartitions.toKeyValues(
+                            partitions.getValues(new Path(split.getPath()).getParent())));
+                    readSplit(task, conf, split, readSupport, writer);
                 }
-
-                pageBuilder.setJson(jsonColumn, value);
-                pageBuilder.addRecord();
             }
 
             pageBuilder.finish();
-
-            try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
-                reader.close();
-            }
-            catch (ParquetRuntimeException | IOException e) {
-                throw new DataException(e);
-            }
         }
 
         TaskReport report = Exec.newTaskReport();
@@ -193,49 +268,169 @@ public class ParquetHadoopInputPlugin
     @Override
     public ConfigDiff guess(ConfigSource config)
     {
-        return Exec.newConfigDiff();
+        PluginTask task = config.loadConfig(PluginTask.class);
+        configureParquetLogger(task);
+
+        Path rootPath = new Path(task.getPath());
+
+        // guess from the schema in the footer of the first file. row data is not read.
+        MessageType schema;
+        try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
+            Configuration conf = ConfigurationFactory.create(task);
+
+            FileSystem fs = FileSystem.get(rootPath.toUri(), conf);
+            List<FileStatus> statusList = new FileLister(task, fs, new HivePartitions(task)).list(rootPath);
+            if (statusList.isEmpty()) {
+                throw new PathNotFoundException(rootPath.toString());
+            }
+
+            FileStatus status = statusList.get(0);
+            logger.info("embulk-input-parquet_hadoop: Guessing columns from the schema of {}", status.getPath());
+            schema = ParquetFooterReader.readFooter(task, fs, status, ParquetMetadataConverter.SKIP_ROW_GROUPS)
+                    .getFileMetaData().getSchema();
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+
+        List<Map<String, String>> columns = Lists.newArrayList();
+        Set<String> skipped = Sets.newLinkedHashSet();
+        for (org.apache.parquet.schema.Type field : schema.getFields()) {
+            skipped.add(field.getName());
+        }
+        for (ColumnConfig column : SchemaGuesser.guessColumns(schema)) {
+            columns.add(ImmutableMap.of("name", column.getName(), "type", column.getType().getName()));
+            skipped.remove(column.getName());
+        }
+        if (!skipped.isEmpty()) {
+            logger.warn("embulk-input-parquet_hadoop: Fields not supported as typed columns are skipped: {}", skipped);
+        }
+        return Exec.newConfigDiff().set("columns", columns);
     }
 
-    private PageBuilder newPageBuilder(Schema schema, PageOutput output)
+    private interface RecordWriter<T>
     {
-        return new PageBuilder(Exec.getBufferAllocator(), schema, output);
+        void write(T record);
     }
 
-    private List<FileStatus> listFileStatuses(FileSystem fs, Path rootPath) throws IOException
+    private <T> void readSplit(PluginTask task, Configuration conf, ParquetSplit split,
+            ReadSupport<T> readSupport, RecordWriter<T> writer)
     {
-        List<FileStatus> fileStatuses = Lists.newArrayList();
+        ParquetRowReader<T> reader = openReader(task, conf, split, readSupport);
+        readRecords(reader, writer);
+        closeReader(reader);
+    }
 
-        FileStatus[] entries = fs.globStatus(rootPath, HiddenFileFilter.INSTANCE);
-        if (entries == null) {
-            return fileStatuses;
+    // reads records of a flat schema by batches of column vectors if possible
+    private void readTypedSplit(PluginTask task, Configuration conf, ParquetSplit split,
+            ReadSupport<PageBuilder> readSupport, PageBuilder pageBuilder, RecordWriter<PageBuilder> writer)
+    {
+        ParquetRowReader<PageBuilder> reader = openReader(task, conf, split, readSupport);
+        if (!task.getVectorizedRead() || !ColumnBatchReader.isApplicable(reader, pageBuilder)) {
+            readRecords(reader, writer);
+            closeReader(reader);
+            return;
         }
 
-        for (FileStatus entry : entries) {
-            if (entry.isDirectory()) {
-                List<FileStatus> subEntries = listRecursive(fs, entry);
-                fileStatuses.addAll(subEntries);
+        ColumnBatchReader batchReader = new ColumnBatchReader(reader, pageBuilder);
+        while (true) {
+            boolean hasBatch;
+            try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
+                hasBatch = batchReader.nextBatch();
             }
-            else {
-                fileStatuses.add(entry);
+            catch (ParquetRuntimeException | IOException e) {
+                throw new DataException(e);
+            }
+            if (!hasBatch) {
+                break;
+            }
+
+            while (batchReader.nextRecord()) {
+                writer.write(pageBuilder);
             }
         }
+        closeReader(reader);
+    }
 
-        return fileStatuses;
+    private <T> ParquetRowReader<T> openReader(PluginTask task, Configuration conf, ParquetSplit split,
+            ReadSupport<T> readSupport)
+    {
+        try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
+            return new ParquetRowReader<>(task, conf, split, task.getFilter(), readSupport);
+        }
+        catch (ParquetRuntimeException | IOException e) {
+            throw new DataException(e);
+        }
     }
 
-    private List<FileStatus> listRecursive(FileSystem fs, FileStatus status) throws IOException
+    private <T> void readRecords(ParquetRowReader<T> reader, RecordWriter<T> writer)
     {
-        List<FileStatus> statusList = Lists.newArrayList();
-        if (status.isDirectory()) {
-            FileStatus[] entries = fs.listStatus(status.getPath(), HiddenFileFilter.INSTANCE);
-            for (FileStatus entry : entries) {
-                statusList.addAll(listRecursive(fs, entry));
+        T record;
+        while (true) {
+            try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
+                record = reader.read();
+            }
+            catch (ParquetRuntimeException | IOException e) {
+                throw new DataException(e);
             }
+            if (record == null) {
+                break;
+            }
+
+            writer.write(record);
+        }
+    }
+
+    private <T> void closeReader(ParquetRowReader<T> reader)
+    {
+        try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
+            reader.close();
+        }
+        catch (ParquetRuntimeException | IOException e) {
+            throw new DataException(e);
+        }
+    }
+
+    private static Column lookupColumn(Schema schema, String name)
+    {
+        for (Column column : schema.getColumns()) {
+            if (column.getName().equals(name)) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("no such column: " + name);
+    }
+
+    private static MessagePackReadSupport newReadSupport(PluginTask task)
+    {
+        MessagePackReadSupport readSupport;
+        if (!task.getColumns().isPresent()) {
+            readSupport = new MessagePackReadSupport();
         }
         else {
-            statusList.add(status);
+            List<String> names = Lists.newArrayList();
+            for (ColumnConfig column : task.getColumns().get()) {
+                names.add(column.getName());
+            }
+            readSupport = new MessagePackReadSupport(names, filterColumnNames(task));
         }
-        return statusList;
+        readSupport.setOmitNullFields(task.getOmitNullFields());
+        return readSupport;
+    }
+
+    // columns used by filter are read to evaluate it even if they are not in the output
+    private static List<String> filterColumnNames(PluginTask task)
+    {
+        List<String> names = Lists.newArrayList();
+        if (task.getFilter().isPresent()) {
+            names.addAll(task.getFilter().get().getColumnNames());
+        }
+        return names;
+    }
+
+    private PageBuilder newPageBuilder(Schema schema, PageOutput output)
+    {
+        return new PageBuilder(Exec.getBufferAllocator(), schema, output);
     }
 
     private static void configureParquetLogger(PluginTask task)
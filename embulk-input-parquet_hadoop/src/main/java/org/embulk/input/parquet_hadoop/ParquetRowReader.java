@@ -18,13 +18,18 @@
  */
 package org.embulk.input.parquet_hadoop;
 
+import com.google.common.base.Optional;
+import jp.co.cyberagent.parquet.msgpack.read.converter.MessagePackRecordMaterializer;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.parquet.column.ColumnDescriptor;
 import org.apache.parquet.column.page.PageReadStore;
 import org.apache.parquet.filter2.compat.FilterCompat;
+import org.apache.parquet.filter2.compat.RowGroupFilter;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
 import org.apache.parquet.format.converter.ParquetMetadataConverter;
-import org.apache.parquet.hadoop.ParquetFileReader;
 import org.apache.parquet.hadoop.UnmaterializableRecordCounter;
 import org.apache.parquet.hadoop.api.InitContext;
 import org.apache.parquet.hadoop.api.ReadSupport;
@@ -41,6 +46,7 @@ import org.embulk.spi.Exec;
 import org.slf4j.Logger;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -52,8 +58,17 @@ public class ParquetRowReader<T>
 {
     private static final Logger logger = Exec.getLogger(ParquetRowReader.class);
 
+    /**
+     * Options of reading row groups from files.
+     */
+    public interface Task
+            extends FooterCache.Task, RowGroupReader.Task, RowGroupPrefetcher.Task, DictionaryFilter.Task,
+            RowSelection.Task, PageFilter.Task, RowGroupDecoder.Task
+    {
+    }
+
     private final Path filePath;
-    private final ParquetFileReader reader;
+    private final RowGroupPrefetcher reader;
     private final long total;
     private final ColumnIOFactory columnIOFactory;
     private final RecordMaterializer<T> recordConverter;
@@ -61,6 +76,14 @@ public class ParquetRowReader<T>
     private final MessageType fileSchema;
     private final UnmaterializableRecordCounter unmaterializableRecordCounter;
 
+    private final FilterCompat.Filter filter;
+    // predicate evaluated before records are assembled, or null
+    private final FilterPredicate selectionPredicate;
+    private final String createdBy;
+    private final boolean pageFilter;
+    // assembles records on worker threads, or null if they are assembled by read()
+    private final RowGroupDecoder<T> decoder;
+
     private long current = 0;
     private long totalCountLoadedSoFar = 0;
     private int currentBlock = -1;
@@ -68,29 +91,142 @@ public class ParquetRowReader<T>
 
     // TODO: make configurable ?
     private static final boolean strictTypeChecking = true;
-    private static final FilterCompat.Filter filter = FilterCompat.NOOP;
 
     public ParquetRowReader(Configuration configuration, Path filePath, ReadSupport<T> readSupport) throws IOException
+    {
+        this(configuration, filePath, ParquetMetadataConverter.NO_FILTER, readSupport);
+    }
+
+    /**
+     * @param metadataFilter selects row groups to read, e.g. {@link ParquetMetadataConverter#range(long, long)}
+     */
+    public ParquetRowReader(Configuration configuration, Path filePath,
+            ParquetMetadataConverter.MetadataFilter metadataFilter, ReadSupport<T> readSupport) throws IOException
+    {
+        this(Exec.newConfigSource().loadConfig(Task.class), configuration, filePath, metadataFilter,
+                Optional.<ParquetSplit>absent(), Optional.<ParquetFilter>absent(), readSupport);
+    }
+
+    /**
+     * @param task options of reading row groups
+     * @param split row groups to read. the footer cached by the transaction is used if any.
+     * @param rowFilter drops row groups by statistics and then filters records
+     */
+    public ParquetRowReader(Task task, Configuration configuration, ParquetSplit split,
+            Optional<ParquetFilter> rowFilter, ReadSupport<T> readSupport) throws IOException
+    {
+        this(task, configuration, new Path(split.getPath()), split.toMetadataFilter(), Optional.of(split),
+                rowFilter, readSupport);
+    }
+
+    private ParquetRowReader(Task task, Configuration configuration, Path filePath,
+            ParquetMetadataConverter.MetadataFilter metadataFilter, Optional<ParquetSplit> split,
+            Optional<ParquetFilter> rowFilter, ReadSupport<T> readSupport) throws IOException
     {
         this.filePath = filePath;
 
-        ParquetMetadata parquetMetadata = ParquetFileReader.readFooter(configuration, filePath, ParquetMetadataConverter.NO_FILTER);
-        List<BlockMetaData> blocks = parquetMetadata.getBlocks();
+        FileSystem fs = filePath.getFileSystem(configuration);
+        FSDataInputStream in = fs.open(filePath);
+        List<BlockMetaData> blocks;
+        try {
+            ParquetMetadata cachedFooter = null;
+            if (split.isPresent()) {
+                cachedFooter = FooterCache.getIfPresent(task, split.get().getPath(),
+                        split.get().getFileLength(), split.get().getModificationTime());
+            }
+            // the stream and the bytes read with the footer are passed to RowGroupReader
+            ParquetFooterReader.Tail tail;
+            if (cachedFooter != null) {
+                tail = ParquetFooterReader.Tail.withoutBytes(cachedFooter, split.get().getFileLength());
+                blocks = split.get().selectBlocks(cachedFooter.getBlocks());
+            }
+            else {
+                long length = split.isPresent() ? split.get().getFileLength() : fs.getFileStatus(filePath).getLen();
+                tail = ParquetFooterReader.readTail(task, in, filePath, length, metadataFilter);
+                blocks = tail.getMetadata().getBlocks();
+            }
 
-        FileMetaData fileMetadata = parquetMetadata.getFileMetaData();
-        this.fileSchema = fileMetadata.getSchema();
-        Map<String, String> keyValueMetadata = fileMetadata.getKeyValueMetaData();
-        ReadSupport.ReadContext readContext = readSupport.init(new InitContext(
-                configuration, toSetMultiMap(keyValueMetadata), fileSchema));
-        this.columnIOFactory = new ColumnIOFactory(fileMetadata.getCreatedBy());
+            FileMetaData fileMetadata = tail.getMetadata().getFileMetaData();
+            this.fileSchema = fileMetadata.getSchema();
+            Map<String, String> keyValueMetadata = fileMetadata.getKeyValueMetaData();
 
-        this.requestedSchema = readContext.getRequestedSchema();
-        this.recordConverter = readSupport.prepareForRead(
-                configuration, fileMetadata.getKeyValueMetaData(), fileSchema, readContext);
+            ParquetFilter.Compiled compiled = rowFilter.isPresent() ? rowFilter.get().compile(fileSchema) : null;
+            if (compiled == null || compiled.isConstant()) {
+                this.filter = FilterCompat.NOOP;
+                if (compiled != null && compiled.isAlwaysFalse()) {
+                    logger.info("ParquetRowReader skips all {} row groups of {} by filter", blocks.size(), filePath);
+                    blocks = Collections.emptyList();
+                }
+            }
+            else {
+                this.filter = FilterCompat.get(compiled.getPredicate());
+                int numBlocks = blocks.size();
+                blocks = RowGroupFilter.filterRowGroups(filter, blocks, fileSchema);
+                logger.info("ParquetRowReader skips {} of {} row groups of {} by statistics", numBlocks - blocks.size(), numBlocks, filePath);
 
-        List<ColumnDescriptor> columns = requestedSchema.getColumns();
+                if (task.getDictionaryFilter() && !blocks.isEmpty()
+                        && !RowGroupReader.mayHaveWrongChunkSizes(fileMetadata.getCreatedBy())) {
+                    numBlocks = blocks.size();
+                    // the predicate without "not" rewritten by FilterCompat
+                    FilterPredicate predicate = ((FilterCompat.FilterPredicateCompat) filter).getFilterPredicate();
+                    blocks = new DictionaryFilter(configuration, in, tail).filterRowGroups(predicate, blocks, fileSchema);
+                    logger.info("ParquetRowReader skips {} of {} row groups of {} by dictionaries", numBlocks - blocks.size(), numBlocks, filePath);
+                }
+            }
+
+            ReadSupport.ReadContext readContext = readSupport.init(new InitContext(
+                    configuration, toSetMultiMap(keyValueMetadata), fileSchema));
+            this.createdBy = fileMetadata.getCreatedBy();
+            this.columnIOFactory = new ColumnIOFactory(createdBy);
+
+            this.requestedSchema = readContext.getRequestedSchema();
+            this.recordConverter = readSupport.prepareForRead(
+                    configuration, fileMetadata.getKeyValueMetaData(), fileSchema, readContext);
+
+            if (task.getLateMaterialization() && filter instanceof FilterCompat.FilterPredicateCompat) {
+                FilterPredicate predicate = ((FilterCompat.FilterPredicateCompat) filter).getFilterPredicate();
+                this.selectionPredicate = RowSelection.isApplicable(predicate, requestedSchema, blocks) ? predicate : null;
+            }
+            else {
+                this.selectionPredicate = null;
+            }
+
+            this.pageFilter = task.getPageFilter();
+
+            List<ColumnDescriptor> columns = requestedSchema.getColumns();
 
-        reader = new ParquetFileReader(configuration, fileMetadata, filePath, blocks, columns);
+            this.reader = new RowGroupPrefetcher(task,
+                    new RowGroupReader(task, configuration, filePath, in, tail, blocks, columns), blocks, columns);
+
+            // records of MessagePackRecordMaterializer are immutable values independent of the
+            // converter. other converters (e.g. PageBuilderReadSupport) may share their records.
+            int threads = RowGroupDecoder.getThreads(task);
+            if (threads > 1 && blocks.size() > 1 && recordConverter instanceof MessagePackRecordMaterializer
+                    && reader.canReadPagesConcurrently()) {
+                List<RecordMaterializer<T>> converters = new ArrayList<>();
+                converters.add(recordConverter);
+                while (converters.size() < threads) {
+                    converters.add(readSupport.prepareForRead(
+                            configuration, fileMetadata.getKeyValueMetaData(), fileSchema, readContext));
+                }
+                this.decoder = new RowGroupDecoder<>(task, reader, new RowGroupDecoder.Assembler<T>() {
+                    @Override
+                    public List<T> assemble(PageReadStore pages, RecordMaterializer<T> converter, int block)
+                            throws IOException
+                    {
+                        return assembleRecords(pages, converter, block);
+                    }
+                }, converters, RowGroupPrefetcher.getUncompressedSizes(blocks, columns));
+                logger.info("ParquetRowReader assembles records of {} by {} threads", filePath, threads);
+            }
+            else {
+                this.decoder = null;
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
 
         long total = 0;
         for (BlockMetaData block : blocks) {
@@ -102,18 +238,124 @@ public class ParquetRowReader<T>
         logger.info("ParquetRowReader initialized will read a total of " + total + " records.");
     }
 
-    private void checkRead() throws IOException
+    /**
+     * @return false if the loaded row group has no record selected by the filter
+     */
+    private boolean checkRead() throws IOException
     {
         if (current == totalCountLoadedSoFar) {
             PageReadStore pages = reader.readNextRowGroup();
             if (pages == null) {
                 throw new IOException("expecting more rows but reached last block. Read " + current + " out of " + total);
             }
-
-            MessageColumnIO columnIO = columnIOFactory.getColumnIO(requestedSchema, fileSchema, strictTypeChecking);
-            recordReader = columnIO.getRecordReader(pages, recordConverter, filter);
             totalCountLoadedSoFar += pages.getRowCount();
             ++ currentBlock;
+
+            recordReader = newRecordReader(pages, recordConverter, currentBlock);
+            return recordReader != null;
+        }
+        return true;
+    }
+
+    /**
+     * @return a record reader of records selected by the filter, or null if no record is selected
+     */
+    private RecordReader<T> newRecordReader(PageReadStore pages, RecordMaterializer<T> converter, int block)
+            throws IOException
+    {
+        MessageColumnIO columnIO = columnIOFactory.getColumnIO(requestedSchema, fileSchema, strictTypeChecking);
+        if (selectionPredicate == null) {
+            return columnIO.getRecordReader(pages, converter, filter);
+        }
+        RowSelection selection = RowSelection.select(pages, selectionPredicate, requestedSchema, createdBy, pageFilter);
+        logger.debug("ParquetRowReader selects {} of {} records of block {} by filter",
+                selection.getSelectedCount(), selection.getRowCount(), block);
+        if (selection.getSelectedCount() == 0) {
+            return null;
+        }
+        else if (selection.getSelectedCount() == selection.getRowCount()) {
+            return columnIO.getRecordReader(selection.getPages(), converter);
+        }
+        else {
+            return columnIO.getRecordReader(selection.getPages(), converter,
+                    FilterCompat.get(selection.toRecordFilter()));
+        }
+    }
+
+    // called by threads of RowGroupDecoder
+    private List<T> assembleRecords(PageReadStore pages, RecordMaterializer<T> converter, int block)
+            throws IOException
+    {
+        List<T> records = new ArrayList<>();
+        RecordReader<T> recordReader = newRecordReader(pages, converter, block);
+        if (recordReader == null) {
+            return records;
+        }
+        for (long i = 0; i < pages.getRowCount(); i++) {
+            T value;
+            try {
+                value = recordReader.read();
+            }
+            catch (RecordMaterializer.RecordMaterializationException e) {
+                synchronized (unmaterializableRecordCounter) {
+                    unmaterializableRecordCounter.incErrors(e);
+                }
+                logger.debug("skipping a corrupt record");
+                continue;
+            }
+            catch (RuntimeException e) {
+                throw new ParquetDecodingException(
+                        String.format("Can not read value at %d in block %d in file %s", i, block, filePath), e);
+            }
+            if (recordReader.shouldSkipCurrentRecord()) {
+                continue;
+            }
+            if (value == null) {
+                // only happens with FilteredRecordReader at end of block
+                break;
+            }
+            records.add(value);
+        }
+        return records;
+    }
+
+    /**
+     * @return true if row groups can be read by {@link #readRowGroup()}, which needs records
+     *         selected by the filter without assembling them
+     */
+    boolean canReadRowGroups()
+    {
+        return filter == FilterCompat.NOOP || selectionPredicate != null;
+    }
+
+    MessageType getRequestedSchema()
+    {
+        return requestedSchema;
+    }
+
+    /**
+     * Reads the next row group which has records selected by the filter. Records of a file are
+     * read by either this or {@link #read()}.
+     *
+     * @return pages of the row group and records selected from them, or null if finished
+     */
+    RowSelection readRowGroup() throws IOException
+    {
+        while (true) {
+            PageReadStore pages = reader.readNextRowGroup();
+            if (pages == null) {
+                return null;
+            }
+            ++ currentBlock;
+            if (selectionPredicate == null) {
+                return RowSelection.all(pages);
+            }
+            RowSelection selection = RowSelection.select(pages, selectionPredicate, requestedSchema, createdBy, pageFilter);
+            logger.debug("ParquetRowReader selects {} of {} records of block {} by filter",
+                    selection.getSelectedCount(), selection.getRowCount(), currentBlock);
+            if (selection.getSelectedCount() > 0) {
+                return selection;
+            }
         }
     }
 
@@ -124,6 +366,10 @@ public class ParquetRowReader<T>
      */
     public T read() throws IOException
     {
+        if (decoder != null) {
+            return decoder.read();
+        }
+
         T currentValue = null;
         boolean recordFound = false;
         while (!recordFound) {
@@ -133,7 +379,10 @@ public class ParquetRowReader<T>
             }
 
             try {
-                checkRead();
+                if (!checkRead()) {
+                    current = totalCountLoadedSoFar;
+                    continue;
+                }
                 current++;
 
                 try {
@@ -174,6 +423,9 @@ public class ParquetRowReader<T>
 
     public void close() throws IOException
     {
+        if (decoder != null) {
+            decoder.close();
+        }
         reader.close();
     }
 
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A byte range of a Parquet file read by a task.
+ *
+ * Like {@link org.apache.parquet.hadoop.ParquetInputSplit}, a split owns the row groups whose
+ * midpoint falls into [start, start + length).
+ */
+public class ParquetSplit
+{
+    private final String path;
+    private final long start;
+    private final long length;
+    private final long fileLength;
+    private final long modificationTime;
+
+    @JsonCreator
+    public ParquetSplit(
+            @JsonProperty("path") String path,
+            @JsonProperty("start") long start,
+            @JsonProperty("length") long length,
+            @JsonProperty("file_length") long fileLength,
+            @JsonProperty("modification_time") long modificationTime)
+    {
+        this.path = path;
+        this.start = start;
+        this.length = length;
+        this.fileLength = fileLength;
+        this.modificationTime = modificationTime;
+    }
+
+    @JsonProperty("path")
+    public String getPath()
+    {
+        return path;
+    }
+
+    @JsonProperty("start")
+    public long getStart()
+    {
+        return start;
+    }
+
+    @JsonProperty("length")
+    public long getLength()
+    {
+        return length;
+    }
+
+    /**
+     * Length of the whole file, which lets a task read the footer without asking the file system.
+     */
+    @JsonProperty("file_length")
+    public long getFileLength()
+    {
+        return fileLength;
+    }
+
+    /**
+     * Modification time of the file when the split was planned, which identifies a cached footer.
+     */
+    @JsonProperty("modification_time")
+    public long getModificationTime()
+    {
+        return modificationTime;
+    }
+
+    @JsonIgnore
+    public ParquetMetadataConverter.MetadataFilter toMetadataFilter()
+    {
+        return ParquetMetadataConverter.range(start, start + length);
+    }
+
+    /**
+     * Selects the row groups owned by this split from all row groups of the file, as
+     * {@link #toMetadataFilter()} does when a footer is read.
+     */
+    public List<BlockMetaData> selectBlocks(List<BlockMetaData> blocks)
+    {
+        List<BlockMetaData> selected = new ArrayList<>();
+        for (BlockMetaData block : blocks) {
+            long midPoint = block.getStartingPos() + block.getCompressedSize() / 2;
+            if (start <= midPoint && midPoint < start + length) {
+                selected.add(block);
+            }
+        }
+        return selected;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s:%d+%d", path, start, length);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.io.api.RecordMaterializer;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.config.ConfigException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembles records of row groups of a file on worker threads.
+ *
+ * Up to "decode_row_groups" row groups are assembled at once by "decode_threads" threads, each of
+ * which uses its own record converter. Records are returned in the order of row groups in the
+ * file. Row groups are not queued while the records of queued ones, estimated by the uncompressed
+ * size of their column chunks, exceed "decode_memory". At least one row group is queued even if
+ * it's larger.
+ */
+class RowGroupDecoder<T>
+        implements Closeable
+{
+    interface Task
+    {
+        @Config("decode_threads")
+        @ConfigDefault("1")
+        int getDecodeThreads();
+
+        @Config("decode_row_groups")
+        @ConfigDefault("4")
+        int getDecodeRowGroups();
+
+        @Config("decode_memory")
+        @ConfigDefault("268435456")
+        long getDecodeMemory();
+    }
+
+    interface Assembler<T>
+    {
+        /**
+         * @return records of the row group selected by the filter
+         */
+        List<T> assemble(PageReadStore pages, RecordMaterializer<T> converter, int block) throws IOException;
+    }
+
+    private final RowGroupPrefetcher reader;
+    private final Assembler<T> assembler;
+    private final BlockingQueue<RecordMaterializer<T>> converters;
+    private final int depth;
+    private final long memoryLimit;
+    private final long[] blockSizes;
+    private final ExecutorService executor;
+
+    private final Deque<Future<List<T>>> decoded = new ArrayDeque<>();
+    private final Deque<Long> decodedSizes = new ArrayDeque<>();
+    private long decodedBytes = 0;
+    private int nextBlock = 0;
+    private List<T> records;
+    private int recordIndex;
+
+    /**
+     * @param converters a converter for each thread, whose records don't share state with others
+     * @param blockSizes estimated size of records of each row group
+     */
+    RowGroupDecoder(Task task, RowGroupPrefetcher reader, Assembler<T> assembler,
+            List<RecordMaterializer<T>> converters, long[] blockSizes)
+    {
+        this.reader = reader;
+        this.assembler = assembler;
+        this.converters = new ArrayBlockingQueue<>(converters.size(), false, converters);
+        this.depth = task.getDecodeRowGroups();
+        this.memoryLimit = task.getDecodeMemory();
+        this.blockSizes = blockSizes;
+        this.executor = Executors.newFixedThreadPool(converters.size(), new ThreadFactoryBuilder()
+                .setNameFormat("embulk-input-parquet_hadoop-decode-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * @return the number of threads to assemble records, which is 1 if records are assembled on
+     *         the caller thread
+     */
+    static int getThreads(Task task)
+    {
+        if (task.getDecodeThreads() <= 0) {
+            throw new ConfigException("decode_threads must be positive: " + task.getDecodeThreads());
+        }
+        if (task.getDecodeRowGroups() <= 0) {
+            throw new ConfigException("decode_row_groups must be positive: " + task.getDecodeRowGroups());
+        }
+        if (task.getDecodeMemory() <= 0) {
+            throw new ConfigException("decode_memory must be positive: " + task.getDecodeMemory());
+        }
+        // more threads than queued row groups would be idle
+        return Math.min(task.getDecodeThreads(), task.getDecodeRowGroups());
+    }
+
+    /**
+     * @return the next record, or null if all row groups are read
+     */
+    T read() throws IOException
+    {
+        while (records == null || recordIndex >= records.size()) {
+            records = null;
+            decode();
+            Future<List<T>> future = decoded.poll();
+            if (future == null) {
+                return null;
+            }
+            decodedBytes -= decodedSizes.poll();
+            // queue the following row groups before waiting for this one
+            decode();
+
+            records = get(future);
+            recordIndex = 0;
+        }
+        return records.get(recordIndex++);
+    }
+
+    private void decode() throws IOException
+    {
+        while (nextBlock < blockSizes.length && decoded.size() < depth) {
+            long size = blockSizes[nextBlock];
+            if (!decoded.isEmpty() && decodedBytes + size > memoryLimit) {
+                break;
+            }
+            final PageReadStore pages = reader.readNextRowGroup();
+            if (pages == null) {
+                throw new IOException("expecting more row groups but reached the end of file");
+            }
+            final int block = nextBlock;
+            decoded.add(executor.submit(new Callable<List<T>>() {
+                @Override
+                public List<T> call() throws IOException, InterruptedException
+                {
+                    RecordMaterializer<T> converter = converters.take();
+                    try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
+                        return assembler.assemble(pages, converter, block);
+                    }
+                    finally {
+                        converters.add(converter);
+                    }
+                }
+            }));
+            decodedSizes.add(size);
+            decodedBytes += size;
+            nextBlock++;
+        }
+    }
+
+    private static <V> V get(Future<V> future) throws IOException
+    {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while decoding a row group");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Stops the threads. The row group reader is not closed.
+     */
+    @Override
+    public void close()
+    {
+        for (Future<List<T>> future : decoded) {
+            future.cancel(true);
+        }
+        decoded.clear();
+        records = null;
+        executor.shutdownNow();
+        try {
+            // no thread outlives the reader
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
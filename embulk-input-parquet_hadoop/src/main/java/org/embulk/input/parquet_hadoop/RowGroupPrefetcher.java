@@ -0,0 +1,259 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnPath;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.config.ConfigException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads row groups of a file ahead of the record reader.
+ *
+ * Up to "prefetch_row_groups" row groups are read and decompressed on a background thread while
+ * the current row group is being converted to records, as long as the decompressed size of them
+ * is within "prefetch_memory". At least one row group is prefetched even if it's larger.
+ * With "prefetch_row_groups: 0", row groups are read on the caller thread when they are needed.
+ *
+ * With "decompress_threads" more than 1, column chunks of a row group are decompressed
+ * concurrently on a pool shared by readers in the JVM before its records are assembled, instead
+ * of being decompressed by the record reader page by page.
+ */
+class RowGroupPrefetcher
+        implements Closeable
+{
+    interface Task
+    {
+        @Config("prefetch_row_groups")
+        @ConfigDefault("0")
+        int getPrefetchRowGroups();
+
+        @Config("prefetch_memory")
+        @ConfigDefault("268435456")
+        long getPrefetchMemory();
+
+        @Config("decompress_threads")
+        @ConfigDefault("1")
+        int getDecompressThreads();
+    }
+
+    // decompresses column chunks for all readers in the JVM. idle threads exit.
+    private static ThreadPoolExecutor decompressExecutor;
+
+    private final RowGroupReader reader;
+    private final List<ColumnDescriptor> columns;
+    private final int depth;
+    private final long memoryLimit;
+    private final long[] blockSizes;
+    // null if the pages of a row group are decompressed by a thread
+    private final ExecutorService decompressor;
+
+    private final Deque<Future<PageReadStore>> prefetched = new ArrayDeque<>();
+    private final Deque<Long> prefetchedSizes = new ArrayDeque<>();
+    private long prefetchedBytes = 0;
+    private int nextBlock = 0;
+    private ExecutorService executor;
+
+    RowGroupPrefetcher(Task task, RowGroupReader reader, List<BlockMetaData> blocks, List<ColumnDescriptor> columns)
+    {
+        if (task.getPrefetchRowGroups() < 0) {
+            throw new ConfigException("prefetch_row_groups must not be negative: " + task.getPrefetchRowGroups());
+        }
+        if (task.getPrefetchMemory() <= 0) {
+            throw new ConfigException("prefetch_memory must be positive: " + task.getPrefetchMemory());
+        }
+        if (task.getDecompressThreads() <= 0) {
+            throw new ConfigException("decompress_threads must be positive: " + task.getDecompressThreads());
+        }
+        this.reader = reader;
+        this.columns = columns;
+        this.depth = task.getPrefetchRowGroups();
+        this.memoryLimit = task.getPrefetchMemory();
+        this.blockSizes = getUncompressedSizes(blocks, columns);
+        if (task.getDecompressThreads() > 1 && columns.size() > 1 && reader.canDecompressConcurrently()) {
+            this.decompressor = getDecompressExecutor(task.getDecompressThreads());
+        }
+        else {
+            this.decompressor = null;
+        }
+    }
+
+    private static synchronized ExecutorService getDecompressExecutor(int threads)
+    {
+        if (decompressExecutor == null) {
+            decompressExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+                    .setNameFormat("embulk-input-parquet_hadoop-decompress-%d")
+                    .setDaemon(true)
+                    .build());
+            decompressExecutor.allowCoreThreadTimeOut(true);
+        }
+        else if (decompressExecutor.getMaximumPoolSize() < threads) {
+            decompressExecutor.setMaximumPoolSize(threads);
+            decompressExecutor.setCorePoolSize(threads);
+        }
+        return decompressExecutor;
+    }
+
+    /**
+     * @return true if pages of different row groups can be read by different threads
+     */
+    boolean canReadPagesConcurrently()
+    {
+        // prefetched pages are decompressed
+        return depth > 0 || reader.canDecompressConcurrently();
+    }
+
+    /**
+     * @return total uncompressed size of the column chunks of each row group
+     */
+    static long[] getUncompressedSizes(List<BlockMetaData> blocks, List<ColumnDescriptor> columns)
+    {
+        Set<ColumnPath> paths = new HashSet<>();
+        for (ColumnDescriptor column : columns) {
+            paths.add(ColumnPath.get(column.getPath()));
+        }
+        long[] sizes = new long[blocks.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            for (ColumnChunkMetaData chunk : blocks.get(i).getColumns()) {
+                if (paths.contains(chunk.getPath())) {
+                    sizes[i] += chunk.getTotalUncompressedSize();
+                }
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * @return pages of the next row group, or null if all row groups are read
+     */
+    PageReadStore readNextRowGroup() throws IOException
+    {
+        if (depth == 0) {
+            PageReadStore pages = reader.readNextRowGroup();
+            if (pages == null || decompressor == null) {
+                return pages;
+            }
+            return MaterializedPageReadStore.materialize(pages, columns, decompressor);
+        }
+
+        prefetch();
+        Future<PageReadStore> future = prefetched.poll();
+        if (future == null) {
+            return null;
+        }
+        prefetchedBytes -= prefetchedSizes.poll();
+        // queue the following row groups before waiting for this one
+        prefetch();
+
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while prefetching a row group");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void prefetch()
+    {
+        while (nextBlock < blockSizes.length && prefetched.size() < depth) {
+            long size = blockSizes[nextBlock];
+            if (!prefetched.isEmpty() && prefetchedBytes + size > memoryLimit) {
+                break;
+            }
+            if (executor == null) {
+                executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("embulk-input-parquet_hadoop-prefetch-%d")
+                        .setDaemon(true)
+                        .build());
+            }
+            // RowGroupReader reads row groups in order. The single thread keeps the order.
+            prefetched.add(executor.submit(new Callable<PageReadStore>() {
+                @Override
+                public PageReadStore call() throws IOException
+                {
+                    try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
+                        PageReadStore pages = reader.readNextRowGroup();
+                        if (pages == null) {
+                            throw new IOException("expecting more row groups but reached the end of file");
+                        }
+                        if (decompressor != null) {
+                            return MaterializedPageReadStore.materialize(pages, columns, decompressor);
+                        }
+                        return MaterializedPageReadStore.materialize(pages, columns);
+                    }
+                }
+            }));
+            prefetchedSizes.add(size);
+            prefetchedBytes += size;
+            nextBlock++;
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (executor != null) {
+            for (Future<PageReadStore> future : prefetched) {
+                future.cancel(true);
+            }
+            prefetched.clear();
+            executor.shutdownNow();
+            try {
+                // don't close the file while it's being read
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.parquet.SemanticVersion;
+import org.apache.parquet.VersionParser;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.column.page.PageReader;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnPath;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.hadoop.metadata.FileMetaData;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.config.ConfigException;
+import org.embulk.spi.DataException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads column chunks of row groups with coalesced range reads.
+ *
+ * {@link ParquetFileReader} merges only adjacent column chunks, so reading a part of columns
+ * issues a read per chunk, which is a request per chunk on object stores. This merges chunks
+ * whose gap is within "coalesce_gap" into a range up to "coalesce_max_size" bytes, reads the
+ * ranges in parallel by "read_threads" streams, and slices the buffers back into column chunks.
+ * Ranges in the bytes read with the footer are not read again.
+ */
+class RowGroupReader
+        implements Closeable
+{
+    interface Task
+    {
+        @Config("coalesce_gap")
+        @ConfigDefault("1048576")
+        long getCoalesceGap();
+
+        @Config("coalesce_max_size")
+        @ConfigDefault("134217728")
+        long getCoalesceMaxSize();
+
+        @Config("read_threads")
+        @ConfigDefault("1")
+        int getReadThreads();
+    }
+
+    // files written by parquet-mr before 1.6.0 may have wrong column chunk sizes (PARQUET-246)
+    private static final SemanticVersion CHUNK_SIZE_FIXED_VERSION = new SemanticVersion(1, 6, 0);
+
+    private static final Comparator<ColumnChunkMetaData> CHUNK_ORDER = new Comparator<ColumnChunkMetaData>()
+    {
+        @Override
+        public int compare(ColumnChunkMetaData o1, ColumnChunkMetaData o2)
+        {
+            return Long.compare(o1.getStartingPos(), o2.getStartingPos());
+        }
+    };
+
+    private final Configuration conf;
+    private final Path filePath;
+    private final ParquetFooterReader.Tail tail;
+    private final String createdBy;
+    private final List<BlockMetaData> blocks;
+    private final Map<ColumnPath, ColumnDescriptor> columns;
+    private final long gap;
+    private final long maxSize;
+    private final int threads;
+
+    private final ParquetFileReader fallbackReader;
+    private final Map<CompressionCodecName, CompressionCodec> codecs = new EnumMap<>(CompressionCodecName.class);
+    // opened streams which are not being used by a read
+    private final ConcurrentLinkedQueue<FSDataInputStream> idleStreams = new ConcurrentLinkedQueue<>();
+    private final List<FSDataInputStream> streams = Collections.synchronizedList(new ArrayList<FSDataInputStream>());
+    private ExecutorService executor;
+    private int nextBlock = 0;
+
+    /**
+     * @param in stream used to read the footer, which is closed by this reader
+     * @param tail the footer and the bytes read with it
+     */
+    RowGroupReader(Task task, Configuration conf, Path filePath, FSDataInputStream in, ParquetFooterReader.Tail tail,
+            List<BlockMetaData> blocks, List<ColumnDescriptor> columns) throws IOException
+    {
+        if (task.getCoalesceGap() < 0) {
+            throw new ConfigException("coalesce_gap must not be negative: " + task.getCoalesceGap());
+        }
+        if (task.getCoalesceMaxSize() <= 0 || task.getCoalesceMaxSize() > Integer.MAX_VALUE) {
+            throw new ConfigException("coalesce_max_size must be positive and up to " + Integer.MAX_VALUE + ": " + task.getCoalesceMaxSize());
+        }
+        if (task.getReadThreads() <= 0) {
+            throw new ConfigException("read_threads must be positive: " + task.getReadThreads());
+        }
+        this.conf = conf;
+        this.filePath = filePath;
+        this.tail = tail;
+        this.streams.add(in);
+        this.idleStreams.add(in);
+        FileMetaData fileMetaData = tail.getMetadata().getFileMetaData();
+        this.createdBy = fileMetaData.getCreatedBy();
+        this.blocks = blocks;
+        this.columns = new HashMap<>();
+        for (ColumnDescriptor column : columns) {
+            this.columns.put(ColumnPath.get(column.getPath()), column);
+        }
+        this.gap = task.getCoalesceGap();
+        this.maxSize = task.getCoalesceMaxSize();
+        this.threads = task.getReadThreads();
+
+        if (mayHaveWrongChunkSizes(createdBy)) {
+            // ParquetFileReader knows how to read such files
+            this.fallbackReader = new ParquetFileReader(conf, fileMetaData, filePath, blocks, columns);
+        }
+        else {
+            this.fallbackReader = null;
+        }
+    }
+
+    /**
+     * @return true if pages of different column chunks can be decompressed by different threads.
+     *         pages read by ParquetFileReader share a decompressor for each codec.
+     */
+    boolean canDecompressConcurrently()
+    {
+        return fallbackReader == null;
+    }
+
+    static boolean mayHaveWrongChunkSizes(String createdBy)
+    {
+        try {
+            VersionParser.ParsedVersion version = VersionParser.parse(createdBy);
+            return "parquet-mr".equals(version.application)
+                    && (!version.hasSemanticVersion() || version.getSemanticVersion().compareTo(CHUNK_SIZE_FIXED_VERSION) < 0);
+        }
+        catch (VersionParser.VersionParseException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return pages of the next row group, or null if all row groups are read
+     */
+    PageReadStore readNextRowGroup() throws IOException
+    {
+        if (fallbackReader != null) {
+            return fallbackReader.readNextRowGroup();
+        }
+        if (nextBlock >= blocks.size()) {
+            return null;
+        }
+        BlockMetaData block = blocks.get(nextBlock++);
+
+        List<ColumnChunkMetaData> chunks = new ArrayList<>();
+        for (ColumnChunkMetaData chunk : block.getColumns()) {
+            if (columns.containsKey(chunk.getPath())) {
+                chunks.add(chunk);
+            }
+        }
+        Collections.sort(chunks, CHUNK_ORDER);
+        List<Range> ranges = coalesce(chunks);
+        readRanges(ranges);
+
+        final Map<ColumnDescriptor, PageReader> readers = new HashMap<>();
+        for (Range range : ranges) {
+            for (ColumnChunkMetaData chunk : range.chunks) {
+                int offset = range.offset + (int) (chunk.getStartingPos() - range.start);
+                readers.put(columns.get(chunk.getPath()),
+                        CompressedPageReader.parse(chunk, getCodec(chunk.getCodec()), createdBy, range.buffer, offset));
+            }
+        }
+        final long rowCount = block.getRowCount();
+        return new PageReadStore()
+        {
+            @Override
+            public PageReader getPageReader(ColumnDescriptor descriptor)
+            {
+                PageReader reader = readers.get(descriptor);
+                if (reader == null) {
+                    throw new IllegalArgumentException(descriptor + " is not in the requested columns");
+                }
+                return reader;
+            }
+
+            @Override
+            public long getRowCount()
+            {
+                return rowCount;
+            }
+        };
+    }
+
+    private List<Range> coalesce(List<ColumnChunkMetaData> chunks)
+    {
+        List<Range> ranges = new ArrayList<>();
+        Range current = null;
+        for (ColumnChunkMetaData chunk : chunks) {
+            long start = chunk.getStartingPos();
+            long end = start + chunk.getTotalSize();
+            if (end - start > Integer.MAX_VALUE) {
+                // ParquetFileReader can't read it either since a chunk is read into an array
+                throw new DataException(String.format("column chunk %s of %s is too large to read: %d bytes",
+                        chunk.getPath(), filePath, end - start));
+            }
+            if (current != null && start - current.end <= gap && end - current.start <= maxSize) {
+                current.end = Math.max(current.end, end);
+            }
+            else {
+                current = new Range(start, end);
+                ranges.add(current);
+            }
+            current.chunks.add(chunk);
+        }
+        return ranges;
+    }
+
+    private void readRanges(List<Range> allRanges) throws IOException
+    {
+        List<Range> ranges = new ArrayList<>();
+        for (Range range : allRanges) {
+            if (tail.contains(range.start, range.end)) {
+                range.buffer = tail.getBytes();
+                range.offset = (int) (range.start - tail.getStart());
+            }
+            else {
+                ranges.add(range);
+            }
+        }
+
+        if (threads == 1 || ranges.size() <= 1) {
+            for (Range range : ranges) {
+                read(range);
+            }
+            return;
+        }
+
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                    .setNameFormat("embulk-input-parquet_hadoop-reader-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        List<Future<Void>> futures = new ArrayList<>();
+        for (final Range range : ranges) {
+            futures.add(executor.submit(new Callable<Void>()
+            {
+                @Override
+                public Void call() throws IOException
+                {
+                    try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
+                        read(range);
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while reading column chunks");
+        }
+        catch (ExecutionException e) {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void read(Range range) throws IOException
+    {
+        FSDataInputStream in = idleStreams.poll();
+        if (in == null) {
+            FileSystem fs = filePath.getFileSystem(conf);
+            in = fs.open(filePath);
+            streams.add(in);
+        }
+        try {
+            range.buffer = new byte[(int) (range.end - range.start)];
+            in.readFully(range.start, range.buffer);
+        }
+        finally {
+            idleStreams.add(in);
+        }
+    }
+
+    private CompressionCodec getCodec(CompressionCodecName codecName)
+    {
+        if (codecName == CompressionCodecName.UNCOMPRESSED) {
+            return null;
+        }
+        CompressionCodec codec = codecs.get(codecName);
+        if (codec == null) {
+            Class<?> codecClass = codecName.getHadoopCompressionCodecClass();
+            codec = (CompressionCodec) ReflectionUtils.newInstance(codecClass, conf);
+            codecs.put(codecName, codec);
+        }
+        return codec;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        IOException exception = null;
+        synchronized (streams) {
+            for (FSDataInputStream in : streams) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                    exception = e;
+                }
+            }
+            streams.clear();
+        }
+        if (fallbackReader != null) {
+            fallbackReader.close();
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private static class Range
+    {
+        private final long start;
+        private long end;
+        private final List<ColumnChunkMetaData> chunks = new ArrayList<>();
+        private byte[] buffer;
+        // offset of the range in the buffer
+        private int offset = 0;
+
+        Range(long start, long end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.parquet.bytes.BytesInput;
+import org.apache.parquet.bytes.BytesUtils;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.ColumnReader;
+import org.apache.parquet.column.Encoding;
+import org.apache.parquet.column.impl.ColumnReadStoreImpl;
+import org.apache.parquet.column.page.DataPage;
+import org.apache.parquet.column.page.DataPageV1;
+import org.apache.parquet.column.page.DictionaryPage;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.column.page.PageReader;
+import org.apache.parquet.column.statistics.Statistics;
+import org.apache.parquet.filter.RecordFilter;
+import org.apache.parquet.filter.UnboundRecordFilter;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.filter2.recordlevel.IncrementallyUpdatedFilterPredicate;
+import org.apache.parquet.filter2.recordlevel.IncrementallyUpdatedFilterPredicate.ValueInspector;
+import org.apache.parquet.filter2.recordlevel.IncrementallyUpdatedFilterPredicateBuilder;
+import org.apache.parquet.filter2.recordlevel.IncrementallyUpdatedFilterPredicateEvaluator;
+import org.apache.parquet.filter2.recordlevel.IncrementallyUpdatedFilterPredicateResetter;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnPath;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.Converter;
+import org.apache.parquet.io.api.GroupConverter;
+import org.apache.parquet.io.api.PrimitiveConverter;
+import org.apache.parquet.schema.GroupType;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.Type;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records of a row group selected by a filter, which is evaluated before records are assembled.
+ *
+ * The record reader of filter2 assembles every column of every record and then drops the records
+ * which don't match. This decodes only the columns of the predicate first and evaluates it for
+ * each record into a bitmap. Then only the selected records are assembled and the others are
+ * skipped without calling converters. A page of another flat column which has no selected record
+ * is neither decompressed nor decoded. Pages of the predicate columns are also skipped when their
+ * statistics can't match, so only records in the remaining pages are evaluated.
+ */
+class RowSelection
+{
+    interface Task
+    {
+        @Config("late_materialization")
+        @ConfigDefault("true")
+        boolean getLateMaterialization();
+    }
+
+    private final PageReadStore pages;
+    private final Map<ColumnDescriptor, MaterializedPageReadStore.MaterializedPageReader> predicatePages;
+    private final BitSet selected;
+    private final int rowCount;
+
+    private RowSelection(PageReadStore pages,
+            Map<ColumnDescriptor, MaterializedPageReadStore.MaterializedPageReader> predicatePages, BitSet selected)
+    {
+        this.pages = pages;
+        this.predicatePages = predicatePages;
+        this.selected = selected;
+        this.rowCount = (int) pages.getRowCount();
+    }
+
+    /**
+     * @return a selection of all records of the row group
+     */
+    static RowSelection all(PageReadStore pages)
+    {
+        BitSet selected = new BitSet((int) pages.getRowCount());
+        selected.set(0, (int) pages.getRowCount());
+        return new RowSelection(pages,
+                Collections.<ColumnDescriptor, MaterializedPageReadStore.MaterializedPageReader>emptyMap(), selected);
+    }
+
+    /**
+     * @return true if the predicate refers only to non-repeated columns in the schema, and no
+     *         requested column of the row groups is encoded by DELTA_BYTE_ARRAY
+     */
+    static boolean isApplicable(FilterPredicate predicate, MessageType requestedSchema, List<BlockMetaData> blocks)
+    {
+        IncrementallyUpdatedFilterPredicateBuilder builder = new IncrementallyUpdatedFilterPredicateBuilder();
+        builder.build(predicate);
+        for (ColumnPath path : builder.getValueInspectorsByColumn().keySet()) {
+            if (!requestedSchema.containsPath(path.toArray())
+                    || requestedSchema.getColumnDescription(path.toArray()).getMaxRepetitionLevel() > 0) {
+                return false;
+            }
+        }
+        // DeltaByteArrayReader of parquet-mr 1.8 doesn't keep the previous value when a value is
+        // skipped, so values after a skipped record are broken
+        for (BlockMetaData block : blocks) {
+            for (ColumnChunkMetaData chunk : block.getColumns()) {
+                if (chunk.getEncodings().contains(Encoding.DELTA_BYTE_ARRAY)
+                        && requestedSchema.containsPath(chunk.getPath().toArray())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the columns of the predicate and evaluates it for each record of the row group.
+     *
+     * @param pageFilter true to skip pages of the predicate columns by their statistics
+     */
+    static RowSelection select(PageReadStore pages, FilterPredicate predicate, MessageType requestedSchema,
+            String createdBy, boolean pageFilter) throws IOException
+    {
+        IncrementallyUpdatedFilterPredicateBuilder builder = new IncrementallyUpdatedFilterPredicateBuilder();
+        IncrementallyUpdatedFilterPredicate root = builder.build(predicate);
+        Map<ColumnPath, List<ValueInspector>> inspectorsByColumn = builder.getValueInspectorsByColumn();
+
+        Map<ColumnDescriptor, PageReader> predicateReaders = new LinkedHashMap<>();
+        for (ColumnDescriptor column : requestedSchema.getColumns()) {
+            if (inspectorsByColumn.containsKey(ColumnPath.get(column.getPath()))) {
+                predicateReaders.put(column, pages.getPageReader(column));
+            }
+        }
+
+        BitSet candidates = new BitSet((int) pages.getRowCount());
+        candidates.set(0, (int) pages.getRowCount());
+        if (pageFilter) {
+            Map<ColumnDescriptor, List<DataPage>> headers = new HashMap<>();
+            for (Map.Entry<ColumnDescriptor, PageReader> entry : predicateReaders.entrySet()) {
+                PageReader reader = entry.getValue();
+                if (!(reader instanceof SkippablePageReader)) {
+                    reader = MaterializedPageReadStore.MaterializedPageReader.materialize(reader);
+                    entry.setValue(reader);
+                }
+                headers.put(entry.getKey(), ((SkippablePageReader) reader).peekPages());
+            }
+            candidates = PageFilter.filterRows(predicate, headers, (int) pages.getRowCount());
+            if (candidates.isEmpty()) {
+                return new RowSelection(pages,
+                        Collections.<ColumnDescriptor, MaterializedPageReadStore.MaterializedPageReader>emptyMap(), candidates);
+            }
+        }
+
+        // pages of the predicate columns are kept to be read again when records are assembled.
+        // pages without candidate records are neither decompressed nor decoded.
+        final Map<ColumnDescriptor, MaterializedPageReadStore.MaterializedPageReader> predicatePages = new HashMap<>();
+        for (Map.Entry<ColumnDescriptor, PageReader> entry : predicateReaders.entrySet()) {
+            predicatePages.put(entry.getKey(), MaterializedPageReadStore.MaterializedPageReader.materialize(
+                    new SelectedPageReader(entry.getKey(), entry.getValue(), candidates)));
+        }
+        final long rowCount = pages.getRowCount();
+        PageReadStore predicateStore = new PageReadStore()
+        {
+            @Override
+            public PageReader getPageReader(ColumnDescriptor descriptor)
+            {
+                return predicatePages.get(descriptor).duplicate();
+            }
+
+            @Override
+            public long getRowCount()
+            {
+                return rowCount;
+            }
+        };
+        ColumnReadStoreImpl store = new ColumnReadStoreImpl(predicateStore, newDiscardingConverter(requestedSchema),
+                requestedSchema, createdBy);
+
+        ColumnDescriptor[] columns = predicatePages.keySet().toArray(new ColumnDescriptor[predicatePages.size()]);
+        ColumnReader[] readers = new ColumnReader[columns.length];
+        ValueInspector[][] inspectors = new ValueInspector[columns.length][];
+        for (int i = 0; i < columns.length; i++) {
+            readers[i] = store.getColumnReader(columns[i]);
+            List<ValueInspector> list = inspectorsByColumn.get(ColumnPath.get(columns[i].getPath()));
+            inspectors[i] = list.toArray(new ValueInspector[list.size()]);
+        }
+
+        BitSet selected = new BitSet((int) rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            if (!candidates.get(row)) {
+                for (int i = 0; i < columns.length; i++) {
+                    if (readers[i].getCurrentDefinitionLevel() == columns[i].getMaxDefinitionLevel()) {
+                        readers[i].skip();
+                    }
+                    readers[i].consume();
+                }
+                continue;
+            }
+            for (int i = 0; i < columns.length; i++) {
+                update(readers[i], columns[i], inspectors[i]);
+                readers[i].consume();
+            }
+            if (IncrementallyUpdatedFilterPredicateEvaluator.evaluate(root)) {
+                selected.set(row);
+            }
+            IncrementallyUpdatedFilterPredicateResetter.reset(root);
+        }
+        return new RowSelection(pages, predicatePages, selected);
+    }
+
+    private static void update(ColumnReader reader, ColumnDescriptor column, ValueInspector[] inspectors)
+    {
+        if (reader.getCurrentDefinitionLevel() < column.getMaxDefinitionLevel()) {
+            for (ValueInspector inspector : inspectors) {
+                inspector.updateNull();
+            }
+            return;
+        }
+        switch (column.getType()) {
+            case BOOLEAN:
+                boolean booleanValue = reader.getBoolean();
+                for (ValueInspector inspector : inspectors) {
+                    inspector.update(booleanValue);
+                }
+                break;
+            case INT32:
+                int intValue = reader.getInteger();
+                for (ValueInspector inspector : inspectors) {
+                    inspector.update(intValue);
+                }
+                break;
+            case INT64:
+                long longValue = reader.getLong();
+                for (ValueInspector inspector : inspectors) {
+                    inspector.update(longValue);
+                }
+                break;
+            case FLOAT:
+                float floatValue = reader.getFloat();
+                for (ValueInspector inspector : inspectors) {
+                    inspector.update(floatValue);
+                }
+                break;
+            case DOUBLE:
+                double doubleValue = reader.getDouble();
+                for (ValueInspector inspector : inspectors) {
+                    inspector.update(doubleValue);
+                }
+                break;
+            default:
+                Binary binaryValue = reader.getBinary();
+                for (ValueInspector inspector : inspectors) {
+                    inspector.update(binaryValue);
+                }
+                break;
+        }
+    }
+
+    int getSelectedCount()
+    {
+        return selected.cardinality();
+    }
+
+    int getRowCount()
+    {
+        return rowCount;
+    }
+
+    boolean isSelected(int row)
+    {
+        return selected.get(row);
+    }
+
+    /**
+     * @return pages to assemble the selected records from
+     */
+    PageReadStore getPages()
+    {
+        return new PageReadStore()
+        {
+            @Override
+            public PageReader getPageReader(ColumnDescriptor descriptor)
+            {
+                MaterializedPageReadStore.MaterializedPageReader reader = predicatePages.get(descriptor);
+                if (reader != null) {
+                    return reader.duplicate();
+                }
+                if (descriptor.getMaxRepetitionLevel() > 0) {
+                    // values of a page can't be mapped to records without reading repetition levels
+                    return pages.getPageReader(descriptor);
+                }
+                return new SelectedPageReader(descriptor, pages.getPageReader(descriptor), selected);
+            }
+
+            @Override
+            public long getRowCount()
+            {
+                return rowCount;
+            }
+        };
+    }
+
+    /**
+     * @return a record filter which matches the selected records in order
+     */
+    UnboundRecordFilter toRecordFilter()
+    {
+        return new UnboundRecordFilter()
+        {
+            @Override
+            public RecordFilter bind(Iterable<ColumnReader> readers)
+            {
+                return new RecordFilter()
+                {
+                    // FilteredRecordReader asks once for each record
+                    private int row = 0;
+
+                    @Override
+                    public boolean isMatch()
+                    {
+                        return selected.get(row++);
+                    }
+                };
+            }
+        };
+    }
+
+    // Reads pages of a flat column. A page without selected records is replaced with a page of
+    // nulls, or zeros for a required column, because its values are only skipped.
+    private static class SelectedPageReader
+            implements PageReader
+    {
+        private final ColumnDescriptor column;
+        private final PageReader reader;
+        private final BitSet selected;
+        private int row = 0;
+
+        SelectedPageReader(ColumnDescriptor column, PageReader reader, BitSet selected)
+        {
+            this.column = column;
+            this.reader = reader;
+            this.selected = selected;
+        }
+
+        @Override
+        public DictionaryPage readDictionaryPage()
+        {
+            return reader.readDictionaryPage();
+        }
+
+        @Override
+        public long getTotalValueCount()
+        {
+            return reader.getTotalValueCount();
+        }
+
+        @Override
+        public DataPage readPage()
+        {
+            // pages of other readers are decompressed when their bytes are read
+            DataPage page;
+            if (reader instanceof SkippablePageReader) {
+                List<DataPage> next = ((SkippablePageReader) reader).peekPages();
+                page = next.isEmpty() ? null : next.get(0);
+            }
+            else {
+                page = reader.readPage();
+            }
+            if (page == null) {
+                return null;
+            }
+            int start = row;
+            row += page.getValueCount();
+            int next = selected.nextSetBit(start);
+            boolean skip = next < 0 || next >= row;
+            if (reader instanceof SkippablePageReader) {
+                if (!skip) {
+                    return reader.readPage();
+                }
+                ((SkippablePageReader) reader).skipPage();
+            }
+            return skip ? newSkippedPage(column, page.getValueCount()) : page;
+        }
+    }
+
+    private static DataPage newSkippedPage(ColumnDescriptor column, int valueCount)
+    {
+        byte[] bytes;
+        if (column.getMaxDefinitionLevel() > 0) {
+            // a run of definition level 0 and no values
+            ByteArrayOutputStream levels = new ByteArrayOutputStream();
+            try {
+                BytesUtils.writeUnsignedVarInt(valueCount << 1, levels);
+                int bitWidth = BytesUtils.getWidthFromMaxInt(column.getMaxDefinitionLevel());
+                levels.write(new byte[(bitWidth + 7) / 8]);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                BytesUtils.writeIntLittleEndian(out, levels.size());
+                levels.writeTo(out);
+                bytes = out.toByteArray();
+            }
+            catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+        else {
+            // zeros are read as values in the plain encoding, and as empty binaries
+            bytes = new byte[plainSize(column, valueCount)];
+        }
+        return new DataPageV1(BytesInput.from(bytes), valueCount, bytes.length,
+                Statistics.getStatsBasedOnType(column.getType()), Encoding.RLE, Encoding.RLE, Encoding.PLAIN);
+    }
+
+    private static int plainSize(ColumnDescriptor column, int valueCount)
+    {
+        switch (column.getType()) {
+            case BOOLEAN:
+                return (valueCount + 7) / 8;
+            case INT32:
+            case FLOAT:
+                return valueCount * 4;
+            case INT64:
+            case DOUBLE:
+                return valueCount * 8;
+            case INT96:
+                return valueCount * 12;
+            case FIXED_LEN_BYTE_ARRAY:
+                return valueCount * column.getTypeLength();
+            default:
+                // length prefix of binaries
+                return valueCount * 4;
+        }
+    }
+
+    private static GroupConverter newDiscardingConverter(GroupType type)
+    {
+        final Converter[] converters = new Converter[type.getFieldCount()];
+        for (int i = 0; i < converters.length; i++) {
+            Type field = type.getType(i);
+            converters[i] = field.isPrimitive() ? new PrimitiveConverter() {} : newDiscardingConverter(field.asGroupType());
+        }
+        return new GroupConverter()
+        {
+            @Override
+            public Converter getConverter(int fieldIndex)
+            {
+                return converters[fieldIndex];
+            }
+
+            @Override
+            public void start()
+            {
+            }
+
+            @Override
+            public void end()
+            {
+            }
+        };
+    }
+}
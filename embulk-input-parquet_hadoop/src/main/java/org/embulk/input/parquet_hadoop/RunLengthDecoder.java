@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.parquet.column.values.bitpacking.BytePacker;
+import org.apache.parquet.column.values.bitpacking.Packer;
+import org.apache.parquet.io.ParquetDecodingException;
+
+import java.util.Arrays;
+
+/**
+ * Decodes the RLE/bit-packing hybrid encoding of levels and dictionary ids into arrays.
+ *
+ * RunLengthBitPackingHybridDecoder of parquet-mr returns a value for each call. This fills a
+ * run of repeated values at once and unpacks bit-packed values by groups of 8.
+ */
+class RunLengthDecoder
+{
+    private final int bitWidth;
+    private final BytePacker packer;
+    private final byte[] bytes;
+    private final int end;
+    private int pos;
+
+    // the current run is a repeated value or bit-packed values
+    private int remaining = 0;
+    private boolean repeated;
+    private int repeatedValue;
+    private int[] packed = new int[0];
+    private int packedIndex;
+
+    /**
+     * @param bytes encoded values from {@code offset} to {@code end} without the length prefix
+     */
+    RunLengthDecoder(int bitWidth, byte[] bytes, int offset, int end)
+    {
+        this.bitWidth = bitWidth;
+        this.packer = Packer.LITTLE_ENDIAN.newBytePacker(bitWidth);
+        this.bytes = bytes;
+        this.pos = offset;
+        this.end = end;
+    }
+
+    /**
+     * Reads {@code count} values into {@code values} from {@code offset}.
+     */
+    void read(int[] values, int offset, int count)
+    {
+        while (count > 0) {
+            if (remaining == 0) {
+                readRun();
+            }
+            int n = Math.min(remaining, count);
+            if (repeated) {
+                Arrays.fill(values, offset, offset + n, repeatedValue);
+            }
+            else {
+                System.arraycopy(packed, packedIndex, values, offset, n);
+                packedIndex += n;
+            }
+            remaining -= n;
+            offset += n;
+            count -= n;
+        }
+    }
+
+    private void readRun()
+    {
+        int header = readUnsignedVarInt();
+        if ((header & 1) == 0) {
+            remaining = header >>> 1;
+            repeatedValue = 0;
+            int width = (bitWidth + 7) / 8;
+            if (pos + width > end) {
+                throw new ParquetDecodingException("RLE run exceeds the end of levels or dictionary ids");
+            }
+            for (int i = 0; i < width; i++) {
+                repeatedValue |= (bytes[pos++] & 0xff) << (i * 8);
+            }
+            repeated = true;
+        }
+        else {
+            int groups = header >>> 1;
+            remaining = groups * 8;
+            repeated = false;
+            if (packed.length < remaining) {
+                packed = new int[remaining];
+            }
+            // the last group may be truncated at the end of a page
+            byte[] source = bytes;
+            int sourcePos = pos;
+            int length = groups * bitWidth;
+            if (pos + length > end) {
+                source = new byte[length];
+                System.arraycopy(bytes, pos, source, 0, end - pos);
+                sourcePos = 0;
+            }
+            for (int i = 0; i < groups; i++) {
+                packer.unpack8Values(source, sourcePos + i * bitWidth, packed, i * 8);
+            }
+            pos = Math.min(pos + length, end);
+            packedIndex = 0;
+        }
+        if (remaining == 0) {
+            throw new ParquetDecodingException("empty run of RLE/bit-packing hybrid encoding");
+        }
+    }
+
+    private int readUnsignedVarInt()
+    {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            if (pos >= end) {
+                throw new ParquetDecodingException("no more runs of RLE/bit-packing hybrid encoding");
+            }
+            int b = bytes[pos++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
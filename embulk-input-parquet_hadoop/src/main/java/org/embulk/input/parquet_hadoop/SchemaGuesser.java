@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import com.google.common.collect.Lists;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+
+import java.util.List;
+
+/**
+ * Guesses typed columns from a Parquet schema.
+ *
+ * Each top-level field becomes a column which {@link ColumnConverters} can convert:
+ * primitives are mapped to the corresponding Embulk types and groups or repeated fields to json.
+ * A field which can't be a typed column (e.g. a name containing '.') is skipped.
+ */
+public class SchemaGuesser
+{
+    // decimals with more digits than this can't be represented by double exactly
+    static final int MAX_DOUBLE_DECIMAL_PRECISION = 15;
+
+    private SchemaGuesser()
+    {
+    }
+
+    public static List<ColumnConfig> guessColumns(MessageType schema)
+    {
+        List<ColumnConfig> columns = Lists.newArrayList();
+        for (org.apache.parquet.schema.Type field : schema.getFields()) {
+            // a dotted name is regarded as a nested column
+            Type type = guessType(field);
+            if (type != null && !field.getName().contains(".")) {
+                columns.add(new ColumnConfig(field.getName(), type));
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @return the Embulk type of a top-level field, or null if it isn't supported
+     */
+    static Type guessType(org.apache.parquet.schema.Type field)
+    {
+        if (!field.isPrimitive() || field.isRepetition(org.apache.parquet.schema.Type.Repetition.REPEATED)) {
+            return Types.JSON;
+        }
+
+        PrimitiveType primitive = field.asPrimitiveType();
+        OriginalType originalType = primitive.getOriginalType();
+        if (originalType == OriginalType.DECIMAL) {
+            if (primitive.getDecimalMetadata().getPrecision() <= MAX_DOUBLE_DECIMAL_PRECISION) {
+                return Types.DOUBLE;
+            }
+            return Types.STRING;
+        }
+
+        switch (primitive.getPrimitiveTypeName()) {
+            case BOOLEAN:
+                return Types.BOOLEAN;
+            case INT32:
+                return originalType == OriginalType.DATE ? Types.TIMESTAMP : Types.LONG;
+            case INT64:
+                return originalType == OriginalType.TIMESTAMP_MILLIS ? Types.TIMESTAMP : Types.LONG;
+            case INT96:
+                return Types.TIMESTAMP;
+            case FLOAT:
+            case DOUBLE:
+                return Types.DOUBLE;
+            case BINARY:
+                return Types.STRING;
+            default:
+                return null;
+        }
+    }
+}
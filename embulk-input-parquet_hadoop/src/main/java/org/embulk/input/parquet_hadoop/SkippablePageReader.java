@@ -0,0 +1,35 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.parquet.column.page.DataPage;
+import org.apache.parquet.column.page.PageReader;
+
+import java.util.List;
+
+/**
+ * A page reader which can skip a page without decompressing it.
+ */
+interface SkippablePageReader
+        extends PageReader
+{
+    /**
+     * @return pages not read yet, which may be compressed
+     */
+    List<DataPage> peekPages();
+
+    void skipPage();
+}
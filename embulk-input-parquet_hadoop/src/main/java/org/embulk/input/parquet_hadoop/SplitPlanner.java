@@ -0,0 +1,315 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.parquet.filter2.compat.FilterCompat;
+import org.apache.parquet.filter2.compat.RowGroupFilter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.schema.MessageType;
+import org.embulk.config.Config;
+import org.embulk.config.ConfigDefault;
+import org.embulk.config.ConfigException;
+import org.embulk.spi.Exec;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plans {@link ParquetSplit}s from listed files.
+ *
+ * When split_row_groups is enabled, footers are read here and consecutive row groups are packed
+ * into splits up to split_size bytes, so that a large file is read by several tasks.
+ * When footers are read with split_row_groups or prune_files, row groups which can't match the
+ * filter by statistics are dropped here, and files without matching row groups become no split.
+ * When task_size is set, small splits are packed into tasks of about task_size bytes.
+ */
+public class SplitPlanner
+{
+    private static final Logger logger = Exec.getLogger(SplitPlanner.class);
+
+    private static final Comparator<ParquetSplit> SPLIT_ORDER = new Comparator<ParquetSplit>() {
+        @Override
+        public int compare(ParquetSplit o1, ParquetSplit o2)
+        {
+            int c = o1.getPath().compareTo(o2.getPath());
+            return c != 0 ? c : Long.compare(o1.getStart(), o2.getStart());
+        }
+    };
+
+    interface Task
+            extends FooterCache.Task
+    {
+        @Config("split_row_groups")
+        @ConfigDefault("false")
+        boolean getSplitRowGroups();
+
+        @Config("split_size")
+        @ConfigDefault("134217728")
+        long getSplitSize();
+
+        @Config("task_size")
+        @ConfigDefault("0")
+        long getTaskSize();
+
+        @Config("prune_files")
+        @ConfigDefault("false")
+        boolean getPruneFiles();
+    }
+
+    private SplitPlanner()
+    {
+    }
+
+    /**
+     * @param filter drops row groups and files by statistics if footers are read
+     */
+    public static List<ParquetSplit> plan(Task task, Configuration conf, List<FileStatus> statusList,
+            Optional<ParquetFilter> filter) throws IOException
+    {
+        List<ParquetSplit> splits = Lists.newArrayList();
+        boolean pruneFiles = task.getPruneFiles() && filter.isPresent();
+        if (!task.getSplitRowGroups() && !pruneFiles) {
+            for (FileStatus status : statusList) {
+                splits.add(newFileSplit(status));
+            }
+            return splits;
+        }
+
+        if (task.getSplitRowGroups() && task.getSplitSize() <= 0) {
+            throw new ConfigException("split_size must be positive: " + task.getSplitSize());
+        }
+
+        List<ParquetMetadata> footers = readFooters(task, conf, statusList);
+        int prunedFiles = 0;
+        for (int i = 0; i < statusList.size(); i++) {
+            FileStatus status = statusList.get(i);
+            List<BlockMetaData> blocks = footers.get(i).getBlocks();
+            if (filter.isPresent()) {
+                blocks = pruneRowGroups(filter.get(), footers.get(i).getFileMetaData().getSchema(), blocks);
+                if (blocks.isEmpty()) {
+                    prunedFiles++;
+                    continue;
+                }
+            }
+            if (task.getSplitRowGroups()) {
+                splitRowGroups(status, blocks, task.getSplitSize(), splits);
+            }
+            else {
+                splits.add(newFileSplit(status));
+            }
+        }
+        if (filter.isPresent()) {
+            logger.info("embulk-input-parquet_hadoop: skipped {} of {} files by filter", prunedFiles, statusList.size());
+        }
+        logger.info("embulk-input-parquet_hadoop: planned {} splits from {} files", splits.size(), statusList.size());
+        return splits;
+    }
+
+    private static ParquetSplit newFileSplit(FileStatus status)
+    {
+        return new ParquetSplit(status.getPath().toString(), 0, status.getLen(), status.getLen(),
+                status.getModificationTime());
+    }
+
+    // the same as ParquetRowReader does
+    private static List<BlockMetaData> pruneRowGroups(ParquetFilter filter, MessageType schema, List<BlockMetaData> blocks)
+    {
+        ParquetFilter.Compiled compiled = filter.compile(schema);
+        if (compiled.isConstant()) {
+            return compiled.isAlwaysFalse() ? Collections.<BlockMetaData>emptyList() : blocks;
+        }
+        return RowGroupFilter.filterRowGroups(FilterCompat.get(compiled.getPredicate()), blocks, schema);
+    }
+
+    /**
+     * Reads footers with {@link ParquetFooterReader} as many in parallel as
+     * {@link ParquetFileReader#readAllFootersInParallel(Configuration, List)} does.
+     * Footers are cached for tasks.
+     */
+    private static List<ParquetMetadata> readFooters(final Task task, final Configuration conf, List<FileStatus> statusList)
+            throws IOException
+    {
+        int parallelism = conf.getInt(ParquetFileReader.PARQUET_READ_PARALLELISM, 5);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder()
+                .setNameFormat("embulk-input-parquet_hadoop-footer-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            List<Future<ParquetMetadata>> futures = Lists.newArrayList();
+            for (final FileStatus status : statusList) {
+                futures.add(executor.submit(new Callable<ParquetMetadata>() {
+                    @Override
+                    public ParquetMetadata call() throws IOException
+                    {
+                        try (PluginClassLoaderScope ignored = new PluginClassLoaderScope()) {
+                            FileSystem fs = status.getPath().getFileSystem(conf);
+                            return FooterCache.get(task, fs, status);
+                        }
+                    }
+                }));
+            }
+            List<ParquetMetadata> footers = Lists.newArrayList();
+            for (Future<ParquetMetadata> future : futures) {
+                footers.add(future.get());
+            }
+            return footers;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while reading footers");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Packs splits into tasks of about task_size bytes.
+     *
+     * Splits are assigned from the largest to the least loaded task (LPT scheduling) and each task
+     * reads its splits in path order.
+     */
+    public static List<List<ParquetSplit>> packTasks(Task task, List<ParquetSplit> splits)
+    {
+        List<List<ParquetSplit>> tasks = Lists.newArrayList();
+        if (task.getTaskSize() <= 0 || splits.isEmpty()) {
+            for (ParquetSplit split : splits) {
+                tasks.add(Collections.singletonList(split));
+            }
+            return tasks;
+        }
+
+        long totalSize = 0;
+        for (ParquetSplit split : splits) {
+            totalSize += split.getLength();
+        }
+        int taskCount = (int) Math.min(splits.size(), Math.max(1, (totalSize + task.getTaskSize() - 1) / task.getTaskSize()));
+
+        PriorityQueue<TaskBin> bins = new PriorityQueue<>(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            bins.add(new TaskBin(i));
+        }
+
+        List<ParquetSplit> sorted = Lists.newArrayList(splits);
+        Collections.sort(sorted, new Comparator<ParquetSplit>() {
+            @Override
+            public int compare(ParquetSplit o1, ParquetSplit o2)
+            {
+                return Long.compare(o2.getLength(), o1.getLength());
+            }
+        });
+        for (ParquetSplit split : sorted) {
+            TaskBin bin = bins.poll();
+            bin.add(split);
+            bins.add(bin);
+        }
+
+        List<TaskBin> orderedBins = Lists.newArrayList(bins);
+        Collections.sort(orderedBins, new Comparator<TaskBin>() {
+            @Override
+            public int compare(TaskBin o1, TaskBin o2)
+            {
+                return Integer.compare(o1.index, o2.index);
+            }
+        });
+        for (TaskBin bin : orderedBins) {
+            Collections.sort(bin.splits, SPLIT_ORDER);
+            tasks.add(bin.splits);
+        }
+        logger.info("embulk-input-parquet_hadoop: packed {} splits into {} tasks", splits.size(), tasks.size());
+        return tasks;
+    }
+
+    private static class TaskBin
+            implements Comparable<TaskBin>
+    {
+        private final int index;
+        private final List<ParquetSplit> splits = Lists.newArrayList();
+        private long size = 0;
+
+        TaskBin(int index)
+        {
+            this.index = index;
+        }
+
+        void add(ParquetSplit split)
+        {
+            splits.add(split);
+            size += split.getLength();
+        }
+
+        @Override
+        public int compareTo(TaskBin o)
+        {
+            int c = Long.compare(size, o.size);
+            if (c == 0) {
+                c = Integer.compare(splits.size(), o.splits.size());
+            }
+            return c != 0 ? c : Integer.compare(index, o.index);
+        }
+    }
+
+    private static void splitRowGroups(FileStatus status, List<BlockMetaData> blocks, long splitSize,
+            List<ParquetSplit> splits)
+    {
+        String path = status.getPath().toString();
+        long start = -1;
+        long end = -1;
+        for (BlockMetaData block : blocks) {
+            long blockStart = block.getStartingPos();
+            long blockEnd = blockStart + block.getCompressedSize();
+            if (start >= 0 && blockEnd - start > splitSize) {
+                splits.add(new ParquetSplit(path, start, end - start, status.getLen(), status.getModificationTime()));
+                start = -1;
+            }
+            if (start < 0) {
+                start = blockStart;
+            }
+            end = blockEnd;
+        }
+        if (start >= 0) {
+            splits.add(new ParquetSplit(path, start, end - start, status.getLen(), status.getModificationTime()));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.Dictionary;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Reads column vectors of files of 10000 records written with pages of 1 KB and a dictionary page
+ * of 1 KB, so that a column chunk has many pages, and pages of c_int and c_str fall back from the
+ * dictionary to another encoding after 3000 records. Values of a record are given by its index:
+ *
+ * <ul>
+ * <li>c_int (optional int32): null if i % 7 == 0, i % 50 if i < 3000, otherwise i * 3</li>
+ * <li>c_str (optional binary): null if i % 5 == 0, "s" + (i % 20) if i < 3000, otherwise "s" + i</li>
+ * <li>c_bool (required boolean): i % 3 == 0</li>
+ * <li>c_long (required int64): i * 1000003</li>
+ * <li>c_double (optional double): null if i % 11 == 0, otherwise i / 4.0</li>
+ * </ul>
+ *
+ * v1.parquet has pages of data page v1 with PLAIN values after the fallback, and v2.parquet has
+ * pages of data page v2 with DELTA_BINARY_PACKED, DELTA_BYTE_ARRAY and RLE values.
+ */
+public class TestColumnVectorReader
+{
+    private static final int RECORDS = 10000;
+    private static final int BATCH_SIZE = 4096;
+
+    @Test
+    public void testDataPageV1() throws Exception
+    {
+        assertColumns("test-data/column-vectors/v1.parquet");
+    }
+
+    @Test
+    public void testDataPageV2() throws Exception
+    {
+        assertColumns("test-data/column-vectors/v2.parquet");
+    }
+
+    private void assertColumns(String resource) throws Exception
+    {
+        Configuration conf = new Configuration();
+        Path path = new Path(Thread.currentThread().getContextClassLoader().getResource(resource).getPath());
+        ParquetMetadata footer = ParquetFileReader.readFooter(conf, path, ParquetMetadataConverter.NO_FILTER);
+        MessageType schema = footer.getFileMetaData().getSchema();
+        List<ColumnDescriptor> columns = schema.getColumns();
+        assertThat(footer.getBlocks().size(), is(1));
+
+        ParquetFileReader reader = new ParquetFileReader(conf, footer.getFileMetaData(), path, footer.getBlocks(), columns);
+        try {
+            PageReadStore pages = reader.readNextRowGroup();
+            assertThat(pages.getRowCount(), is((long) RECORDS));
+            for (ColumnDescriptor column : columns) {
+                assertColumn(column, new ColumnVectorReader(column, pages.getPageReader(column)));
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private void assertColumn(ColumnDescriptor column, ColumnVectorReader reader) throws Exception
+    {
+        String name = column.getPath()[0];
+        Dictionary dictionary = reader.getDictionary();
+        ColumnVector vector = new ColumnVector(column.getType(), BATCH_SIZE);
+        int encoded = 0;
+        int decoded = 0;
+        for (int start = 0; start < RECORDS; start += BATCH_SIZE) {
+            int count = Math.min(BATCH_SIZE, RECORDS - start);
+            reader.read(vector, count);
+            for (int row = 0; row < count; row++) {
+                int i = start + row;
+                Object expected = expectedValue(name, i);
+                String message = name + " of record " + i;
+                assertThat(message, vector.nulls[row], is(expected == null));
+                if (expected == null) {
+                    continue;
+                }
+                if (vector.encoded[row]) {
+                    encoded++;
+                }
+                else {
+                    decoded++;
+                }
+                assertThat(message, valueOf(vector, row, dictionary), is(expected));
+            }
+        }
+        if (name.equals("c_int") || name.equals("c_str")) {
+            // both dictionary-encoded pages and pages after the fallback are read
+            assertThat(name + " has dictionary ids", encoded > 0, is(true));
+            assertThat(name + " has values", decoded > 0, is(true));
+        }
+    }
+
+    private static Object expectedValue(String name, int i)
+    {
+        switch (name) {
+            case "c_int":
+                return i % 7 == 0 ? null : (Object) (i < 3000 ? i % 50 : i * 3);
+            case "c_str":
+                return i % 5 == 0 ? null : "s" + (i < 3000 ? i % 20 : i);
+            case "c_bool":
+                return i % 3 == 0;
+            case "c_long":
+                return i * 1000003L;
+            case "c_double":
+                return i % 11 == 0 ? null : (Object) (i / 4.0);
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    private static Object valueOf(ColumnVector vector, int row, Dictionary dictionary)
+    {
+        int id = vector.ids[row];
+        boolean encoded = vector.encoded[row];
+        switch (vector.type) {
+            case BOOLEAN:
+                return encoded ? dictionary.decodeToBoolean(id) : vector.booleans[row];
+            case INT32:
+                return encoded ? dictionary.decodeToInt(id) : vector.ints[row];
+            case INT64:
+                return encoded ? dictionary.decodeToLong(id) : vector.longs[row];
+            case FLOAT:
+                return encoded ? dictionary.decodeToFloat(id) : vector.floats[row];
+            case DOUBLE:
+                return encoded ? dictionary.decodeToDouble(id) : vector.doubles[row];
+            default:
+                Binary value = encoded ? dictionary.decodeToBinary(id)
+                        : Binary.fromConstantByteArray(vector.bytes, vector.offsets[row], vector.lengths[row]);
+                return value.toStringUsingUTF8();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.filter2.compat.FilterCompat;
+import org.apache.parquet.filter2.compat.RowGroupFilter;
+import org.apache.parquet.filter2.predicate.FilterApi;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Filters row groups of a file whose c_str (required binary) is dictionary-encoded, and whose
+ * c_int (required int32) is the index of a record:
+ *
+ * <ul>
+ * <li>row group 0 of 10 records: "bar" and "boz"</li>
+ * <li>row group 1 of 10 records: "baa" and "bzz"</li>
+ * <li>row group 2 of 1000 records: "baa" and "bzz" in pages with a dictionary, and distinct
+ * values "bq00000000" to "bq00000499" in PLAIN pages after the fallback</li>
+ * <li>row group 3 of 10 records: "bop" and "bzz"</li>
+ * </ul>
+ *
+ * Min/max statistics of every row group cover "bop".
+ */
+public class TestDictionaryFilter
+{
+    private static final String RESOURCE = "test-data/dictionary-filter/data.parquet";
+
+    private final Configuration conf = new Configuration();
+    private Path path;
+    private ParquetMetadata footer;
+    private List<BlockMetaData> blocks;
+    private MessageType schema;
+    private FSDataInputStream in;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        path = new Path(Thread.currentThread().getContextClassLoader().getResource(RESOURCE).toURI());
+        footer = ParquetFileReader.readFooter(conf, path, ParquetMetadataConverter.NO_FILTER);
+        blocks = footer.getBlocks();
+        schema = footer.getFileMetaData().getSchema();
+        in = FileSystem.getLocal(conf).open(path);
+        assertThat(blocks.size(), is(4));
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        in.close();
+    }
+
+    @Test
+    public void testStatisticsDropNothing() throws Exception
+    {
+        assertThat(RowGroupFilter.filterRowGroups(FilterCompat.get(eq("bop")), blocks, schema), is(blocks));
+    }
+
+    @Test
+    public void testEq() throws Exception
+    {
+        // row group 2 has no "bop" but its chunk fell back to PLAIN, so its dictionary doesn't have all values
+        assertThat(filterRowGroups(eq("bop")), is(Arrays.asList(blocks.get(2), blocks.get(3))));
+        assertThat(filterRowGroups(eq("bar")), is(Arrays.asList(blocks.get(0), blocks.get(2))));
+        assertThat(filterRowGroups(eq("baa")), is(Arrays.asList(blocks.get(1), blocks.get(2))));
+    }
+
+    @Test
+    public void testIn() throws Exception
+    {
+        assertThat(filterRowGroups(FilterApi.or(eq("bar"), eq("bop"))),
+                is(Arrays.asList(blocks.get(0), blocks.get(2), blocks.get(3))));
+    }
+
+    @Test
+    public void testAnd() throws Exception
+    {
+        FilterPredicate predicate = FilterApi.and(eq("bop"), FilterApi.gtEq(FilterApi.intColumn("c_int"), 0));
+        assertThat(filterRowGroups(predicate), is(Arrays.asList(blocks.get(2), blocks.get(3))));
+    }
+
+    @Test
+    public void testColumnWithoutDictionary() throws Exception
+    {
+        // c_int is written in PLAIN
+        assertThat(filterRowGroups(FilterApi.eq(FilterApi.intColumn("c_int"), 5)), is(blocks));
+    }
+
+    @Test
+    public void testFullyDictionaryEncoded() throws Exception
+    {
+        assertThat(DictionaryFilter.isFullyDictionaryEncoded(blocks.get(0).getColumns().get(0)), is(true));
+        assertThat(DictionaryFilter.isFullyDictionaryEncoded(blocks.get(2).getColumns().get(0)), is(false));
+        assertThat(DictionaryFilter.isFullyDictionaryEncoded(blocks.get(0).getColumns().get(1)), is(false));
+    }
+
+    private List<BlockMetaData> filterRowGroups(FilterPredicate predicate) throws Exception
+    {
+        // dictionary pages are read from the stream
+        ParquetFooterReader.Tail tail = ParquetFooterReader.Tail.withoutBytes(footer,
+                FileSystem.getLocal(conf).getFileStatus(path).getLen());
+        return new DictionaryFilter(conf, in, tail).filterRowGroups(predicate, blocks, schema);
+    }
+
+    private static FilterPredicate eq(String value)
+    {
+        return FilterApi.eq(FilterApi.binaryColumn("c_str"), Binary.fromString(value));
+    }
+}
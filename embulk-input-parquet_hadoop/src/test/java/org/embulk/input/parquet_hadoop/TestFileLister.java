@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FilterFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.input.parquet_hadoop.ParquetHadoopInputPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class TestFileLister
+{
+    // files in the tree except hidden ones, sorted by path
+    private static final List<String> FILES = Arrays.asList(
+            "a/b/c/f1.parquet",
+            "a/b/f2.parquet",
+            "a/f3.parquet",
+            "d/e/f4.parquet",
+            "d/f/g/h/f5.parquet",
+            "f6.parquet");
+
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileSystem fs;
+    private Path root;
+
+    @Before
+    public void createTree() throws Exception
+    {
+        for (String file : FILES) {
+            touch(file);
+        }
+        touch("a/b/_SUCCESS");
+        touch("a/.f1.parquet.crc");
+        touch("_temporary/0/f7.parquet");
+        touch("d/.hidden/f8.parquet");
+        new File(folder.getRoot(), "empty/dir").mkdirs();
+
+        fs = FileSystem.getLocal(new Configuration());
+        root = new Path(folder.getRoot().toURI());
+    }
+
+    @Test
+    public void testWalk() throws Exception
+    {
+        assertThat(list(newTask(4, false), fs), is(FILES));
+    }
+
+    @Test
+    public void testWalkByThread() throws Exception
+    {
+        assertThat(list(newTask(1, false), fs), is(FILES));
+    }
+
+    @Test
+    public void testFlatListing() throws Exception
+    {
+        assertThat(list(newTask(4, true), fs), is(list(newTask(4, false), fs)));
+    }
+
+    @Test
+    public void testGlob() throws Exception
+    {
+        FileLister lister = new FileLister(newTask(4, false), fs);
+        List<String> files = relativize(lister.list(new Path(root, "[ad]")));
+        assertThat(files, is(FILES.subList(0, 5)));
+    }
+
+    @Test
+    public void testFailureInWalker() throws Exception
+    {
+        FileSystem failing = new FailingFileSystem(fs, "g", new IOException("listing failed"));
+        try {
+            list(newTask(4, false), failing);
+            fail("listing must fail");
+        }
+        catch (IOException e) {
+            assertThat(e.getMessage(), is("listing failed"));
+        }
+    }
+
+    @Test
+    public void testRuntimeExceptionInWalker() throws Exception
+    {
+        FileSystem failing = new FailingFileSystem(fs, "c", new IllegalStateException("broken"));
+        try {
+            list(newTask(4, false), failing);
+            fail("listing must fail");
+        }
+        catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("broken"));
+        }
+    }
+
+    private PluginTask newTask(int threads, boolean flatListing)
+    {
+        return Exec.newConfigSource()
+                .set("path", folder.getRoot().toString())
+                .set("list_threads", threads)
+                .set("flat_listing", flatListing)
+                .loadConfig(PluginTask.class);
+    }
+
+    private List<String> list(PluginTask task, FileSystem fs) throws IOException
+    {
+        return relativize(new FileLister(task, fs).list(root));
+    }
+
+    private List<String> relativize(List<FileStatus> statusList)
+    {
+        String prefix = root.toUri().getPath();
+        List<String> files = new ArrayList<>();
+        for (FileStatus status : statusList) {
+            String path = status.getPath().toUri().getPath();
+            assertThat(path + " is under " + prefix, path.startsWith(prefix), is(true));
+            files.add(path.substring(prefix.length()).replaceFirst("^/", ""));
+        }
+        return files;
+    }
+
+    private void touch(String name) throws IOException
+    {
+        File file = new File(folder.getRoot(), name);
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+    }
+
+    // fails to list a directory of the name
+    private static class FailingFileSystem
+            extends FilterFileSystem
+    {
+        private final String name;
+        private final Exception exception;
+
+        FailingFileSystem(FileSystem fs, String name, Exception exception)
+        {
+            super(fs);
+            this.name = name;
+            this.exception = exception;
+        }
+
+        @Override
+        public FileStatus[] listStatus(Path path) throws IOException
+        {
+            if (path.getName().equals(name)) {
+                if (exception instanceof IOException) {
+                    throw (IOException) exception;
+                }
+                throw (RuntimeException) exception;
+            }
+            return super.listStatus(path);
+        }
+    }
+}
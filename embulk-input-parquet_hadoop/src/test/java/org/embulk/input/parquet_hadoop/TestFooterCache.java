@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import com.google.common.io.Resources;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.input.parquet_hadoop.ParquetHadoopInputPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class TestFooterCache
+{
+    private static final String RESOURCE = "test-data/simple/data.parquet";
+
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileSystem fs;
+    private int footerLength;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        fs = FileSystem.getLocal(new Configuration());
+        FileStatus status = copy("footer.parquet");
+        footerLength = ParquetFooterReader.readTail(newTask(0), fs, status, ParquetMetadataConverter.NO_FILTER)
+                .getFooterLength();
+    }
+
+    @Test
+    public void testHit() throws Exception
+    {
+        PluginTask task = newTask(footerLength * 10L);
+        FileStatus status = copy("a.parquet");
+        ParquetMetadata footer = FooterCache.get(task, fs, status);
+
+        assertThat(FooterCache.get(task, fs, status), is(sameInstance(footer)));
+        assertThat(getIfPresent(task, status), is(sameInstance(footer)));
+    }
+
+    @Test
+    public void testChangedFile() throws Exception
+    {
+        PluginTask task = newTask(footerLength * 10L);
+        FileStatus status = copy("a.parquet");
+        ParquetMetadata footer = FooterCache.get(task, fs, status);
+        String path = status.getPath().toString();
+
+        assertThat(FooterCache.getIfPresent(task, path, status.getLen(), status.getModificationTime() + 1000),
+                is(nullValue()));
+        assertThat(FooterCache.getIfPresent(task, path, status.getLen() + 1, status.getModificationTime()),
+                is(nullValue()));
+
+        // the file is read again after it's modified
+        fs.setTimes(status.getPath(), status.getModificationTime() + 1000, -1);
+        FileStatus modified = fs.getFileStatus(status.getPath());
+        assertThat(FooterCache.get(task, fs, modified), is(not(sameInstance(footer))));
+    }
+
+    @Test
+    public void testEvictionByWeight() throws Exception
+    {
+        // room for 2 footers but not for 3
+        PluginTask task = newTask(footerLength * 5L / 2);
+        FileStatus a = copy("a.parquet");
+        FileStatus b = copy("b.parquet");
+        FileStatus c = copy("c.parquet");
+        FooterCache.get(task, fs, a);
+        FooterCache.get(task, fs, b);
+        FooterCache.get(task, fs, c);
+
+        assertThat(getIfPresent(task, a), is(nullValue()));
+        assertThat(getIfPresent(task, b), is(notNullValue()));
+        assertThat(getIfPresent(task, c), is(notNullValue()));
+    }
+
+    @Test
+    public void testFooterLargerThanCache() throws Exception
+    {
+        PluginTask task = newTask(footerLength - 1L);
+        FileStatus status = copy("a.parquet");
+        ParquetMetadata footer = FooterCache.get(task, fs, status);
+
+        assertThat(getIfPresent(task, status), is(nullValue()));
+        assertThat(FooterCache.get(task, fs, status), is(not(sameInstance(footer))));
+    }
+
+    @Test
+    public void testChangedCacheSize() throws Exception
+    {
+        FileStatus status = copy("a.parquet");
+        FooterCache.get(newTask(footerLength * 10L), fs, status);
+        assertThat(getIfPresent(newTask(footerLength * 10L), status), is(notNullValue()));
+
+        // the cache is rebuilt with another size
+        PluginTask task = newTask(footerLength * 20L);
+        assertThat(getIfPresent(task, status), is(nullValue()));
+        FooterCache.get(task, fs, status);
+        assertThat(getIfPresent(task, status), is(notNullValue()));
+
+        // and disabled with 0
+        PluginTask disabled = newTask(0);
+        ParquetMetadata footer = FooterCache.get(disabled, fs, status);
+        assertThat(getIfPresent(disabled, status), is(nullValue()));
+        assertThat(FooterCache.get(disabled, fs, status), is(not(sameInstance(footer))));
+    }
+
+    private PluginTask newTask(long footerCacheSize)
+    {
+        return Exec.newConfigSource()
+                .set("path", folder.getRoot().toString())
+                .set("footer_cache_size", footerCacheSize)
+                .loadConfig(PluginTask.class);
+    }
+
+    private FileStatus copy(String name) throws Exception
+    {
+        File file = new File(folder.getRoot(), name);
+        Files.copy(new File(Resources.getResource(RESOURCE).toURI()).toPath(), file.toPath());
+        return fs.getFileStatus(new Path(file.toURI()));
+    }
+
+    private static ParquetMetadata getIfPresent(PluginTask task, FileStatus status)
+    {
+        return FooterCache.getIfPresent(task, status.getPath().toString(), status.getLen(),
+                status.getModificationTime());
+    }
+}
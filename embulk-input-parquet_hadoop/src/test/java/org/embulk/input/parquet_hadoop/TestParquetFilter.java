@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.parquet.filter2.predicate.FilterApi;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TestParquetFilter
+{
+    private static final MessageType SCHEMA = MessageTypeParser.parseMessageType(
+            "message m { optional binary dt (UTF8); }");
+    private static final MessageType SCHEMA_WITHOUT_DT = MessageTypeParser.parseMessageType(
+            "message m { optional binary other (UTF8); }");
+
+    @Test
+    public void testInWithNull()
+    {
+        ParquetFilter filter = in("dt", null, "x");
+
+        // partitions
+        assertThat(filter.evaluate(values("dt", null)), is(true));
+        assertThat(filter.evaluate(values("dt", "x")), is(true));
+        assertThat(filter.evaluate(values("dt", "y")), is(false));
+
+        // columns of files
+        assertThat(filter.compile(SCHEMA).getPredicate(), is(FilterApi.or(
+                FilterApi.eq(FilterApi.binaryColumn("dt"), (Binary) null),
+                FilterApi.eq(FilterApi.binaryColumn("dt"), Binary.fromString("x")))));
+        assertThat(filter.compile(SCHEMA_WITHOUT_DT).isConstant(), is(true));
+        assertThat(filter.compile(SCHEMA_WITHOUT_DT).isAlwaysFalse(), is(false));
+    }
+
+    @Test
+    public void testInWithoutNull()
+    {
+        ParquetFilter filter = in("dt", "x");
+
+        assertThat(filter.evaluate(values("dt", null)), is(false));
+        assertThat(filter.evaluate(values("dt", "x")), is(true));
+        assertThat(filter.compile(SCHEMA_WITHOUT_DT).isAlwaysFalse(), is(true));
+    }
+
+    private static ParquetFilter in(String column, Object... values)
+    {
+        return new ParquetFilter(null, null, null, column, null, null, Arrays.asList(values));
+    }
+
+    private static Map<String, Object> values(String column, Object value)
+    {
+        return Collections.singletonMap(column, value);
+    }
+}
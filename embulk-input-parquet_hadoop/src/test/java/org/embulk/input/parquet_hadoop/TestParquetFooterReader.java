@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import com.google.common.io.Resources;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigException;
+import org.embulk.input.parquet_hadoop.ParquetFooterReader.Tail;
+import org.embulk.input.parquet_hadoop.ParquetHadoopInputPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class TestParquetFooterReader
+{
+    private static final String RESOURCE = "test-data/simple/data.parquet";
+
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void testSmallFile() throws Exception
+    {
+        FileStatus status = getFileStatus();
+        Tail tail = readTail(newTask(status.getLen()), status);
+        assertThat(tail.getStart(), is(0L));
+        assertThat(tail.getBytes().length, is((int) status.getLen()));
+        assertThat(tail.getMetadata().getBlocks().size(), is(1));
+    }
+
+    @Test
+    public void testSmallFileSizeOverArray() throws Exception
+    {
+        // 2 GiB doesn't fit in an array
+        assertInvalidSmallFileSize(Integer.MAX_VALUE + 1L);
+        assertInvalidSmallFileSize(3L * 1024 * 1024 * 1024);
+        assertInvalidSmallFileSize(-1L);
+    }
+
+    private void assertInvalidSmallFileSize(long smallFileSize) throws Exception
+    {
+        try {
+            readTail(newTask(smallFileSize), getFileStatus());
+            fail("small_file_size " + smallFileSize + " must be rejected");
+        }
+        catch (ConfigException e) {
+            assertThat(e.getMessage().startsWith("small_file_size"), is(true));
+        }
+    }
+
+    private PluginTask newTask(long smallFileSize) throws Exception
+    {
+        return Exec.newConfigSource()
+                .set("path", Resources.getResource(RESOURCE).toURI().toString())
+                .set("small_file_size", smallFileSize)
+                .loadConfig(PluginTask.class);
+    }
+
+    private FileStatus getFileStatus() throws Exception
+    {
+        Path path = new Path(Resources.getResource(RESOURCE).toURI());
+        return FileSystem.getLocal(new Configuration()).getFileStatus(path);
+    }
+
+    private Tail readTail(PluginTask task, FileStatus status) throws Exception
+    {
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        try (FSDataInputStream in = fs.open(status.getPath())) {
+            return ParquetFooterReader.readTail(task, in, status.getPath(), status.getLen(),
+                    ParquetMetadataConverter.NO_FILTER);
+        }
+    }
+}
@@ -52,6 +52,165 @@ public class TestParquetHadoopInputPlugin
                 "incompatible-schema/expected.csv");
     }
 
+    @Test
+    public void testSplitRowGroups() throws Exception
+    {
+        // a split for each of 10 row groups
+        assertRecordsByResource(embulk, "split-row-groups/in.yml", "decode-threads/data.parquet",
+                "split-row-groups/expected.csv");
+    }
+
+    @Test
+    public void testPackTasks() throws Exception
+    {
+        assertRecordsByResource(embulk, "pack-tasks/in.yml", "incompatible-schema/data",
+                "pack-tasks/expected.csv");
+    }
+
+    @Test
+    public void testFilter() throws Exception
+    {
+        assertRecordsByResource(embulk, "filter/in.yml", "simple/data.parquet",
+                "filter/expected.csv");
+    }
+
+    @Test
+    public void testFilterFractional() throws Exception
+    {
+        assertRecordsByResource(embulk, "filter-fractional/in.yml", "simple/data.parquet",
+                "filter-fractional/expected.csv");
+    }
+
+    @Test
+    public void testColumns() throws Exception
+    {
+        assertRecordsByResource(embulk, "columns/in.yml", "simple/data.parquet",
+                "columns/expected.csv");
+    }
+
+    @Test
+    public void testTypedColumns() throws Exception
+    {
+        assertRecordsByResource(embulk, "typed-columns/in.yml", "simple/data.parquet",
+                "typed-columns/expected.csv");
+    }
+
+    @Test
+    public void testPrefetch() throws Exception
+    {
+        // 10 row groups read ahead by 3
+        assertRecordsByResource(embulk, "prefetch/in.yml", "decode-threads/data.parquet",
+                "prefetch/expected.csv");
+    }
+
+    @Test
+    public void testPrefetchMemoryLimit() throws Exception
+    {
+        // a row group over prefetch_memory is read alone
+        assertRecordsByResource(embulk, "prefetch-memory-limit/in.yml", "decode-threads/data.parquet",
+                "prefetch-memory-limit/expected.csv");
+    }
+
+    @Test
+    public void testDecodeThreads() throws Exception
+    {
+        assertRecordsByResource(embulk, "decode-threads/in.yml", "decode-threads/data.parquet",
+                "decode-threads/expected.csv");
+    }
+
+    @Test
+    public void testDecompressThreads() throws Exception
+    {
+        assertRecordsByResource(embulk, "decompress-threads/in.yml", "decode-threads/data.parquet",
+                "decompress-threads/expected.csv");
+    }
+
+    @Test
+    public void testCoalescedReads() throws Exception
+    {
+        assertRecordsByResource(embulk, "coalesced-reads/in.yml", "simple/data.parquet",
+                "coalesced-reads/expected.csv");
+    }
+
+    @Test
+    public void testFooterRead() throws Exception
+    {
+        assertRecordsByResource(embulk, "footer-read/in.yml", "simple/data.parquet",
+                "footer-read/expected.csv");
+    }
+
+    @Test
+    public void testFooterIndex() throws Exception
+    {
+        // tasks read footers from the index because the cache is disabled
+        assertRecordsByResource(embulk, "footer-index/in.yml", "simple/data.parquet",
+                "footer-index/expected.csv");
+    }
+
+    @Test
+    public void testPruneFiles() throws Exception
+    {
+        // part-0.parquet is skipped by statistics, and part-1.parquet is read
+        assertRecordsByResource(embulk, "prune-files/in.yml", "prune-files/data",
+                "prune-files/expected.csv");
+    }
+
+    @Test
+    public void testPartitions() throws Exception
+    {
+        assertRecordsByResource(embulk, "partitions/in.yml", "partitions/table",
+                "partitions/expected.csv");
+    }
+
+    @Test
+    public void testDictionaryFilter() throws Exception
+    {
+        // min/max of c_str in all 4 row groups cover "bop". 2 row groups are dropped by
+        // dictionaries, and a row group whose chunk fell back to PLAIN is read
+        assertRecordsByResource(embulk, "dictionary-filter/in.yml", "dictionary-filter/data.parquet",
+                "dictionary-filter/expected.csv");
+    }
+
+    @Test
+    public void testLateMaterialization() throws Exception
+    {
+        // 4 records are selected from 10000 records, and the other pages of c_str and c_long are skipped
+        assertRecordsByResource(embulk, "late-materialization/in.yml", "late-materialization/data.parquet",
+                "late-materialization/expected.csv");
+    }
+
+    @Test
+    public void testLateMaterializationOfRecords() throws Exception
+    {
+        // the selected records are assembled after skipped pages
+        assertRecordsByResource(embulk, "late-materialization-records/in.yml", "late-materialization/data.parquet",
+                "late-materialization-records/expected.csv");
+    }
+
+    @Test
+    public void testPageFilter() throws Exception
+    {
+        // c_id is sorted and written in 28 pages, so pages out of the range are skipped
+        assertRecordsByResource(embulk, "page-filter/in.yml", "page-filter/data.parquet",
+                "page-filter/expected.csv");
+    }
+
+    @Test
+    public void testVectorizedRead() throws Exception
+    {
+        // flat typed columns without json are read by batches of column vectors
+        assertRecordsByResource(embulk, "vectorized-read/in.yml", "simple/data.parquet",
+                "vectorized-read/expected.csv");
+    }
+
+    @Test
+    public void testOmitNullFields() throws Exception
+    {
+        // c_str and c_group are null, or c_group.c_a is null in some records
+        assertRecordsByResource(embulk, "omit-null-fields/in.yml", "omit-null-fields/data.parquet",
+                "omit-null-fields/expected.csv");
+    }
+
     static void assertRecordsByResource(TestingEmbulk embulk,
                                         String inConfigYamlResourceName,
                                         String sourceResourceName, String resultCsvResourceName)
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.Dictionary;
+import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.filter2.predicate.FilterApi;
+import org.apache.parquet.filter2.predicate.FilterPredicate;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Selects records of a file of 10000 records in a row group written with pages of 1 KB, so that
+ * a column chunk has dozens of pages. Values of a record are given by its index:
+ *
+ * <ul>
+ * <li>c_id (required int32): i</li>
+ * <li>c_str (optional binary): null if i % 3 == 0, otherwise "s" + i</li>
+ * <li>c_long (required int64): i * 7</li>
+ * </ul>
+ *
+ * Most pages of c_str and c_long have no selected record, and they are replaced with pages of
+ * nulls and of zeros.
+ */
+public class TestRowSelection
+{
+    private static final String RESOURCE = "test-data/late-materialization/data.parquet";
+    private static final int RECORDS = 10000;
+    private static final int BATCH_SIZE = 1000;
+    private static final List<Integer> SELECTED = Arrays.asList(5, 6, 5000, 9999);
+
+    private ParquetMetadata footer;
+    private MessageType schema;
+    private ParquetFileReader reader;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Configuration conf = new Configuration();
+        Path path = new Path(Thread.currentThread().getContextClassLoader().getResource(RESOURCE).toURI());
+        footer = ParquetFileReader.readFooter(conf, path, ParquetMetadataConverter.NO_FILTER);
+        schema = footer.getFileMetaData().getSchema();
+        assertThat(footer.getBlocks().size(), is(1));
+        reader = new ParquetFileReader(conf, footer.getFileMetaData(), path, footer.getBlocks(), schema.getColumns());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        reader.close();
+    }
+
+    @Test
+    public void testSelect() throws Exception
+    {
+        assertSelection(false);
+    }
+
+    @Test
+    public void testSelectWithPageFilter() throws Exception
+    {
+        assertSelection(true);
+    }
+
+    private void assertSelection(boolean pageFilter) throws Exception
+    {
+        PageReadStore pages = reader.readNextRowGroup();
+        FilterPredicate predicate = null;
+        for (int id : SELECTED) {
+            FilterPredicate eq = FilterApi.eq(FilterApi.intColumn("c_id"), id);
+            predicate = predicate == null ? eq : FilterApi.or(predicate, eq);
+        }
+        RowSelection selection = RowSelection.select(pages, predicate, schema,
+                footer.getFileMetaData().getCreatedBy(), pageFilter);
+
+        assertThat(selection.getRowCount(), is(RECORDS));
+        assertThat(selection.getSelectedCount(), is(SELECTED.size()));
+        for (int id : SELECTED) {
+            assertThat(selection.isSelected(id), is(true));
+        }
+        for (ColumnDescriptor column : schema.getColumns()) {
+            assertColumn(column, selection.getPages());
+        }
+    }
+
+    // values of selected records are read after pages of skipped records
+    private void assertColumn(ColumnDescriptor column, PageReadStore pages) throws Exception
+    {
+        String name = column.getPath()[0];
+        ColumnVectorReader reader = new ColumnVectorReader(column, pages.getPageReader(column));
+        Dictionary dictionary = reader.getDictionary();
+        ColumnVector vector = new ColumnVector(column.getType(), BATCH_SIZE);
+        for (int start = 0; start < RECORDS; start += BATCH_SIZE) {
+            reader.read(vector, BATCH_SIZE);
+            for (int row = 0; row < BATCH_SIZE; row++) {
+                int i = start + row;
+                if (!SELECTED.contains(i)) {
+                    continue;
+                }
+                Object expected = expectedValue(name, i);
+                String message = name + " of record " + i;
+                assertThat(message, vector.nulls[row], is(expected == null));
+                if (expected != null) {
+                    assertThat(message, valueOf(vector, row, dictionary), is(expected));
+                }
+            }
+        }
+    }
+
+    private static Object expectedValue(String name, int i)
+    {
+        switch (name) {
+            case "c_id":
+                return i;
+            case "c_str":
+                return i % 3 == 0 ? null : "s" + i;
+            case "c_long":
+                return i * 7L;
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+
+    private static Object valueOf(ColumnVector vector, int row, Dictionary dictionary)
+    {
+        int id = vector.ids[row];
+        boolean encoded = vector.encoded[row];
+        switch (vector.type) {
+            case INT32:
+                return encoded ? dictionary.decodeToInt(id) : vector.ints[row];
+            case INT64:
+                return encoded ? dictionary.decodeToLong(id) : vector.longs[row];
+            default:
+                Binary value = encoded ? dictionary.decodeToBinary(id)
+                        : Binary.fromConstantByteArray(vector.bytes, vector.offsets[row], vector.lengths[row]);
+                return value.toStringUsingUTF8();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.parquet.column.values.rle.RunLengthBitPackingHybridEncoder;
+import org.apache.parquet.io.ParquetDecodingException;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TestRunLengthDecoder
+{
+    @Test
+    public void testMixedRuns() throws Exception
+    {
+        // repeated values are encoded as RLE runs, and the others as bit-packed runs
+        int[] values = new int[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (i / 100) % 2 == 0 ? i % 7 : 5;
+        }
+        byte[] bytes = encode(3, values);
+
+        for (int batch : new int[] {1, 3, 8, 100, 1000}) {
+            assertThat("batch " + batch, decode(3, bytes, values.length, batch), is(values));
+        }
+    }
+
+    @Test
+    public void testWideValues() throws Exception
+    {
+        // RLE values of more than a byte, e.g. dictionary ids
+        int[] values = new int[300];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i < 100 ? 70000 : i * 311;
+        }
+        byte[] bytes = encode(17, values);
+
+        assertThat(decode(17, bytes, values.length, 64), is(values));
+    }
+
+    @Test
+    public void testTruncatedLastGroup()
+    {
+        // a bit-packed run of a group of 8 values of 3 bits, whose bytes end after the 5th value
+        byte[] bytes = new byte[] {(1 << 1) | 1, 0, 0};
+        int[] values = new int[] {1, 2, 3, 4, 5};
+        long packed = 0;
+        for (int i = 0; i < values.length; i++) {
+            packed |= (long) values[i] << (i * 3);
+        }
+        bytes[1] = (byte) packed;
+        bytes[2] = (byte) (packed >>> 8);
+
+        assertThat(decode(3, bytes, values.length, 2), is(values));
+    }
+
+    @Test
+    public void testZeroBitWidth() throws Exception
+    {
+        // e.g. dictionary ids of a dictionary with a single entry
+        int[] values = new int[100];
+        assertThat(decode(0, encode(0, values), values.length, 30), is(values));
+
+        // a bit-packed run of width 0 has no bytes
+        byte[] bytes = new byte[] {(2 << 1) | 1};
+        assertThat(decode(0, bytes, 16, 5), is(new int[16]));
+    }
+
+    @Test(expected = ParquetDecodingException.class)
+    public void testNoMoreRuns() throws Exception
+    {
+        int[] values = new int[] {1, 1, 1, 1, 1, 1, 1, 1, 1, 1};
+        decode(1, encode(1, values), values.length + 1, values.length + 1);
+    }
+
+    private static byte[] encode(int bitWidth, int[] values) throws Exception
+    {
+        RunLengthBitPackingHybridEncoder encoder = new RunLengthBitPackingHybridEncoder(bitWidth, 64, 1024 * 1024);
+        for (int value : values) {
+            encoder.writeInt(value);
+        }
+        return encoder.toBytes().toByteArray();
+    }
+
+    // decodes with a margin before and after the encoded bytes, by batches of the given size
+    private static int[] decode(int bitWidth, byte[] bytes, int count, int batch)
+    {
+        byte[] padded = new byte[bytes.length + 8];
+        Arrays.fill(padded, (byte) 0xff);
+        System.arraycopy(bytes, 0, padded, 4, bytes.length);
+        RunLengthDecoder decoder = new RunLengthDecoder(bitWidth, padded, 4, 4 + bytes.length);
+
+        int[] values = new int[count];
+        for (int offset = 0; offset < count; offset += batch) {
+            decoder.read(values, offset, Math.min(batch, count - offset));
+        }
+        return values;
+    }
+}
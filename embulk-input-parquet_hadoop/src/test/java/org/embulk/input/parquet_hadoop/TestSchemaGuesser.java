@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+import org.embulk.spi.type.Type;
+import org.embulk.spi.type.Types;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TestSchemaGuesser
+{
+    @Test
+    public void testPrimitives()
+    {
+        MessageType schema = MessageTypeParser.parseMessageType("message m {"
+                + "  required boolean c_bool;"
+                + "  optional int32 c_int;"
+                + "  optional int64 c_long;"
+                + "  optional float c_float;"
+                + "  optional double c_double;"
+                + "  optional binary c_str (UTF8);"
+                + "  optional binary c_bin;"
+                + "}");
+        List<ColumnConfig> columns = SchemaGuesser.guessColumns(schema);
+
+        assertThat(columns.size(), is(7));
+        assertColumn(columns.get(0), "c_bool", Types.BOOLEAN);
+        assertColumn(columns.get(1), "c_int", Types.LONG);
+        assertColumn(columns.get(2), "c_long", Types.LONG);
+        assertColumn(columns.get(3), "c_float", Types.DOUBLE);
+        assertColumn(columns.get(4), "c_double", Types.DOUBLE);
+        assertColumn(columns.get(5), "c_str", Types.STRING);
+        assertColumn(columns.get(6), "c_bin", Types.STRING);
+    }
+
+    @Test
+    public void testTimestampsAndDecimals()
+    {
+        MessageType schema = MessageTypeParser.parseMessageType("message m {"
+                + "  optional int96 c_int96;"
+                + "  optional int64 c_millis (TIMESTAMP_MILLIS);"
+                + "  optional int32 c_date (DATE);"
+                + "  optional int64 c_decimal (DECIMAL(15,2));"
+                + "  optional fixed_len_byte_array(16) c_wide_decimal (DECIMAL(38,10));"
+                + "}");
+        List<ColumnConfig> columns = SchemaGuesser.guessColumns(schema);
+
+        assertThat(columns.size(), is(5));
+        assertColumn(columns.get(0), "c_int96", Types.TIMESTAMP);
+        assertColumn(columns.get(1), "c_millis", Types.TIMESTAMP);
+        assertColumn(columns.get(2), "c_date", Types.TIMESTAMP);
+        assertColumn(columns.get(3), "c_decimal", Types.DOUBLE);
+        assertColumn(columns.get(4), "c_wide_decimal", Types.STRING);
+    }
+
+    @Test
+    public void testNestedAndUnsupported()
+    {
+        MessageType schema = MessageTypeParser.parseMessageType("message m {"
+                + "  optional group user { optional binary name (UTF8); }"
+                + "  repeated int64 ids;"
+                + "  optional fixed_len_byte_array(4) c_fixed;"
+                + "}");
+        List<ColumnConfig> columns = SchemaGuesser.guessColumns(schema);
+
+        assertThat(columns.size(), is(2));
+        assertColumn(columns.get(0), "user", Types.JSON);
+        assertColumn(columns.get(1), "ids", Types.JSON);
+    }
+
+    private static void assertColumn(ColumnConfig column, String name, Type type)
+    {
+        assertThat(column.getName(), is(name));
+        assertThat(column.getType(), is(type));
+    }
+}
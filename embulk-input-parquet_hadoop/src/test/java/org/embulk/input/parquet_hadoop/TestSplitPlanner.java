@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.embulk.input.parquet_hadoop;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Resources;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigSource;
+import org.embulk.input.parquet_hadoop.ParquetHadoopInputPlugin.PluginTask;
+import org.embulk.spi.Exec;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TestSplitPlanner
+{
+    // 1000 records in 10 row groups
+    private static final String ROW_GROUPS_RESOURCE = "test-data/decode-threads/data.parquet";
+    // c_int of 1 to 3 in part-0.parquet and 4 to 6 in part-1.parquet
+    private static final String PRUNE_FILES_RESOURCE = "test-data/prune-files/data";
+
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    private final Configuration conf = new Configuration();
+
+    @Test
+    public void testSplitRowGroups() throws Exception
+    {
+        PluginTask task = newConfig(ROW_GROUPS_RESOURCE)
+                .set("split_row_groups", true)
+                .set("split_size", 1)
+                .loadConfig(PluginTask.class);
+        FileStatus status = getFileStatus(ROW_GROUPS_RESOURCE);
+        List<ParquetSplit> splits = SplitPlanner.plan(task, conf, Collections.singletonList(status),
+                Optional.<ParquetFilter>absent());
+
+        // a split for each row group
+        assertThat(splits.size(), is(10));
+        assertEachRowGroupOnce(status, splits);
+        assertThat(SplitPlanner.packTasks(task, splits).size(), is(10));
+    }
+
+    @Test
+    public void testSplitRowGroupsBySize() throws Exception
+    {
+        FileStatus status = getFileStatus(ROW_GROUPS_RESOURCE);
+        long rowGroupsSize = 0;
+        for (BlockMetaData block : readBlocks(status)) {
+            rowGroupsSize += block.getCompressedSize();
+        }
+        PluginTask task = newConfig(ROW_GROUPS_RESOURCE)
+                .set("split_row_groups", true)
+                .set("split_size", rowGroupsSize / 3)
+                .loadConfig(PluginTask.class);
+        List<ParquetSplit> splits = SplitPlanner.plan(task, conf, Collections.singletonList(status),
+                Optional.<ParquetFilter>absent());
+
+        // row groups are packed into splits up to split_size, and the rest is in the last split
+        assertThat(splits.size(), is(4));
+        assertEachRowGroupOnce(status, splits);
+    }
+
+    @Test
+    public void testNoSplitRowGroups() throws Exception
+    {
+        PluginTask task = newConfig(ROW_GROUPS_RESOURCE).loadConfig(PluginTask.class);
+        FileStatus status = getFileStatus(ROW_GROUPS_RESOURCE);
+        List<ParquetSplit> splits = SplitPlanner.plan(task, conf, Collections.singletonList(status),
+                Optional.<ParquetFilter>absent());
+
+        assertThat(splits.size(), is(1));
+        assertEachRowGroupOnce(status, splits);
+    }
+
+    @Test
+    public void testPruneFiles() throws Exception
+    {
+        PluginTask task = newConfig(PRUNE_FILES_RESOURCE)
+                .set("prune_files", true)
+                .set("filter", ImmutableMap.of("column", "c_int", "op", ">=", "value", 4))
+                .loadConfig(PluginTask.class);
+        List<FileStatus> statusList = Arrays.asList(
+                getFileStatus(PRUNE_FILES_RESOURCE + "/part-0.parquet"),
+                getFileStatus(PRUNE_FILES_RESOURCE + "/part-1.parquet"));
+        List<ParquetSplit> splits = SplitPlanner.plan(task, conf, statusList, task.getFilter());
+
+        // part-0.parquet is ruled out by statistics
+        assertThat(splits.size(), is(1));
+        assertThat(splits.get(0).getPath(), is(statusList.get(1).getPath().toString()));
+        assertEachRowGroupOnce(statusList.get(1), splits);
+        assertThat(SplitPlanner.packTasks(task, splits).size(), is(1));
+    }
+
+    @Test
+    public void testNoPruneFiles() throws Exception
+    {
+        PluginTask task = newConfig(PRUNE_FILES_RESOURCE)
+                .set("filter", ImmutableMap.of("column", "c_int", "op", ">=", "value", 4))
+                .loadConfig(PluginTask.class);
+        List<FileStatus> statusList = Arrays.asList(
+                getFileStatus(PRUNE_FILES_RESOURCE + "/part-0.parquet"),
+                getFileStatus(PRUNE_FILES_RESOURCE + "/part-1.parquet"));
+        List<ParquetSplit> splits = SplitPlanner.plan(task, conf, statusList, task.getFilter());
+
+        // files are filtered by tasks
+        assertThat(splits.size(), is(2));
+    }
+
+    private ConfigSource newConfig(String resource) throws Exception
+    {
+        return Exec.newConfigSource()
+                .set("path", Resources.getResource(resource).toURI().toString())
+                .set("footer_cache_size", 0);
+    }
+
+    private FileStatus getFileStatus(String resource) throws Exception
+    {
+        Path path = new Path(Resources.getResource(resource).toURI());
+        return FileSystem.getLocal(conf).getFileStatus(path);
+    }
+
+    private List<BlockMetaData> readBlocks(FileStatus status) throws Exception
+    {
+        return ParquetFileReader.readFooter(conf, status.getPath(), ParquetMetadataConverter.NO_FILTER).getBlocks();
+    }
+
+    // splits own all row groups of the file, and a row group is owned by a split
+    private void assertEachRowGroupOnce(FileStatus status, List<ParquetSplit> splits) throws Exception
+    {
+        List<BlockMetaData> blocks = readBlocks(status);
+        List<Long> expected = new ArrayList<>();
+        for (BlockMetaData block : blocks) {
+            expected.add(block.getStartingPos());
+        }
+        List<Long> owned = new ArrayList<>();
+        for (ParquetSplit split : splits) {
+            List<BlockMetaData> selected = split.selectBlocks(blocks);
+            assertThat(split + " owns a row group", selected.isEmpty(), is(false));
+            for (BlockMetaData block : selected) {
+                owned.add(block.getStartingPos());
+            }
+        }
+        assertThat(owned, is(expected));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read;
+
+import jp.co.cyberagent.parquet.msgpack.read.converter.MessagePackBytesRecordMaterializer;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.hadoop.api.InitContext;
+import org.apache.parquet.hadoop.api.ReadSupport;
+import org.apache.parquet.io.api.RecordMaterializer;
+import org.apache.parquet.schema.MessageType;
+import org.msgpack.core.buffer.MessageBuffer;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads records as MessagePack bytes, which are the same as records of {@link MessagePackReadSupport}
+ * packed. A record is valid until the next record is read.
+ */
+public class MessagePackBytesReadSupport extends ReadSupport<MessageBuffer>
+{
+    private final MessagePackReadSupport readSupport;
+
+    public MessagePackBytesReadSupport()
+    {
+        this.readSupport = new MessagePackReadSupport();
+    }
+
+    /**
+     * @param columns dotted paths of fields to read. see {@link SchemaProjection}
+     */
+    public MessagePackBytesReadSupport(List<String> columns)
+    {
+        this.readSupport = new MessagePackReadSupport(columns);
+    }
+
+    /**
+     * @param columns dotted paths of fields to read. see {@link SchemaProjection}
+     * @param extraColumns dotted paths of fields to read but not to include in records
+     */
+    public MessagePackBytesReadSupport(List<String> columns, List<String> extraColumns)
+    {
+        this.readSupport = new MessagePackReadSupport(columns, extraColumns);
+    }
+
+    /**
+     * @see MessagePackReadSupport#setOmitNullFields(boolean)
+     */
+    public void setOmitNullFields(boolean omitNullFields)
+    {
+        readSupport.setOmitNullFields(omitNullFields);
+    }
+
+    @Override
+    public RecordMaterializer<MessageBuffer> prepareForRead(Configuration configuration, Map<String, String> keyValueMetaData, MessageType fileSchema, ReadContext readContext)
+    {
+        return new MessagePackBytesRecordMaterializer(readContext.getRequestedSchema(), readSupport.getProjection(), readSupport.isOmitNullFields());
+    }
+
+    @Override
+    public ReadContext init(InitContext context)
+    {
+        return readSupport.init(context);
+    }
+}
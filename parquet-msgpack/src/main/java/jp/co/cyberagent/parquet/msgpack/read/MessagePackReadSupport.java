@@ -23,19 +23,98 @@ import org.apache.parquet.io.api.RecordMaterializer;
 import org.apache.parquet.schema.MessageType;
 import org.msgpack.value.Value;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public class MessagePackReadSupport extends ReadSupport<Value>
 {
+    private final SchemaProjection projection;
+    private final SchemaProjection readProjection;
+    private boolean omitNullFields = false;
+    private Value[] extraFields = new Value[0];
+
+    public MessagePackReadSupport()
+    {
+        this.projection = null;
+        this.readProjection = null;
+    }
+
+    /**
+     * @param columns dotted paths of fields to read. see {@link SchemaProjection}
+     */
+    public MessagePackReadSupport(List<String> columns)
+    {
+        this(columns, Collections.<String>emptyList());
+    }
+
+    /**
+     * @param columns dotted paths of fields to read. see {@link SchemaProjection}
+     * @param extraColumns dotted paths of fields to read but not to include in records
+     *                     (e.g. columns used by a filter)
+     */
+    public MessagePackReadSupport(List<String> columns, List<String> extraColumns)
+    {
+        List<String> readColumns = new ArrayList<>(columns);
+        readColumns.addAll(extraColumns);
+        this.projection = SchemaProjection.of(columns);
+        this.readProjection = SchemaProjection.of(readColumns);
+    }
+
+    /**
+     * @return fields to include in records, or null to include all fields
+     */
+    SchemaProjection getProjection()
+    {
+        return projection;
+    }
+
+    /**
+     * @param omitNullFields true to exclude null fields from records and nested groups. Otherwise
+     *                       all fields are included and null fields are nil. Repeated fields which
+     *                       are not in a list are empty arrays rather than null.
+     */
+    public void setOmitNullFields(boolean omitNullFields)
+    {
+        this.omitNullFields = omitNullFields;
+    }
+
+    boolean isOmitNullFields()
+    {
+        return omitNullFields;
+    }
+
+    /**
+     * Sets fields added to records of files prepared after this call, e.g. values of partitions
+     * of the next file. The values are built once rather than for each record. A field of the file
+     * with the same name is replaced.
+     *
+     * @param keyValues keys and values of the fields
+     */
+    public void setExtraFields(Value[] keyValues)
+    {
+        this.extraFields = keyValues.clone();
+    }
+
     @Override
     public RecordMaterializer<Value> prepareForRead(Configuration configuration, Map<String, String> keyValueMetaData, MessageType fileSchema, ReadContext readContext)
     {
-        return new MessagePackRecordMaterializer(fileSchema);
+        MessagePackRecordMaterializer materializer = new MessagePackRecordMaterializer(readContext.getRequestedSchema(), projection, omitNullFields);
+        if (extraFields.length > 0) {
+            materializer.setExtraFields(extraFields);
+        }
+        return materializer;
     }
 
     @Override
     public ReadContext init(InitContext context)
     {
-        return new ReadContext(context.getFileSchema());
+        MessageType fileSchema = context.getFileSchema();
+        if (readProjection == null) {
+            return new ReadContext(fileSchema);
+        }
+
+        return new ReadContext(readProjection.project(fileSchema));
     }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read;
+
+import org.apache.parquet.schema.GroupType;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects fields of a Parquet schema.
+ *
+ * A column is specified by a dotted path of field names (e.g. `user.address.city`) and selects the
+ * whole field at the path. Paths missing from a schema are ignored because files may have
+ * different schemas. A `MAP` group is kept as a whole if a path goes into it, since a map can't
+ * lose its key.
+ */
+public class SchemaProjection
+{
+    // null if whole of the field is selected
+    private Map<String, SchemaProjection> children;
+
+    private SchemaProjection()
+    {
+        this.children = new HashMap<>();
+    }
+
+    public static SchemaProjection of(List<String> columns)
+    {
+        SchemaProjection root = new SchemaProjection();
+        for (String column : columns) {
+            SchemaProjection node = root;
+            for (String name : column.split("\\.")) {
+                if (node.isAll()) {
+                    break;
+                }
+                SchemaProjection child = node.children.get(name);
+                if (child == null) {
+                    child = new SchemaProjection();
+                    node.children.put(name, child);
+                }
+                node = child;
+            }
+            node.children = null;
+        }
+        return root;
+    }
+
+    /**
+     * @return true if whole of the field is selected
+     */
+    public boolean isAll()
+    {
+        return children == null;
+    }
+
+    /**
+     * @return projection of a child field, or null if the field is not selected
+     */
+    public SchemaProjection getChild(String name)
+    {
+        return isAll() ? this : children.get(name);
+    }
+
+    /**
+     * @return schema of selected fields. If no field is selected, the first column is selected
+     *         because Parquet doesn't allow an empty schema and needs a column to count records.
+     */
+    public MessageType project(MessageType schema)
+    {
+        List<Type> fields = projectFields(schema);
+        if (fields.isEmpty()) {
+            SchemaProjection first = new SchemaProjection();
+            SchemaProjection node = first;
+            for (String name : schema.getColumns().get(0).getPath()) {
+                SchemaProjection child = new SchemaProjection();
+                node.children.put(name, child);
+                node = child;
+            }
+            node.children = null;
+            fields = first.projectFields(schema);
+        }
+        return new MessageType(schema.getName(), fields);
+    }
+
+    /**
+     * @return selected fields of the group, which may be empty
+     */
+    public List<Type> projectFields(GroupType group)
+    {
+        List<Type> fields = new ArrayList<>();
+        for (Type field : group.getFields()) {
+            SchemaProjection child = getChild(field.getName());
+            if (child == null) {
+                continue;
+            }
+            if (child.isAll() || isMap(field)) {
+                fields.add(field);
+            }
+            else if (!field.isPrimitive()) {
+                List<Type> subFields = child.projectFields(field.asGroupType());
+                if (!subFields.isEmpty()) {
+                    fields.add(field.asGroupType().withNewFields(subFields));
+                }
+            }
+        }
+        return fields;
+    }
+
+    private static boolean isMap(Type field)
+    {
+        return field.getOriginalType() == OriginalType.MAP || field.getOriginalType() == OriginalType.MAP_KEY_VALUE;
+    }
+}
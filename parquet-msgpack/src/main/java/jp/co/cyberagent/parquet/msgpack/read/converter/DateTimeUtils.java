@@ -17,6 +17,11 @@
  */
 package jp.co.cyberagent.parquet.msgpack.read.converter;
 
+import org.apache.parquet.io.api.Binary;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public abstract class DateTimeUtils
 {
     // see http://stackoverflow.com/questions/466321/convert-unix-timestamp-to-julian
@@ -31,4 +36,22 @@ public abstract class DateTimeUtils
         long seconds = (long) (day - JULIAN_DAY_OF_EPOCH) * SECONDS_PER_DAY;
         return seconds * MICROS_PER_SECOND + nanoseconds / 1000L;
     }
+
+    /**
+     * Converts an INT96 timestamp of Impala and Hive into microseconds since the epoch.
+     */
+    public static long fromInt96(Binary value)
+    {
+        if (value.length() != 12) {
+            throw new AssertionError(
+                    "Timestamps (with nanoseconds) are expected to be stored in 12-byte long binaries, " +
+                    "but got a " + String.valueOf(value.length()) + "-byte binary.");
+        }
+
+        ByteBuffer buf = value.toByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        long timeOfDayNanos = buf.getLong();
+        int julianDays = buf.getInt();
+
+        return fromJulianDay(julianDays, timeOfDayNanos);
+    }
 }
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read.converter;
+
+import org.apache.parquet.column.Dictionary;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.PrimitiveType;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Converted dictionaries shared by converters in the JVM.
+ *
+ * Column chunks written by the same job often have the same dictionary. A dictionary is looked up
+ * by the hash of its entries and the way its values are converted, and entries of a dictionary
+ * found by the hash are compared with the given one before it's reused. The least recently used
+ * dictionaries are evicted when the estimated bytes of cached dictionaries and their values exceed
+ * the memory limit. Dictionaries larger than a quarter of the limit are not cached.
+ *
+ * Looking up a dictionary hashes all of its entries, and a dictionary found by the hash is
+ * compared entry by entry, so each row group costs a pass over its dictionaries proportional to
+ * their sizes even if they are cached. It's a trade-off against converting values lazily by
+ * {@link LazyDictionary}: the pass decodes entries without converting them to values, and values
+ * converted for earlier row groups and files are reused.
+ *
+ * The limit is fixed to {@link #DEFAULT_MEMORY_LIMIT} (64 MiB) for the JVM, which is shared by
+ * tasks of all jobs in it. Evicted dictionaries are converted again when they are used.
+ */
+final class DictionaryCache
+{
+    static final long DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+    private static final DictionaryCache INSTANCE = new DictionaryCache(DEFAULT_MEMORY_LIMIT);
+
+    private final long memoryLimit;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes = 0;
+
+    DictionaryCache(long memoryLimit)
+    {
+        this.memoryLimit = memoryLimit;
+    }
+
+    static DictionaryCache getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @param conversion identifies how values of the dictionary are converted. It must implement
+     *                   equals and hashCode
+     * @return converted values of the dictionary, which may be shared with other converters
+     */
+    LazyDictionary get(Dictionary dictionary, PrimitiveType.PrimitiveTypeName typeName, Object conversion)
+    {
+        long maxBytes = memoryLimit / 4;
+        Hash hash = hash(dictionary, typeName, maxBytes);
+        if (hash == null) {
+            return new LazyDictionary(dictionary);
+        }
+
+        Key key = new Key(conversion, typeName, dictionary.getMaxId(), hash.value);
+        synchronized (this) {
+            Entry cached = entries.get(key);
+            if (cached != null) {
+                if (sameEntries(cached.dictionary.getDictionary(), dictionary, typeName)) {
+                    return cached.dictionary;
+                }
+                // a hash collision. the cached one is kept
+                return new LazyDictionary(dictionary);
+            }
+        }
+
+        // the dictionary itself is kept as well as its values
+        long values = Math.min(LazyDictionary.DEFAULT_MEMORY_LIMIT,
+                (dictionary.getMaxId() + 1L) * LazyDictionary.VALUE_BYTES + hash.bytes);
+        Entry converted = new Entry(new LazyDictionary(dictionary), hash.bytes + values);
+        synchronized (this) {
+            if (entries.containsKey(key)) {
+                return converted.dictionary;
+            }
+            entries.put(key, converted);
+            usedBytes += converted.size;
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (usedBytes > memoryLimit && eldest.hasNext()) {
+                usedBytes -= eldest.next().size;
+                eldest.remove();
+            }
+        }
+        return converted.dictionary;
+    }
+
+    /**
+     * @return the number of cached dictionaries
+     */
+    synchronized int size()
+    {
+        return entries.size();
+    }
+
+    private static final class Entry
+    {
+        private final LazyDictionary dictionary;
+        private final long size;
+
+        Entry(LazyDictionary dictionary, long size)
+        {
+            this.dictionary = dictionary;
+            this.size = size;
+        }
+    }
+
+    private static final class Hash
+    {
+        private final long value;
+        private final long bytes;
+
+        Hash(long value, long bytes)
+        {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    // returns null if estimated bytes of entries exceed maxBytes
+    private static Hash hash(Dictionary dictionary, PrimitiveType.PrimitiveTypeName typeName, long maxBytes)
+    {
+        long h = 0;
+        long bytes = 0;
+        for (int id = 0; id <= dictionary.getMaxId(); id++) {
+            switch (typeName) {
+                case BOOLEAN:
+                    h = mix(h, dictionary.decodeToBoolean(id) ? 1 : 0);
+                    bytes += 8;
+                    break;
+                case INT32:
+                    h = mix(h, dictionary.decodeToInt(id));
+                    bytes += 8;
+                    break;
+                case INT64:
+                    h = mix(h, dictionary.decodeToLong(id));
+                    bytes += 8;
+                    break;
+                case FLOAT:
+                    h = mix(h, Float.floatToIntBits(dictionary.decodeToFloat(id)));
+                    bytes += 8;
+                    break;
+                case DOUBLE:
+                    h = mix(h, Double.doubleToLongBits(dictionary.decodeToDouble(id)));
+                    bytes += 8;
+                    break;
+                default:
+                    Binary value = dictionary.decodeToBinary(id);
+                    ByteBuffer buffer = value.toByteBuffer();
+                    h = mix(h, buffer.remaining());
+                    for (int i = buffer.position(); i < buffer.limit(); i++) {
+                        h = h * 31 + buffer.get(i);
+                    }
+                    bytes += LazyDictionary.VALUE_BYTES + value.length();
+                    break;
+            }
+            if (bytes > maxBytes) {
+                return null;
+            }
+        }
+        return new Hash(h, bytes);
+    }
+
+    private static long mix(long h, long value)
+    {
+        h ^= value;
+        h *= 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 32);
+    }
+
+    private static boolean sameEntries(Dictionary a, Dictionary b, PrimitiveType.PrimitiveTypeName typeName)
+    {
+        if (a == b) {
+            return true;
+        }
+        if (a.getMaxId() != b.getMaxId()) {
+            return false;
+        }
+        for (int id = 0; id <= a.getMaxId(); id++) {
+            boolean same;
+            switch (typeName) {
+                case BOOLEAN:
+                    same = a.decodeToBoolean(id) == b.decodeToBoolean(id);
+                    break;
+                case INT32:
+                    same = a.decodeToInt(id) == b.decodeToInt(id);
+                    break;
+                case INT64:
+                    same = a.decodeToLong(id) == b.decodeToLong(id);
+                    break;
+                case FLOAT:
+                    same = Float.floatToIntBits(a.decodeToFloat(id)) == Float.floatToIntBits(b.decodeToFloat(id));
+                    break;
+                case DOUBLE:
+                    same = Double.doubleToLongBits(a.decodeToDouble(id)) == Double.doubleToLongBits(b.decodeToDouble(id));
+                    break;
+                default:
+                    same = a.decodeToBinary(id).equals(b.decodeToBinary(id));
+                    break;
+            }
+            if (!same) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Key
+    {
+        private final Object conversion;
+        private final PrimitiveType.PrimitiveTypeName typeName;
+        private final int maxId;
+        private final long hash;
+
+        Key(Object conversion, PrimitiveType.PrimitiveTypeName typeName, int maxId, long hash)
+        {
+            this.conversion = conversion;
+            this.typeName = typeName;
+            this.maxId = maxId;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return conversion.equals(other.conversion) && typeName == other.typeName
+                    && maxId == other.maxId && hash == other.hash;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return ((conversion.hashCode() * 31 + typeName.hashCode()) * 31 + maxId) * 31 + (int) (hash ^ (hash >>> 32));
+        }
+    }
+}
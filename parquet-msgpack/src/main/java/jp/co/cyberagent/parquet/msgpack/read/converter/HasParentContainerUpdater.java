@@ -17,7 +17,7 @@
  */
 package jp.co.cyberagent.parquet.msgpack.read.converter;
 
-interface HasParentContainerUpdater
+public interface HasParentContainerUpdater
 {
     ParentContainerUpdater getUpdater();
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read.converter;
+
+import org.apache.parquet.column.Dictionary;
+import org.msgpack.value.Value;
+
+/**
+ * Values of a dictionary converted on first use of each id.
+ *
+ * Converted values are kept in chunks of ids, which are allocated when an id of the chunk is used
+ * first, as long as the estimated size of kept values and chunks is within the memory limit.
+ * Values which don't fit are converted again on each use.
+ *
+ * The limit is fixed to {@link #DEFAULT_MEMORY_LIMIT} (8 MiB) for each dictionary. Parquet-mr
+ * falls back from dictionary encoding when a dictionary page exceeds 1 MiB by default, so the
+ * limit keeps most dictionaries whole, and exceeding it costs conversions rather than failing.
+ *
+ * A dictionary may be shared by converters of different threads (see {@link DictionaryCache}), so
+ * values are converted by the {@link Conversion} of the caller and kept under a lock. Values are
+ * immutable and read without the lock.
+ */
+final class LazyDictionary
+{
+    interface Conversion
+    {
+        Value convert(Dictionary dictionary, int id);
+
+        /**
+         * @return estimated bytes of the converted value of the id
+         */
+        long estimateSize(Dictionary dictionary, int id);
+    }
+
+    static final long DEFAULT_MEMORY_LIMIT = 8L * 1024 * 1024;
+
+    static final long VALUE_BYTES = 32;
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final long CHUNK_BYTES = 16 + 8L * CHUNK_SIZE;
+
+    private final Dictionary dictionary;
+    private final Value[][] chunks;
+    private final long memoryLimit;
+    private long usedBytes = 0;
+
+    LazyDictionary(Dictionary dictionary)
+    {
+        this(dictionary, DEFAULT_MEMORY_LIMIT);
+    }
+
+    LazyDictionary(Dictionary dictionary, long memoryLimit)
+    {
+        this.dictionary = dictionary;
+        this.chunks = new Value[(dictionary.getMaxId() >>> CHUNK_BITS) + 1][];
+        this.memoryLimit = memoryLimit;
+    }
+
+    Dictionary getDictionary()
+    {
+        return dictionary;
+    }
+
+    /**
+     * @param conversion converts the value if it's not kept
+     */
+    Value get(int id, Conversion conversion)
+    {
+        Value[] chunk = chunks[id >>> CHUNK_BITS];
+        if (chunk != null) {
+            Value value = chunk[id & CHUNK_MASK];
+            if (value != null) {
+                return value;
+            }
+        }
+
+        Value value = conversion.convert(dictionary, id);
+        keep(id, value, conversion.estimateSize(dictionary, id));
+        return value;
+    }
+
+    private synchronized void keep(int id, Value value, long size)
+    {
+        Value[] chunk = chunks[id >>> CHUNK_BITS];
+        if (chunk == null) {
+            if (usedBytes + CHUNK_BYTES + size > memoryLimit) {
+                return;
+            }
+            chunk = new Value[CHUNK_SIZE];
+            chunks[id >>> CHUNK_BITS] = chunk;
+            usedBytes += CHUNK_BYTES;
+        }
+        else if (chunk[id & CHUNK_MASK] != null || usedBytes + size > memoryLimit) {
+            return;
+        }
+        chunk[id & CHUNK_MASK] = value;
+        usedBytes += size;
+    }
+
+    /**
+     * @return estimated bytes of kept values and chunks
+     */
+    synchronized long getUsedBytes()
+    {
+        return usedBytes;
+    }
+}
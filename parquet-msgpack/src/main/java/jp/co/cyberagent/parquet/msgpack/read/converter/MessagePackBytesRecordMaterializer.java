@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read.converter;
+
+import jp.co.cyberagent.parquet.msgpack.read.SchemaProjection;
+import org.apache.parquet.io.api.GroupConverter;
+import org.apache.parquet.io.api.RecordMaterializer;
+import org.apache.parquet.schema.MessageType;
+import org.msgpack.core.buffer.MessageBuffer;
+
+/**
+ * Materializes records as MessagePack bytes in the same format as {@link MessagePackRecordMaterializer}.
+ *
+ * A record is packed into a buffer reused for all records, so the returned {@link MessageBuffer}
+ * is valid until the next record is read.
+ */
+public class MessagePackBytesRecordMaterializer extends RecordMaterializer<MessageBuffer>
+{
+    private final RecordPacker packer = new RecordPacker();
+    private final ParquetPackingConverter root;
+
+    public MessagePackBytesRecordMaterializer(MessageType schema)
+    {
+        this(schema, null);
+    }
+
+    /**
+     * @param projection fields to include in records, or null to include all fields of the schema
+     */
+    public MessagePackBytesRecordMaterializer(MessageType schema, SchemaProjection projection)
+    {
+        this(schema, projection, false);
+    }
+
+    /**
+     * @param projection fields to include in records, or null to include all fields of the schema
+     * @param omitNullFields true to exclude null fields from maps of records and nested groups
+     */
+    public MessagePackBytesRecordMaterializer(MessageType schema, SchemaProjection projection, boolean omitNullFields)
+    {
+        this.root = new ParquetPackingConverter(packer, schema, projection, omitNullFields, new ParquetPackingConverter.Slot()
+        {
+            @Override
+            void begin()
+            {
+                packer.clear();
+            }
+        });
+    }
+
+    @Override
+    public MessageBuffer getCurrentRecord()
+    {
+        return packer.toMessageBuffer();
+    }
+
+    @Override
+    public GroupConverter getRootConverter()
+    {
+        return root;
+    }
+}
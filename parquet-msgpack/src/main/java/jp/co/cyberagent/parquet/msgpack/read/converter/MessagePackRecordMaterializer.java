@@ -15,6 +15,7 @@
  */
 package jp.co.cyberagent.parquet.msgpack.read.converter;
 
+import jp.co.cyberagent.parquet.msgpack.read.SchemaProjection;
 import org.apache.parquet.io.api.GroupConverter;
 import org.apache.parquet.io.api.RecordMaterializer;
 import org.apache.parquet.schema.MessageType;
@@ -26,7 +27,35 @@ public class MessagePackRecordMaterializer extends RecordMaterializer<Value>
 
     public MessagePackRecordMaterializer(MessageType schema)
     {
-        this.root = new ParquetValueConverter(schema, new ParentContainerUpdater.Noop());
+        this(schema, null);
+    }
+
+    /**
+     * @param projection fields to include in records, or null to include all fields of the schema
+     */
+    public MessagePackRecordMaterializer(MessageType schema, SchemaProjection projection)
+    {
+        this(schema, projection, false);
+    }
+
+    /**
+     * @param projection fields to include in records, or null to include all fields of the schema
+     * @param omitNullFields true to exclude null fields from maps of records and nested groups
+     */
+    public MessagePackRecordMaterializer(MessageType schema, SchemaProjection projection, boolean omitNullFields)
+    {
+        this.root = new ParquetValueConverter(schema, projection, omitNullFields, new ParentContainerUpdater.Noop());
+    }
+
+    /**
+     * Adds fields of constant values to all following records. A field of the file with the same
+     * name is replaced.
+     *
+     * @param keyValues keys and values of the fields
+     */
+    public void setExtraFields(Value[] keyValues)
+    {
+        root.setExtraFields(keyValues);
     }
 
     @Override
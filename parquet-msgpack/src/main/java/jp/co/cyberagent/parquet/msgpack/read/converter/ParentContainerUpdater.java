@@ -26,7 +26,7 @@ import org.msgpack.value.ValueFactory;
  * converted values to a [[{@link org.msgpack.value.ImmutableMapValue}]]; or a converter for array
  * elements may append converted values to an [[ArrayList]].
  */
-interface ParentContainerUpdater
+public interface ParentContainerUpdater
 {
     /** Called before a record field is being converted */
     void start();
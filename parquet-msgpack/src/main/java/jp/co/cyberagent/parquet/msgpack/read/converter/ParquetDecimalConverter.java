@@ -19,6 +19,7 @@ package jp.co.cyberagent.parquet.msgpack.read.converter;
 
 import org.apache.parquet.column.Dictionary;
 import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.PrimitiveType;
 import org.msgpack.value.Value;
 import org.msgpack.value.ValueFactory;
 
@@ -27,22 +28,35 @@ import java.math.BigInteger;
 import java.math.MathContext;
 import java.math.RoundingMode;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Parquet converter for fixed-precision decimals.
  */
 abstract class ParquetDecimalConverter extends ParquetPrimitiveConverter
 {
-    private final int precision;
     private final int scale;
     private final MathContext mc;
 
-    protected Value[] expandedDictionary = null;
+    private LazyDictionary expandedDictionary = null;
+    private final LazyDictionary.Conversion dictionaryConversion = new LazyDictionary.Conversion()
+    {
+        @Override
+        public Value convert(Dictionary dictionary, int id)
+        {
+            return decimalFromDictionary(dictionary, id);
+        }
+
+        @Override
+        public long estimateSize(Dictionary dictionary, int id)
+        {
+            return LazyDictionary.VALUE_BYTES;
+        }
+    };
 
     ParquetDecimalConverter(int precision, int scale, ParentContainerUpdater updater)
     {
         super(updater);
-        this.precision = precision;
         this.scale = scale;
         this.mc = new MathContext(precision, RoundingMode.UNNECESSARY);
     }
@@ -56,9 +70,19 @@ abstract class ParquetDecimalConverter extends ParquetPrimitiveConverter
     @Override
     public void addValueFromDictionary(int dictionaryId)
     {
-        getUpdater().set(expandedDictionary[dictionaryId]);
+        getUpdater().set(expandedDictionary.get(dictionaryId, dictionaryConversion));
     }
 
+    protected void setDictionary(Dictionary dictionary, PrimitiveType.PrimitiveTypeName typeName)
+    {
+        // converted values depend on the precision and the scale
+        Object conversion = Arrays.<Object>asList(getClass(), mc.getPrecision(), scale);
+        expandedDictionary = DictionaryCache.getInstance().get(dictionary, typeName, conversion);
+    }
+
+    // called by converters of different threads if the dictionary is shared
+    protected abstract Value decimalFromDictionary(Dictionary dictionary, int id);
+
     // Converts decimals stored as INT32
     @Override
     public void addInt(int value)
@@ -83,13 +107,30 @@ abstract class ParquetDecimalConverter extends ParquetPrimitiveConverter
     protected Value decimalFromLong(long value)
     {
         // TODO: support string conversion
-        return ValueFactory.newFloat(new BigDecimal(value, mc).movePointLeft(scale).doubleValue());
+        return ValueFactory.newFloat(doubleFromLong(value, mc, scale));
     }
 
     protected Value decimalFromBinary(Binary value)
+    {
+        // TODO: support string conversion
+        return ValueFactory.newFloat(doubleFromBinary(value, mc, scale));
+    }
+
+    /**
+     * @param mc the precision of the decimal type without rounding
+     */
+    static double doubleFromLong(long value, MathContext mc, int scale)
+    {
+        return new BigDecimal(value, mc).movePointLeft(scale).doubleValue();
+    }
+
+    /**
+     * @param mc the precision of the decimal type without rounding
+     */
+    static double doubleFromBinary(Binary value, MathContext mc, int scale)
     {
         BigDecimal decimal;
-        if (precision < DecimalType.MAX_LONG_DIGITS) {
+        if (mc.getPrecision() < DecimalType.MAX_LONG_DIGITS) {
             // Constructs a `Decimal` with an unscaled `Long` value if possible.
             long unscaled = binaryToUnscaledLong(value);
             decimal = new BigDecimal(unscaled, mc).movePointLeft(scale);
@@ -98,8 +139,7 @@ abstract class ParquetDecimalConverter extends ParquetPrimitiveConverter
             // Otherwise, resorts to an unscaled `BigInteger` instead.
             decimal = new BigDecimal(new BigInteger(value.getBytes()), scale);
         }
-        // TODO: support string conversion
-        return ValueFactory.newFloat(decimal.doubleValue());
+        return decimal.doubleValue();
     }
 
     private static long binaryToUnscaledLong(Binary binary)
@@ -135,10 +175,13 @@ abstract class ParquetDecimalConverter extends ParquetPrimitiveConverter
         @Override
         public void setDictionary(Dictionary dictionary)
         {
-            expandedDictionary = new Value[dictionary.getMaxId() + 1];
-            for (int id = 0; id <= dictionary.getMaxId(); id++) {
-                expandedDictionary[id] = decimalFromLong(dictionary.decodeToInt(id));
-            }
+            setDictionary(dictionary, PrimitiveType.PrimitiveTypeName.INT32);
+        }
+
+        @Override
+        protected Value decimalFromDictionary(Dictionary dictionary, int id)
+        {
+            return decimalFromLong(dictionary.decodeToInt(id));
         }
     }
 
@@ -152,10 +195,13 @@ abstract class ParquetDecimalConverter extends ParquetPrimitiveConverter
         @Override
         public void setDictionary(Dictionary dictionary)
         {
-            expandedDictionary = new Value[dictionary.getMaxId() + 1];
-            for (int id = 0; id <= dictionary.getMaxId(); id++) {
-                expandedDictionary[id] = decimalFromLong(dictionary.decodeToLong(id));
-            }
+            setDictionary(dictionary, PrimitiveType.PrimitiveTypeName.INT64);
+        }
+
+        @Override
+        protected Value decimalFromDictionary(Dictionary dictionary, int id)
+        {
+            return decimalFromLong(dictionary.decodeToLong(id));
         }
     }
 
@@ -169,10 +215,13 @@ abstract class ParquetDecimalConverter extends ParquetPrimitiveConverter
         @Override
         public void setDictionary(Dictionary dictionary)
         {
-            expandedDictionary = new Value[dictionary.getMaxId() + 1];
-            for (int id = 0; id <= dictionary.getMaxId(); id++) {
-                expandedDictionary[id] = decimalFromBinary(dictionary.decodeToBinary(id));
-            }
+            setDictionary(dictionary, PrimitiveType.PrimitiveTypeName.BINARY);
+        }
+
+        @Override
+        protected Value decimalFromDictionary(Dictionary dictionary, int id)
+        {
+            return decimalFromBinary(dictionary.decodeToBinary(id));
         }
     }
 }
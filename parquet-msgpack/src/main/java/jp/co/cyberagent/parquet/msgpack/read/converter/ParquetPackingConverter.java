@@ -0,0 +1,789 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read.converter;
+
+import jp.co.cyberagent.parquet.msgpack.read.SchemaProjection;
+import org.apache.parquet.column.Dictionary;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.Converter;
+import org.apache.parquet.io.api.GroupConverter;
+import org.apache.parquet.io.api.PrimitiveConverter;
+import org.apache.parquet.schema.GroupType;
+import org.apache.parquet.schema.OriginalType;
+import org.apache.parquet.schema.PrimitiveType;
+import org.apache.parquet.schema.Type;
+
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import static jp.co.cyberagent.parquet.msgpack.read.converter.ParquetValueConverter.checkConversionRequirement;
+import static jp.co.cyberagent.parquet.msgpack.read.converter.ParquetValueConverter.isElementType;
+import static jp.co.cyberagent.parquet.msgpack.read.converter.ParquetValueConverter.newDiscardingConverter;
+
+/**
+ * Converts Parquet records into MessagePack bytes in the same format as {@link ParquetValueConverter}
+ * without building {@link org.msgpack.value.Value}s.
+ *
+ * Values are packed by {@link RecordPacker} in the order the record reader converts them. Fields of
+ * a group are packed in the order of the schema, and missing fields are packed as nil (or an empty
+ * array for unannotated repeated fields) when the next field is converted. Headers of lists and
+ * maps are put at bytes reserved by {@link RecordPacker#reserveHeader()} when they end. If null
+ * fields are omitted, missing fields other than repeated ones are skipped and the header of the
+ * map of a group is put when it ends as well.
+ */
+class ParquetPackingConverter extends GroupConverter
+{
+    /**
+     * The place of a value in its parent.
+     */
+    abstract static class Slot
+    {
+        /**
+         * Called before a value is packed.
+         */
+        abstract void begin();
+    }
+
+    private final RecordPacker packer;
+    private final Slot slot;
+    private final Converter[] fieldConverters;
+    // packed names and kinds of fields included in the map of a group
+    private final byte[][] keys;
+    private final boolean[] repeated;
+    private final boolean omitNullFields;
+    // the first repeated field at or after each key, to skip other missing fields if null fields are omitted
+    private final int[] nextRepeated;
+
+    private int nextField;
+    private int openField;
+    private int openStart;
+    private int openCount;
+    private int mapStart;
+    private int mapSize;
+
+    // TODO: make configurable
+    private boolean assumeBinaryIsString = false;
+    private boolean assumeInt96IsTimestamp = true;
+
+    /**
+     * @param projection fields to include in values, or null to include all fields of the schema.
+     *                   Other fields are read but discarded.
+     * @param omitNullFields true to exclude null fields from maps of groups instead of packing nil
+     */
+    ParquetPackingConverter(RecordPacker packer, GroupType schema, SchemaProjection projection, boolean omitNullFields, Slot slot)
+    {
+        this.packer = packer;
+        this.slot = slot;
+        this.omitNullFields = omitNullFields;
+
+        List<Type> fields = new ArrayList<>();
+        for (Type field : schema.getFields()) {
+            if (projection == null || projection.getChild(field.getName()) != null) {
+                fields.add(field);
+            }
+        }
+        this.keys = new byte[fields.size()][];
+        this.repeated = new boolean[fields.size()];
+        RecordPacker keyPacker = new RecordPacker();
+        for (int i = 0; i < keys.length; i++) {
+            keyPacker.clear();
+            keyPacker.packString(Binary.fromString(fields.get(i).getName()));
+            keys[i] = keyPacker.toByteArray();
+            repeated[i] = isRepeatedField(fields.get(i));
+        }
+        this.nextRepeated = new int[keys.length + 1];
+        nextRepeated[keys.length] = keys.length;
+        for (int key = keys.length - 1; key >= 0; key--) {
+            nextRepeated[key] = repeated[key] ? key : nextRepeated[key + 1];
+        }
+
+        this.fieldConverters = new Converter[schema.getFieldCount()];
+        int i = 0;
+        int mapIndex = 0;
+        for (Type field : schema.getFields()) {
+            SchemaProjection child = projection == null ? null : projection.getChild(field.getName());
+            if (projection != null && child == null) {
+                fieldConverters[i++] = newDiscardingConverter(field);
+                continue;
+            }
+            int key = mapIndex++;
+            if (child != null && !child.isAll() && !field.isPrimitive() && field.getOriginalType() == null
+                    && !field.isRepetition(Type.Repetition.REPEATED)) {
+                fieldConverters[i++] = new ParquetPackingConverter(packer, field.asGroupType(), child, omitNullFields, new FieldSlot(key));
+            }
+            else if (repeated[key]) {
+                fieldConverters[i++] = newConverter(field, new RepeatedFieldSlot(key));
+            }
+            else {
+                fieldConverters[i++] = newConverter(field, new FieldSlot(key));
+            }
+        }
+    }
+
+    // A repeated field that is neither contained by a `LIST`- or `MAP`-annotated group nor annotated
+    // by `LIST` or `MAP` is a required list of required elements. See ParquetValueConverter.
+    private static boolean isRepeatedField(Type field)
+    {
+        return field.isRepetition(Type.Repetition.REPEATED) && field.getOriginalType() != OriginalType.LIST;
+    }
+
+    @Override
+    public Converter getConverter(int fieldIndex)
+    {
+        return fieldConverters[fieldIndex];
+    }
+
+    @Override
+    public void start()
+    {
+        slot.begin();
+        if (omitNullFields) {
+            mapStart = packer.reserveHeader();
+            mapSize = 0;
+        }
+        else {
+            packer.packMapHeader(keys.length);
+        }
+        nextField = 0;
+        openField = -1;
+    }
+
+    @Override
+    public void end()
+    {
+        moveTo(keys.length);
+        if (omitNullFields) {
+            packer.putMapHeader(mapStart, mapSize);
+        }
+    }
+
+    // closes the open repeated field and packs fields missing before the key
+    private void moveTo(int key)
+    {
+        if (openField >= 0) {
+            packer.putArrayHeader(openStart, openCount);
+            openField = -1;
+        }
+        if (omitNullFields) {
+            for (int k = nextRepeated[nextField]; k < key; k = nextRepeated[k + 1]) {
+                packer.writePayload(keys[k], 0, keys[k].length);
+                packer.packArrayHeader(0);
+                mapSize++;
+            }
+            nextField = Math.max(nextField, key);
+            return;
+        }
+        for (; nextField < key; nextField++) {
+            packer.writePayload(keys[nextField], 0, keys[nextField].length);
+            if (repeated[nextField]) {
+                packer.packArrayHeader(0);
+            }
+            else {
+                packer.packNil();
+            }
+        }
+    }
+
+    private void beginField(int key)
+    {
+        moveTo(key);
+        packer.writePayload(keys[key], 0, keys[key].length);
+        nextField = key + 1;
+        mapSize++;
+    }
+
+    private final class FieldSlot extends Slot
+    {
+        private final int key;
+
+        FieldSlot(int key)
+        {
+            this.key = key;
+        }
+
+        @Override
+        void begin()
+        {
+            beginField(key);
+        }
+    }
+
+    // elements of a repeated field are contiguous in a record
+    private final class RepeatedFieldSlot extends Slot
+    {
+        private final int key;
+
+        RepeatedFieldSlot(int key)
+        {
+            this.key = key;
+        }
+
+        @Override
+        void begin()
+        {
+            if (openField != key) {
+                beginField(key);
+                openField = key;
+                openStart = packer.reserveHeader();
+                openCount = 0;
+            }
+            openCount++;
+        }
+    }
+
+    private Converter newConverter(Type parquetType, Slot slot)
+    {
+        if (parquetType.isPrimitive()) {
+            return newConverterForPrimitiveField(parquetType.asPrimitiveType(), slot);
+        }
+        else {
+            return newConverterForGroupField(parquetType.asGroupType(), slot);
+        }
+    }
+
+    private Converter newConverterForPrimitiveField(PrimitiveType field, Slot slot)
+    {
+        PrimitiveType.PrimitiveTypeName typeName = field.getPrimitiveTypeName();
+        OriginalType originalType = field.getOriginalType();
+        String typeString = (originalType == null ? String.valueOf(typeName) : String.format("%s (%s)", typeName, originalType));
+
+        switch (typeName) {
+            case BOOLEAN:
+            case FLOAT:
+            case DOUBLE:
+                return new PrimitivePackingConverter(typeName, slot);
+
+            case INT32:
+                if (originalType == null) {
+                    return new PrimitivePackingConverter(typeName, slot);
+                }
+                else {
+                    switch (originalType) {
+                        case INT_8:
+                        case INT_16:
+                        case INT_32:
+                        case DATE:
+                            return new PrimitivePackingConverter(typeName, slot);
+                        case DECIMAL:
+                            DecimalType decimal = DecimalType.create(field, DecimalType.MAX_INT_DIGITS);
+                            return new DecimalPackingConverter(typeName, decimal, slot);
+                        case UINT_8:
+                        case UINT_16:
+                        case UINT_32:
+                            throw new ParquetSchemaException("Parquet type not supported: " + typeString);
+                        case TIME_MILLIS:
+                            throw new ParquetSchemaException("Parquet type not yet supported: " + typeString);
+                        default:
+                            throw new ParquetSchemaException("Illegal Parquet type: " + typeString);
+                    }
+                }
+
+            case INT64:
+                if (originalType == null) {
+                    return new PrimitivePackingConverter(typeName, slot);
+                }
+                else {
+                    switch (originalType) {
+                        case INT_64:
+                            return new PrimitivePackingConverter(typeName, slot);
+                        case DECIMAL:
+                            DecimalType decimal = DecimalType.create(field, DecimalType.MAX_LONG_DIGITS);
+                            return new DecimalPackingConverter(typeName, decimal, slot);
+                        case UINT_64:
+                            throw new ParquetSchemaException("Parquet type not supported: " + typeString);
+                        case TIMESTAMP_MILLIS:
+                            throw new ParquetSchemaException("Parquet type not yet supported: " + typeString);
+                        default:
+                            throw new ParquetSchemaException("Illegal Parquet type: " + typeString);
+                    }
+                }
+
+            case INT96:
+                checkConversionRequirement(
+                        assumeInt96IsTimestamp,
+                        "INT96 is not supported unless it's interpreted as timestamp. " +
+                                "Please try to set assumeInt96IsTimestamp to true.");
+                return new PrimitivePackingConverter(typeName, slot) {
+                    @Override
+                    void pack(RecordPacker packer, Binary value)
+                    {
+                        packer.packLong(DateTimeUtils.fromInt96(value));
+                    }
+                };
+
+            case BINARY:
+                if (originalType == null) {
+                    if (assumeBinaryIsString) {
+                        return new StringPackingConverter(slot);
+                    }
+                    else {
+                        return new PrimitivePackingConverter(typeName, slot);
+                    }
+                }
+                else {
+                    switch (originalType) {
+                        case UTF8:
+                        case ENUM:
+                        case JSON:
+                            return new StringPackingConverter(slot);
+                        case BSON:
+                            return new PrimitivePackingConverter(typeName, slot);
+                        case DECIMAL:
+                            DecimalType decimal = DecimalType.create(field);
+                            return new DecimalPackingConverter(typeName, decimal, slot);
+                        default:
+                            throw new ParquetSchemaException("Illegal Parquet type: " + typeString);
+                    }
+                }
+
+            case FIXED_LEN_BYTE_ARRAY:
+                if (originalType == null) {
+                    throw new ParquetSchemaException("Illegal Parquet type: " + typeString);
+                }
+                else {
+                    switch (originalType) {
+                        case DECIMAL:
+                            DecimalType decimal = DecimalType.create(field);
+                            return new DecimalPackingConverter(typeName, decimal, slot);
+                        case INTERVAL:
+                            throw new ParquetSchemaException("Parquet type not yet supported: " + typeString);
+                        default:
+                            throw new ParquetSchemaException("Illegal Parquet type: " + typeString);
+                    }
+                }
+
+            default:
+                throw new ParquetSchemaException("Illegal Parquet type: " + typeString);
+        }
+    }
+
+    private Converter newConverterForGroupField(GroupType field, Slot slot)
+    {
+        OriginalType originalType = field.getOriginalType();
+        if (originalType == null) {
+            return new ParquetPackingConverter(packer, field, null, omitNullFields, slot);
+        }
+        else {
+            switch (originalType) {
+                // See ParquetValueConverter for 2-level and 3-level structures of lists.
+                case LIST:
+                    checkConversionRequirement(field.getFieldCount() == 1,
+                            "Invalid list type %s", field);
+
+                    Type repeatedType = field.getType(0);
+                    checkConversionRequirement(repeatedType.isRepetition(Type.Repetition.REPEATED),
+                            "Invalid list type %s", field);
+
+                    return new ArrayPackingConverter(field, slot);
+
+                case MAP:
+                case MAP_KEY_VALUE:
+                    checkConversionRequirement(
+                            field.getFieldCount() == 1 && !field.getType(0).isPrimitive(),
+                            "Invalid map type: %s", field);
+
+                    GroupType keyValueType = field.getType(0).asGroupType();
+                    checkConversionRequirement(
+                            keyValueType.isRepetition(Type.Repetition.REPEATED) && keyValueType.getFieldCount() == 2,
+                            "Invalid map type: %s", field);
+
+                    Type keyType = keyValueType.getType(0);
+                    checkConversionRequirement(
+                            keyType.isPrimitive(),
+                            "Map key type is expected to be a primitive type, but found: %s", keyType);
+
+                    Type valueType = keyValueType.getType(1);
+
+                    return new MapPackingConverter(slot, keyType, valueType);
+
+                default:
+                    throw new ParquetSchemaException("Unrecognized Parquet type: " + field);
+            }
+        }
+    }
+
+    /**
+     * Packs values of a primitive type. Values of a dictionary are packed once for each column chunk.
+     */
+    private class PrimitivePackingConverter extends PrimitiveConverter
+    {
+        private final PrimitiveType.PrimitiveTypeName typeName;
+        private final Slot slot;
+
+        private byte[] dictionaryBytes;
+        private int[] dictionaryOffsets;
+
+        PrimitivePackingConverter(PrimitiveType.PrimitiveTypeName typeName, Slot slot)
+        {
+            this.typeName = typeName;
+            this.slot = slot;
+        }
+
+        void pack(RecordPacker packer, boolean value)
+        {
+            packer.packBoolean(value);
+        }
+
+        void pack(RecordPacker packer, int value)
+        {
+            packer.packLong(value);
+        }
+
+        void pack(RecordPacker packer, long value)
+        {
+            packer.packLong(value);
+        }
+
+        void pack(RecordPacker packer, float value)
+        {
+            // same as ValueFactory.newFloat(float)
+            packer.packDouble((double) value);
+        }
+
+        void pack(RecordPacker packer, double value)
+        {
+            packer.packDouble(value);
+        }
+
+        void pack(RecordPacker packer, Binary value)
+        {
+            packer.packBinary(value);
+        }
+
+        @Override
+        public boolean hasDictionarySupport()
+        {
+            return true;
+        }
+
+        @Override
+        public void setDictionary(Dictionary dictionary)
+        {
+            RecordPacker dictionaryPacker = new RecordPacker();
+            dictionaryPacker.clear();
+            dictionaryOffsets = new int[dictionary.getMaxId() + 2];
+            for (int id = 0; id <= dictionary.getMaxId(); id++) {
+                dictionaryOffsets[id] = dictionaryPacker.position();
+                switch (typeName) {
+                    case BOOLEAN:
+                        pack(dictionaryPacker, dictionary.decodeToBoolean(id));
+                        break;
+                    case INT32:
+                        pack(dictionaryPacker, dictionary.decodeToInt(id));
+                        break;
+                    case INT64:
+                        pack(dictionaryPacker, dictionary.decodeToLong(id));
+                        break;
+                    case FLOAT:
+                        pack(dictionaryPacker, dictionary.decodeToFloat(id));
+                        break;
+                    case DOUBLE:
+                        pack(dictionaryPacker, dictionary.decodeToDouble(id));
+                        break;
+                    default:
+                        pack(dictionaryPacker, dictionary.decodeToBinary(id));
+                        break;
+                }
+            }
+            dictionaryOffsets[dictionary.getMaxId() + 1] = dictionaryPacker.position();
+            dictionaryBytes = dictionaryPacker.toByteArray();
+        }
+
+        @Override
+        public void addValueFromDictionary(int dictionaryId)
+        {
+            slot.begin();
+            int offset = dictionaryOffsets[dictionaryId];
+            packer.writePayload(dictionaryBytes, offset, dictionaryOffsets[dictionaryId + 1] - offset);
+        }
+
+        @Override
+        public void addBoolean(boolean value)
+        {
+            slot.begin();
+            pack(packer, value);
+        }
+
+        @Override
+        public void addInt(int value)
+        {
+            slot.begin();
+            pack(packer, value);
+        }
+
+        @Override
+        public void addLong(long value)
+        {
+            slot.begin();
+            pack(packer, value);
+        }
+
+        @Override
+        public void addFloat(float value)
+        {
+            slot.begin();
+            pack(packer, value);
+        }
+
+        @Override
+        public void addDouble(double value)
+        {
+            slot.begin();
+            pack(packer, value);
+        }
+
+        @Override
+        public void addBinary(Binary value)
+        {
+            slot.begin();
+            pack(packer, value);
+        }
+    }
+
+    private class StringPackingConverter extends PrimitivePackingConverter
+    {
+        StringPackingConverter(Slot slot)
+        {
+            super(PrimitiveType.PrimitiveTypeName.BINARY, slot);
+        }
+
+        @Override
+        void pack(RecordPacker packer, Binary value)
+        {
+            packer.packString(value);
+        }
+    }
+
+    /**
+     * Packs decimals as doubles like {@link ParquetDecimalConverter}.
+     */
+    private class DecimalPackingConverter extends PrimitivePackingConverter
+    {
+        private final int scale;
+        private final MathContext mc;
+
+        DecimalPackingConverter(PrimitiveType.PrimitiveTypeName typeName, DecimalType decimal, Slot slot)
+        {
+            super(typeName, slot);
+            this.scale = decimal.getScale();
+            this.mc = new MathContext(decimal.getPrecision(), RoundingMode.UNNECESSARY);
+        }
+
+        @Override
+        void pack(RecordPacker packer, int value)
+        {
+            pack(packer, (long) value);
+        }
+
+        @Override
+        void pack(RecordPacker packer, long value)
+        {
+            packer.packDouble(ParquetDecimalConverter.doubleFromLong(value, mc, scale));
+        }
+
+        @Override
+        void pack(RecordPacker packer, Binary value)
+        {
+            packer.packDouble(ParquetDecimalConverter.doubleFromBinary(value, mc, scale));
+        }
+    }
+
+    /**
+     * Packs a list. See ParquetValueConverter.ParquetArrayConverter for the structures of lists.
+     */
+    private class ArrayPackingConverter extends GroupConverter
+    {
+        private final Slot slot;
+        private final Converter elementConverter;
+        private int start;
+        private int count;
+
+        ArrayPackingConverter(GroupType schema, Slot slot)
+        {
+            this.slot = slot;
+            Slot elementSlot = new Slot()
+            {
+                @Override
+                void begin()
+                {
+                    count++;
+                }
+            };
+
+            Type repeatedType = schema.getType(0);
+            if (isElementType(repeatedType, schema.getName())) {
+                elementConverter = newConverter(repeatedType, elementSlot);
+            }
+            else {
+                elementConverter = new ElementPackingConverter(repeatedType.asGroupType().getType(0), elementSlot);
+            }
+        }
+
+        @Override
+        public Converter getConverter(int fieldIndex)
+        {
+            return elementConverter;
+        }
+
+        @Override
+        public void start()
+        {
+            slot.begin();
+            start = packer.reserveHeader();
+            count = 0;
+        }
+
+        @Override
+        public void end()
+        {
+            packer.putArrayHeader(start, count);
+        }
+    }
+
+    /**
+     * Packs an element of the standard 3-level list, which is nil if the element is null.
+     */
+    private class ElementPackingConverter extends GroupConverter
+    {
+        private final Slot slot;
+        private final Converter converter;
+        private boolean present;
+
+        ElementPackingConverter(Type parquetType, Slot slot)
+        {
+            this.slot = slot;
+            this.converter = newConverter(parquetType, new Slot()
+            {
+                @Override
+                void begin()
+                {
+                    present = true;
+                }
+            });
+        }
+
+        @Override
+        public Converter getConverter(int fieldIndex)
+        {
+            return converter;
+        }
+
+        @Override
+        public void start()
+        {
+            slot.begin();
+            present = false;
+        }
+
+        @Override
+        public void end()
+        {
+            if (!present) {
+                packer.packNil();
+            }
+        }
+    }
+
+    /**
+     * Packs a map, whose missing keys and values are nil.
+     */
+    private class MapPackingConverter extends GroupConverter
+    {
+        private final Slot slot;
+        private final Converter keyValueConverter;
+        private int start;
+        private int count;
+
+        private boolean hasKey;
+        private boolean hasValue;
+
+        MapPackingConverter(Slot slot, Type keyType, Type valueType)
+        {
+            this.slot = slot;
+            final Converter[] converters = new Converter[] {
+                    newConverter(keyType, new Slot()
+                    {
+                        @Override
+                        void begin()
+                        {
+                            hasKey = true;
+                        }
+                    }),
+                    newConverter(valueType, new Slot()
+                    {
+                        @Override
+                        void begin()
+                        {
+                            if (!hasKey) {
+                                packer.packNil();
+                                hasKey = true;
+                            }
+                            hasValue = true;
+                        }
+                    })
+            };
+            this.keyValueConverter = new GroupConverter()
+            {
+                @Override
+                public Converter getConverter(int fieldIndex)
+                {
+                    return converters[fieldIndex];
+                }
+
+                @Override
+                public void start()
+                {
+                    count++;
+                    hasKey = false;
+                    hasValue = false;
+                }
+
+                @Override
+                public void end()
+                {
+                    if (!hasKey) {
+                        packer.packNil();
+                    }
+                    if (!hasValue) {
+                        packer.packNil();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public Converter getConverter(int fieldIndex)
+        {
+            return keyValueConverter;
+        }
+
+        @Override
+        public void start()
+        {
+            slot.begin();
+            start = packer.reserveHeader();
+            count = 0;
+        }
+
+        @Override
+        public void end()
+        {
+            packer.putMapHeader(start, count);
+        }
+    }
+}
@@ -17,26 +17,115 @@
  */
 package jp.co.cyberagent.parquet.msgpack.read.converter;
 
+import org.apache.parquet.column.Dictionary;
 import org.apache.parquet.io.api.Binary;
 import org.apache.parquet.io.api.PrimitiveConverter;
+import org.apache.parquet.schema.PrimitiveType;
+import org.msgpack.value.Value;
 import org.msgpack.value.ValueFactory;
 
 /**
  * Parquet converter for Parquet primitive types.
+ *
+ * Values of a dictionary are converted by the add methods of the converter, including those
+ * overridden by subclasses, on first use of each dictionary id. See {@link LazyDictionary}.
+ * Converted dictionaries are shared by converters of the same class through {@link DictionaryCache}.
  */
 class ParquetPrimitiveConverter extends PrimitiveConverter implements HasParentContainerUpdater
 {
     protected final ParentContainerUpdater updater;
+    private final PrimitiveType.PrimitiveTypeName typeName;
+
+    private LazyDictionary expandedDictionary = null;
+    private final LazyDictionary.Conversion dictionaryConversion = new LazyDictionary.Conversion()
+    {
+        @Override
+        public Value convert(Dictionary dictionary, int id)
+        {
+            return convertFromDictionary(dictionary, id);
+        }
+
+        @Override
+        public long estimateSize(Dictionary dictionary, int id)
+        {
+            if (typeName == PrimitiveType.PrimitiveTypeName.BINARY) {
+                return LazyDictionary.VALUE_BYTES + dictionary.decodeToBinary(id).length();
+            }
+            return LazyDictionary.VALUE_BYTES;
+        }
+    };
+    // receives values while a dictionary is converted
+    private DictionaryValueUpdater dictionaryUpdater = null;
 
     ParquetPrimitiveConverter(ParentContainerUpdater updater)
+    {
+        this(null, updater);
+    }
+
+    /**
+     * @param typeName the type of values in a dictionary, or null if the converter doesn't
+     *                 support dictionaries
+     */
+    ParquetPrimitiveConverter(PrimitiveType.PrimitiveTypeName typeName, ParentContainerUpdater updater)
     {
         this.updater = updater;
+        this.typeName = typeName;
     }
 
     @Override
     public ParentContainerUpdater getUpdater()
     {
-        return updater;
+        return dictionaryUpdater == null ? updater : dictionaryUpdater;
+    }
+
+    @Override
+    public boolean hasDictionarySupport()
+    {
+        return typeName != null;
+    }
+
+    @Override
+    public void setDictionary(Dictionary dictionary)
+    {
+        // anonymous subclasses convert values differently
+        expandedDictionary = DictionaryCache.getInstance().get(dictionary, typeName, getClass());
+    }
+
+    private Value convertFromDictionary(Dictionary dictionary, int id)
+    {
+        dictionaryUpdater = new DictionaryValueUpdater();
+        try {
+            switch (typeName) {
+                case BOOLEAN:
+                    addBoolean(dictionary.decodeToBoolean(id));
+                    break;
+                case INT32:
+                    addInt(dictionary.decodeToInt(id));
+                    break;
+                case INT64:
+                    addLong(dictionary.decodeToLong(id));
+                    break;
+                case FLOAT:
+                    addFloat(dictionary.decodeToFloat(id));
+                    break;
+                case DOUBLE:
+                    addDouble(dictionary.decodeToDouble(id));
+                    break;
+                default:
+                    addBinary(dictionary.decodeToBinary(id));
+                    break;
+            }
+            return dictionaryUpdater.value;
+        }
+        finally {
+            dictionaryUpdater = null;
+        }
+    }
+
+    @Override
+    public void addValueFromDictionary(int dictionaryId)
+    {
+        updater.set(expandedDictionary.get(dictionaryId, dictionaryConversion));
     }
 
     @Override
@@ -75,4 +164,15 @@ class ParquetPrimitiveConverter extends PrimitiveConverter implements HasParentC
         // It's safe to omit copy because values#getBytes returns copied array.
         getUpdater().set(ValueFactory.newBinary(value.getBytes(), true));
     }
+
+    private static final class DictionaryValueUpdater extends ParentContainerUpdater.Noop
+    {
+        private Value value;
+
+        @Override
+        public void set(Value value)
+        {
+            this.value = value;
+        }
+    }
 }
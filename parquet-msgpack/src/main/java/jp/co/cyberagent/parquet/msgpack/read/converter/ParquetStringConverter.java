@@ -19,15 +19,34 @@ package jp.co.cyberagent.parquet.msgpack.read.converter;
 
 import org.apache.parquet.column.Dictionary;
 import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.PrimitiveType;
 import org.msgpack.value.Value;
 import org.msgpack.value.ValueFactory;
 
 /**
- * Parquet converter for strings. A dictionary is used to minimize string decoding cost.
+ * Parquet converter for strings. A dictionary is used to minimize string decoding cost. Strings of
+ * a dictionary are decoded on first use of each id and shared through {@link DictionaryCache}.
  */
 class ParquetStringConverter extends ParquetPrimitiveConverter
 {
-    private Value[] expandedDictionary = null;
+    private static final LazyDictionary.Conversion DICTIONARY_CONVERSION = new LazyDictionary.Conversion()
+    {
+        @Override
+        public Value convert(Dictionary dictionary, int id)
+        {
+            // This is copied array. Copying at ValueFactory#newString is not necessary.
+            byte[] bytes = dictionary.decodeToBinary(id).getBytes();
+            return ValueFactory.newString(bytes);
+        }
+
+        @Override
+        public long estimateSize(Dictionary dictionary, int id)
+        {
+            return LazyDictionary.VALUE_BYTES + dictionary.decodeToBinary(id).length();
+        }
+    };
+
+    private LazyDictionary expandedDictionary = null;
 
     ParquetStringConverter(ParentContainerUpdater updater)
     {
@@ -43,18 +62,13 @@ class ParquetStringConverter extends ParquetPrimitiveConverter
     @Override
     public void setDictionary(Dictionary dictionary)
     {
-        expandedDictionary = new Value[dictionary.getMaxId() + 1];
-        for (int id = 0; id <= dictionary.getMaxId(); id++) {
-            // This is copied array. Copying at ValueFactory#newString is not necessary.
-            byte[] bytes = dictionary.decodeToBinary(id).getBytes();
-            expandedDictionary[id] = ValueFactory.newString(bytes);
-        }
+        expandedDictionary = DictionaryCache.getInstance().get(dictionary, PrimitiveType.PrimitiveTypeName.BINARY, getClass());
     }
 
     @Override
     public void addValueFromDictionary(int dictionaryId)
     {
-        updater.set(expandedDictionary[dictionaryId]);
+        updater.set(expandedDictionary.get(dictionaryId, DICTIONARY_CONVERSION));
     }
 
     @Override
@@ -17,6 +17,7 @@
  */
 package jp.co.cyberagent.parquet.msgpack.read.converter;
 
+import jp.co.cyberagent.parquet.msgpack.read.SchemaProjection;
 import org.apache.parquet.column.Dictionary;
 import org.apache.parquet.io.api.Binary;
 import org.apache.parquet.io.api.Converter;
@@ -29,9 +30,8 @@ import org.apache.parquet.schema.Type;
 import org.msgpack.value.Value;
 import org.msgpack.value.ValueFactory;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -41,29 +41,93 @@ public class ParquetValueConverter extends ParquetGroupConverter
 {
     // Converters for each field.
     private final Converter[] fieldConverters;
+    // Updaters of fields which keep their own state for each record, like repeated fields. Updaters
+    // of other fields only set values to the map, so they are not notified of records.
+    private final ParentContainerUpdater[] recordUpdaters;
 
     private InternalMap currentMap;
+    private final boolean omitNullFields;
 
     // TODO: make configurable
     private boolean assumeBinaryIsString = false;
     private boolean assumeInt96IsTimestamp = true;
 
     public ParquetValueConverter(GroupType schema, ParentContainerUpdater updater)
+    {
+        this(schema, null, updater);
+    }
+
+    /**
+     * @param projection fields to include in values, or null to include all fields of the schema.
+     *                   Other fields are read but discarded.
+     */
+    public ParquetValueConverter(GroupType schema, SchemaProjection projection, ParentContainerUpdater updater)
+    {
+        this(schema, projection, false, updater);
+    }
+
+    /**
+     * @param projection fields to include in values, or null to include all fields of the schema.
+     *                   Other fields are read but discarded.
+     * @param omitNullFields true to exclude null fields from maps of groups instead of setting nil
+     */
+    public ParquetValueConverter(GroupType schema, SchemaProjection projection, boolean omitNullFields, ParentContainerUpdater updater)
     {
         super(updater);
+        this.omitNullFields = omitNullFields;
 
         ArrayList<String> fieldNames = new ArrayList<>();
         for (Type type : schema.getFields()) {
-            fieldNames.add(type.getName());
+            if (projection == null || projection.getChild(type.getName()) != null) {
+                fieldNames.add(type.getName());
+            }
         }
-        this.currentMap = new InternalMap(fieldNames);
+        this.currentMap = new InternalMap(fieldNames, omitNullFields);
 
         this.fieldConverters = new Converter[schema.getFieldCount()];
+        List<ParentContainerUpdater> recordUpdaters = new ArrayList<>();
         int i = 0;
+        int mapIndex = 0;
         for (Type field : schema.getFields()) {
-            InternalMapUpdater update = new InternalMapUpdater(currentMap, i);
-            fieldConverters[i++] = newFieldConverter(field, update);
+            SchemaProjection child = projection == null ? null : projection.getChild(field.getName());
+            if (projection != null && child == null) {
+                fieldConverters[i++] = newDiscardingConverter(field);
+                continue;
+            }
+            InternalMapUpdater update = new InternalMapUpdater(currentMap, mapIndex++);
+            if (child != null && !child.isAll() && !field.isPrimitive() && field.getOriginalType() == null
+                    && !field.isRepetition(Type.Repetition.REPEATED)) {
+                fieldConverters[i++] = newConverterForGroupField(field.asGroupType(), child, update);
+            }
+            else {
+                fieldConverters[i++] = newFieldConverter(field, update);
+            }
+            ParentContainerUpdater fieldUpdater = ((HasParentContainerUpdater) fieldConverters[i - 1]).getUpdater();
+            if (fieldUpdater != update) {
+                recordUpdaters.add(fieldUpdater);
+            }
         }
+        this.recordUpdaters = recordUpdaters.toArray(new ParentContainerUpdater[recordUpdaters.size()]);
+    }
+
+    // Only for createFieldConverter. Creates converters of nested fields with conversion options.
+    private ParquetValueConverter()
+    {
+        super(new ParentContainerUpdater.Noop());
+        this.fieldConverters = new Converter[0];
+        this.recordUpdaters = new ParentContainerUpdater[0];
+        this.omitNullFields = false;
+    }
+
+    /**
+     * Creates a converter of a field, which sets converted values to the updater.
+     *
+     * Like fields of a group, {@link ParentContainerUpdater#start()} and {@link ParentContainerUpdater#end()}
+     * of the converter's updater (see {@link HasParentContainerUpdater}) must be called for each record.
+     */
+    public static Converter createFieldConverter(Type parquetType, ParentContainerUpdater updater)
+    {
+        return new ParquetValueConverter().newFieldConverter(parquetType, updater);
     }
 
     Value getCurrentRecord()
@@ -71,6 +135,17 @@ public class ParquetValueConverter extends ParquetGroupConverter
         return currentMap.build();
     }
 
+    /**
+     * Adds fields of constant values to all following maps built by this converter, e.g. values of
+     * partitions of the file. A field of the schema with the same name is replaced.
+     *
+     * @param keyValues keys and values of the fields
+     */
+    void setExtraFields(Value[] keyValues)
+    {
+        currentMap.setExtraFields(keyValues);
+    }
+
     @Override
     public Converter getConverter(int fieldIndex)
     {
@@ -80,19 +155,17 @@ public class ParquetValueConverter extends ParquetGroupConverter
     @Override
     public void start()
     {
-        int i = 0;
-        for (Converter converter : fieldConverters) {
-            ((HasParentContainerUpdater) converter).getUpdater().start();
-            currentMap.set(i, ValueFactory.newNil());
-            i += 1;
+        for (ParentContainerUpdater recordUpdater : recordUpdaters) {
+            recordUpdater.start();
         }
+        currentMap.clear();
     }
 
     @Override
     public void end()
     {
-        for (Converter converter : fieldConverters) {
-            ((HasParentContainerUpdater) converter).getUpdater().end();
+        for (ParentContainerUpdater recordUpdater : recordUpdaters) {
+            recordUpdater.end();
         }
         getUpdater().set(currentMap.build());
     }
@@ -141,16 +214,16 @@ public class ParquetValueConverter extends ParquetGroupConverter
             case BOOLEAN:
             case FLOAT:
             case DOUBLE:
-                return new ParquetPrimitiveConverter(updater);
+                return new ParquetPrimitiveConverter(typeName, updater);
 
             case INT32:
                 if (originalType == null) {
-                    return new ParquetPrimitiveConverter(updater);
+                    return new ParquetPrimitiveConverter(typeName, updater);
                 }
                 else {
                     switch (originalType) {
                         case INT_8:
-                            return new ParquetPrimitiveConverter(updater) {
+                            return new ParquetPrimitiveConverter(typeName, updater) {
                                 @Override
                                 public void addInt(int value)
                                 {
@@ -158,7 +231,7 @@ public class ParquetValueConverter extends ParquetGroupConverter
                                 }
                             };
                         case INT_16:
-                            return new ParquetPrimitiveConverter(updater) {
+                            return new ParquetPrimitiveConverter(typeName, updater) {
                                 @Override
                                 public void addInt(int value)
                                 {
@@ -166,9 +239,9 @@ public class ParquetValueConverter extends ParquetGroupConverter
                                 }
                             };
                         case INT_32:
-                            return new ParquetPrimitiveConverter(updater);
+                            return new ParquetPrimitiveConverter(typeName, updater);
                         case DATE:
-                            return new ParquetPrimitiveConverter(updater) {
+                            return new ParquetPrimitiveConverter(typeName, updater) {
                                 @Override
                                 public void addInt(int value)
                                 {
@@ -191,12 +264,12 @@ public class ParquetValueConverter extends ParquetGroupConverter
 
             case INT64:
                 if (originalType == null) {
-                    return new ParquetPrimitiveConverter(updater);
+                    return new ParquetPrimitiveConverter(typeName, updater);
                 }
                 else {
                     switch (originalType) {
                         case INT_64:
-                            return new ParquetPrimitiveConverter(updater);
+                            return new ParquetPrimitiveConverter(typeName, updater);
                         case DECIMAL:
                             DecimalType decimal = DecimalType.create(field, DecimalType.MAX_LONG_DIGITS);
                             return new ParquetDecimalConverter.LongDictionaryAware(decimal.getPrecision(), decimal.getScale(), updater);
@@ -215,21 +288,11 @@ public class ParquetValueConverter extends ParquetGroupConverter
                         assumeInt96IsTimestamp,
                         "INT96 is not supported unless it's interpreted as timestamp. " +
                                 "Please try to set assumeInt96IsTimestamp to true.");
-                return new ParquetPrimitiveConverter(updater) {
+                return new ParquetPrimitiveConverter(typeName, updater) {
                     @Override
                     public void addBinary(Binary value)
                     {
-                        if (value.length() != 12) {
-                            throw new AssertionError(
-                                    "Timestamps (with nanoseconds) are expected to be stored in 12-byte long binaries, " +
-                                    "but got a " + String.valueOf(value.length()) + "-byte binary.");
-                        }
-
-                        ByteBuffer buf = value.toByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
-                        long timeOfDayNanos = buf.getLong();
-                        int julianDays = buf.getInt();
-
-                        getUpdater().setLong(DateTimeUtils.fromJulianDay(julianDays, timeOfDayNanos));
+                        getUpdater().setLong(DateTimeUtils.fromInt96(value));
                     }
                 };
 
@@ -239,7 +302,7 @@ public class ParquetValueConverter extends ParquetGroupConverter
                         return new ParquetStringConverter(updater);
                     }
                     else {
-                        return new ParquetPrimitiveConverter(updater);
+                        return new ParquetPrimitiveConverter(typeName, updater);
                     }
                 }
                 else {
@@ -249,7 +312,7 @@ public class ParquetValueConverter extends ParquetGroupConverter
                         case JSON:
                             return new ParquetStringConverter(updater);
                         case BSON:
-                            return new ParquetPrimitiveConverter(updater);
+                            return new ParquetPrimitiveConverter(typeName, updater);
                         case DECIMAL:
                             DecimalType decimal = DecimalType.create(field);
                             return new ParquetDecimalConverter.BinaryDictionaryAware(decimal.getPrecision(), decimal.getScale(), updater);
@@ -280,10 +343,15 @@ public class ParquetValueConverter extends ParquetGroupConverter
     }
 
     private Converter newConverterForGroupField(GroupType field, final ParentContainerUpdater updater)
+    {
+        return newConverterForGroupField(field, null, updater);
+    }
+
+    private Converter newConverterForGroupField(GroupType field, SchemaProjection projection, final ParentContainerUpdater updater)
     {
         OriginalType originalType = field.getOriginalType();
         if (originalType == null) {
-            return new ParquetValueConverter(field, new ParentContainerUpdater.Noop() {
+            return new ParquetValueConverter(field, projection, omitNullFields, new ParentContainerUpdater.Noop() {
                 @Override
                 public void set(Value value)
                 {
@@ -342,7 +410,17 @@ public class ParquetValueConverter extends ParquetGroupConverter
         }
     }
 
-    private static boolean isElementType(Type repeatedType, String parentName)
+    static Converter newDiscardingConverter(Type parquetType)
+    {
+        if (parquetType.isPrimitive()) {
+            return new DiscardingPrimitiveConverter();
+        }
+        else {
+            return new DiscardingGroupConverter(parquetType.asGroupType());
+        }
+    }
+
+    static boolean isElementType(Type repeatedType, String parentName)
     {
         return (
                 // For legacy 2-level list types with primitive element type, e.g.:
@@ -391,7 +469,7 @@ public class ParquetValueConverter extends ParquetGroupConverter
         );
     }
 
-    private static void checkConversionRequirement(boolean condition, String message, Object... args)
+    static void checkConversionRequirement(boolean condition, String message, Object... args)
     {
         if (!condition) {
             throw new ParquetSchemaException(String.format(message, args));
@@ -400,31 +478,212 @@ public class ParquetValueConverter extends ParquetGroupConverter
 
     /**
      * Mutable fixed-length map.
+     *
+     * Only fields set in the current record are tracked, so that a record of a wide schema with
+     * few non-null fields is cleared and built in time proportional to the set fields (except for
+     * copying the map of all fields when null fields are included).
      */
     private static class InternalMap
     {
-        private final int numFields;
-        private final Value[] kvs;
+        private static final Value NIL = ValueFactory.newNil();
 
-        public InternalMap(List<String> keys)
+        private final int numFields;
+        private Value[] kvs;
+        private final boolean omitNullFields;
+        // indexes of fields set in the current record
+        private final int[] setFields;
+        private final boolean[] isSet;
+        private int numSetFields = 0;
+        // fields replaced by extra fields, or null if none is replaced
+        private boolean[] replaced = null;
+        // keys and values of extra fields, which follow the fields in kvs
+        private Value[] extraKvs = new Value[0];
+
+        public InternalMap(List<String> keys, boolean omitNullFields)
         {
             this.numFields = keys.size();
             this.kvs = new Value[numFields * 2];
             int i = 0;
             for (String key : keys) {
                 kvs[i++] = ValueFactory.newString(key);
-                kvs[i++] = ValueFactory.newNil();
+                kvs[i++] = NIL;
+            }
+            this.omitNullFields = omitNullFields;
+            this.setFields = new int[numFields];
+            this.isSet = new boolean[numFields];
+        }
+
+        public void setExtraFields(Value[] keyValues)
+        {
+            boolean[] replaced = new boolean[numFields];
+            boolean anyReplaced = false;
+            for (int i = 0; i < numFields; i++) {
+                for (int j = 0; j < keyValues.length; j += 2) {
+                    if (kvs[i * 2].equals(keyValues[j])) {
+                        replaced[i] = true;
+                        anyReplaced = true;
+                    }
+                }
             }
+            this.replaced = anyReplaced ? replaced : null;
+            this.extraKvs = keyValues.clone();
+            // extra fields are kept after the fields so that a map is built by a copy
+            this.kvs = Arrays.copyOf(kvs, numFields * 2 + extraKvs.length);
+            System.arraycopy(extraKvs, 0, kvs, numFields * 2, extraKvs.length);
         }
 
         public void set(int index, Value value)
         {
+            if (!isSet[index]) {
+                isSet[index] = true;
+                setFields[numSetFields++] = index;
+            }
             kvs[index * 2 + 1] = value;
         }
 
+        public void clear()
+        {
+            for (int i = 0; i < numSetFields; i++) {
+                int index = setFields[i];
+                kvs[index * 2 + 1] = NIL;
+                isSet[index] = false;
+            }
+            numSetFields = 0;
+        }
+
         public Value build()
         {
-            return ValueFactory.newMap(kvs, false);
+            if (!omitNullFields && replaced == null) {
+                return ValueFactory.newMap(kvs, false);
+            }
+
+            Value[] fields;
+            int i = 0;
+            if (!omitNullFields) {
+                fields = new Value[kvs.length];
+                for (int index = 0; index < numFields; index++) {
+                    if (!replaced[index]) {
+                        fields[i++] = kvs[index * 2];
+                        fields[i++] = kvs[index * 2 + 1];
+                    }
+                }
+            }
+            else {
+                // fields are set in the order of the schema except for repeated fields
+                Arrays.sort(setFields, 0, numSetFields);
+                fields = new Value[numSetFields * 2 + extraKvs.length];
+                for (int j = 0; j < numSetFields; j++) {
+                    int index = setFields[j];
+                    if (kvs[index * 2 + 1].isNilValue() || (replaced != null && replaced[index])) {
+                        continue;
+                    }
+                    fields[i++] = kvs[index * 2];
+                    fields[i++] = kvs[index * 2 + 1];
+                }
+            }
+            System.arraycopy(extraKvs, 0, fields, i, extraKvs.length);
+            i += extraKvs.length;
+            return ValueFactory.newMap(i == fields.length ? fields : Arrays.copyOf(fields, i), true);
+        }
+    }
+
+    /**
+     * A converter for a field excluded by a projection. Values are read but dropped.
+     */
+    private static final class DiscardingPrimitiveConverter extends PrimitiveConverter implements HasParentContainerUpdater
+    {
+        private final ParentContainerUpdater updater = new ParentContainerUpdater.Noop();
+
+        @Override
+        public ParentContainerUpdater getUpdater()
+        {
+            return updater;
+        }
+
+        @Override
+        public boolean hasDictionarySupport()
+        {
+            return true;
+        }
+
+        @Override
+        public void setDictionary(Dictionary dictionary)
+        {
+        }
+
+        @Override
+        public void addValueFromDictionary(int dictionaryId)
+        {
+        }
+
+        @Override
+        public void addBinary(Binary value)
+        {
+        }
+
+        @Override
+        public void addBoolean(boolean value)
+        {
+        }
+
+        @Override
+        public void addDouble(double value)
+        {
+        }
+
+        @Override
+        public void addFloat(float value)
+        {
+        }
+
+        @Override
+        public void addInt(int value)
+        {
+        }
+
+        @Override
+        public void addLong(long value)
+        {
+        }
+    }
+
+    /**
+     * A group converter for a field excluded by a projection.
+     */
+    private static final class DiscardingGroupConverter extends GroupConverter implements HasParentContainerUpdater
+    {
+        private final ParentContainerUpdater updater = new ParentContainerUpdater.Noop();
+        private final Converter[] converters;
+
+        DiscardingGroupConverter(GroupType schema)
+        {
+            this.converters = new Converter[schema.getFieldCount()];
+            int i = 0;
+            for (Type field : schema.getFields()) {
+                converters[i++] = newDiscardingConverter(field);
+            }
+        }
+
+        @Override
+        public ParentContainerUpdater getUpdater()
+        {
+            return updater;
+        }
+
+        @Override
+        public Converter getConverter(int fieldIndex)
+        {
+            return converters[fieldIndex];
+        }
+
+        @Override
+        public void start()
+        {
+        }
+
+        @Override
+        public void end()
+        {
         }
     }
 
@@ -512,7 +771,7 @@ public class ParquetValueConverter extends ParquetGroupConverter
      */
     private class ParquetArrayConverter extends ParquetGroupConverter
     {
-        private ArrayList<Value> currentArray;
+        private final ValueArrayBuilder currentArray = new ValueArrayBuilder();
         private Converter elementConverter;
 
         private ParquetArrayConverter(GroupType schema, ParentContainerUpdater updater)
@@ -523,13 +782,7 @@ public class ParquetValueConverter extends ParquetGroupConverter
             if (isElementType(repeatedType, schema.getName())) {
                 // If the repeated field corresponds to the element type, creates a new converter using the
                 // type of the repeated field.
-                elementConverter = newConverter(repeatedType, new ParentContainerUpdater.Noop() {
-                    @Override
-                    public void set(Value value)
-                    {
-                        ParquetArrayConverter.this.currentArray.add(value);
-                    }
-                });
+                elementConverter = newConverter(repeatedType, currentArray);
             }
             else {
                 // If the repeated field corresponds to the syntactic group in the standard 3-level Parquet
@@ -544,33 +797,69 @@ public class ParquetValueConverter extends ParquetGroupConverter
             return elementConverter;
         }
 
-        // NOTE: We can't reuse the mutable `ArrayList` here and must instantiate a new buffer for the
-        // next value.
+        // The builder is reused for the next value, because the built array doesn't share it.
         @Override
         public void start()
         {
-            currentArray = new ArrayList<>();
+            currentArray.clear();
         }
 
         @Override
         public void end()
         {
-            getUpdater().set(ValueFactory.newArray(currentArray));
+            getUpdater().set(currentArray.build());
         }
 
         /** Array element converter */
         private class ElementConverter extends GroupConverter
         {
-            private Value currentElement;
+            private boolean hasElement;
             private Converter converter;
 
             public ElementConverter(Type parquetType)
             {
+                // elements are added to the array as they are converted, keeping their types
                 converter = newConverter(parquetType, new ParentContainerUpdater.Noop() {
                     @Override
                     public void set(Value value)
                     {
-                        currentElement = value;
+                        hasElement = true;
+                        currentArray.set(value);
+                    }
+
+                    @Override
+                    public void setBoolean(boolean value)
+                    {
+                        hasElement = true;
+                        currentArray.setBoolean(value);
+                    }
+
+                    @Override
+                    public void setInt(int value)
+                    {
+                        hasElement = true;
+                        currentArray.setInt(value);
+                    }
+
+                    @Override
+                    public void setLong(long value)
+                    {
+                        hasElement = true;
+                        currentArray.setLong(value);
+                    }
+
+                    @Override
+                    public void setFloat(float value)
+                    {
+                        hasElement = true;
+                        currentArray.setFloat(value);
+                    }
+
+                    @Override
+                    public void setDouble(double value)
+                    {
+                        hasElement = true;
+                        currentArray.setDouble(value);
                     }
                 });
             }
@@ -584,13 +873,15 @@ public class ParquetValueConverter extends ParquetGroupConverter
             @Override
             public void start()
             {
-                currentElement = ValueFactory.newNil();
+                hasElement = false;
             }
 
             @Override
             public void end()
             {
-                ParquetArrayConverter.this.currentArray.add(currentElement);
+                if (!hasElement) {
+                    currentArray.set(ValueFactory.newNil());
+                }
             }
         }
     }
@@ -686,27 +977,21 @@ public class ParquetValueConverter extends ParquetGroupConverter
     {
         private final ParentContainerUpdater updater;
         private final PrimitiveConverter elementConverter;
-        private ArrayList<Value> currentArray;
 
         public RepeatedPrimitiveConverter(Type parquetType, final ParentContainerUpdater parentUpdater)
         {
-            this.updater = new ParentContainerUpdater.Noop() {
+            // elements are kept in a primitive array until the array is built
+            this.updater = new ValueArrayBuilder() {
                 @Override
                 public void start()
                 {
-                    RepeatedPrimitiveConverter.this.currentArray = new ArrayList<>();
+                    clear();
                 }
 
                 @Override
                 public void end()
                 {
-                    parentUpdater.set(ValueFactory.newArray(RepeatedPrimitiveConverter.this.currentArray));
-                }
-
-                @Override
-                public void set(Value value)
-                {
-                    RepeatedPrimitiveConverter.this.currentArray.add(value);
+                    parentUpdater.set(build());
                 }
             };
 
@@ -782,27 +1067,20 @@ public class ParquetValueConverter extends ParquetGroupConverter
     {
         private final ParentContainerUpdater updater;
         private final GroupConverter elementConverter;
-        private ArrayList<Value> currentArray;
 
         public RepeatedGroupConverter(Type parquetType, final ParentContainerUpdater parentUpdater)
         {
-            this.updater = new ParentContainerUpdater.Noop() {
+            this.updater = new ValueArrayBuilder() {
                 @Override
                 public void start()
                 {
-                    RepeatedGroupConverter.this.currentArray = new ArrayList<>();
+                    clear();
                 }
 
                 @Override
                 public void end()
                 {
-                    parentUpdater.set(ValueFactory.newArray(RepeatedGroupConverter.this.currentArray));
-                }
-
-                @Override
-                public void set(Value value)
-                {
-                    RepeatedGroupConverter.this.currentArray.add(value);
+                    parentUpdater.set(build());
                 }
             };
 
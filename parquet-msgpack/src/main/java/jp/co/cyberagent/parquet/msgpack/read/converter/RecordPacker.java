@@ -0,0 +1,329 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read.converter;
+
+import org.apache.parquet.io.api.Binary;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.buffer.MessageBuffer;
+import org.msgpack.core.buffer.MessageBufferOutput;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Packs a record into a byte array reused for all records.
+ *
+ * A byte is reserved for the header of an array or a map whose size is unknown until it ends, and
+ * the header is put there after the elements are packed. A header of less than 16 elements fits
+ * in the byte, and only a larger one moves the elements by the rest of the header, so that the
+ * header has the size for the number of elements as packed by {@link MessagePacker}.
+ * Packing to memory doesn't fail, so IOException of MessagePacker is not thrown.
+ */
+class RecordPacker
+        implements MessageBufferOutput
+{
+    private static final int MIN_BUFFER_SIZE = 512;
+
+    private final MessagePacker packer;
+    private final byte[] header = new byte[5];
+    private byte[] bytes = new byte[8192];
+    private int size = 0;
+    // bytes written by the packer before the record, minus bytes inserted into the record
+    private long base = 0;
+
+    RecordPacker()
+    {
+        this.packer = MessagePack.newDefaultPacker(this);
+    }
+
+    /**
+     * Discards the previous record.
+     */
+    void clear()
+    {
+        flushPacker();
+        size = 0;
+        base = packer.getTotalWrittenBytes();
+    }
+
+    /**
+     * @return the number of bytes of the record packed so far
+     */
+    int position()
+    {
+        return (int) (packer.getTotalWrittenBytes() - base);
+    }
+
+    /**
+     * @return bytes of the record, which are overwritten by the next record
+     */
+    MessageBuffer toMessageBuffer()
+    {
+        flushPacker();
+        return MessageBuffer.wrap(bytes, 0, size);
+    }
+
+    /**
+     * @return a copy of bytes of the record
+     */
+    byte[] toByteArray()
+    {
+        flushPacker();
+        return Arrays.copyOf(bytes, size);
+    }
+
+    void packNil()
+    {
+        try {
+            packer.packNil();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void packBoolean(boolean value)
+    {
+        try {
+            packer.packBoolean(value);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void packLong(long value)
+    {
+        try {
+            packer.packLong(value);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void packDouble(double value)
+    {
+        try {
+            packer.packDouble(value);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void packString(Binary value)
+    {
+        try {
+            packer.packRawStringHeader(value.length());
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        writePayload(value);
+    }
+
+    void packBinary(Binary value)
+    {
+        try {
+            packer.packBinaryHeader(value.length());
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        writePayload(value);
+    }
+
+    void packArrayHeader(int size)
+    {
+        try {
+            packer.packArrayHeader(size);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void packMapHeader(int size)
+    {
+        try {
+            packer.packMapHeader(size);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes bytes packed by another packer.
+     */
+    void writePayload(byte[] source, int offset, int length)
+    {
+        try {
+            packer.writePayload(source, offset, length);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writePayload(Binary value)
+    {
+        // bytes of a page are written without copying them into a new array
+        ByteBuffer buffer = value.toByteBuffer();
+        if (buffer.hasArray()) {
+            writePayload(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        else {
+            byte[] copy = value.getBytes();
+            writePayload(copy, 0, copy.length);
+        }
+    }
+
+    /**
+     * Reserves a byte for the header of an array or a map.
+     *
+     * @return the position of the header to pass to {@link #putArrayHeader(int, int)} or
+     *         {@link #putMapHeader(int, int)}
+     */
+    int reserveHeader()
+    {
+        int start = position();
+        packNil();
+        return start;
+    }
+
+    /**
+     * Puts the header of an array at the byte reserved at {@code start}.
+     */
+    void putArrayHeader(int start, int size)
+    {
+        int length;
+        if (size < (1 << 4)) {
+            header[0] = (byte) (0x90 | size);
+            length = 1;
+        }
+        else if (size < (1 << 16)) {
+            header[0] = (byte) 0xdc;
+            length = putSize(size, 2);
+        }
+        else {
+            header[0] = (byte) 0xdd;
+            length = putSize(size, 4);
+        }
+        put(start, length);
+    }
+
+    /**
+     * Puts the header of a map at the byte reserved at {@code start}.
+     */
+    void putMapHeader(int start, int size)
+    {
+        int length;
+        if (size < (1 << 4)) {
+            header[0] = (byte) (0x80 | size);
+            length = 1;
+        }
+        else if (size < (1 << 16)) {
+            header[0] = (byte) 0xde;
+            length = putSize(size, 2);
+        }
+        else {
+            header[0] = (byte) 0xdf;
+            length = putSize(size, 4);
+        }
+        put(start, length);
+    }
+
+    // puts a big-endian size after the type byte of the header
+    private int putSize(int size, int width)
+    {
+        for (int i = 0; i < width; i++) {
+            header[width - i] = (byte) (size >>> (8 * i));
+        }
+        return width + 1;
+    }
+
+    private void put(int start, int length)
+    {
+        // the packer doesn't hold bytes of the record after it's flushed
+        flushPacker();
+        if (length > 1) {
+            int extra = length - 1;
+            ensureCapacity(extra);
+            System.arraycopy(bytes, start + 1, bytes, start + length, size - start - 1);
+            size += extra;
+            base -= extra;
+        }
+        System.arraycopy(header, 0, bytes, start, length);
+    }
+
+    private void flushPacker()
+    {
+        try {
+            packer.flush();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void ensureCapacity(int length)
+    {
+        if (bytes.length - size < length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+        }
+    }
+
+    @Override
+    public MessageBuffer next(int minimumSize)
+    {
+        ensureCapacity(Math.max(minimumSize, MIN_BUFFER_SIZE));
+        return MessageBuffer.wrap(bytes, size, bytes.length - size);
+    }
+
+    @Override
+    public void writeBuffer(int length)
+    {
+        size += length;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length)
+    {
+        ensureCapacity(length);
+        System.arraycopy(buffer, offset, bytes, size, length);
+        size += length;
+    }
+
+    @Override
+    public void add(byte[] buffer, int offset, int length)
+    {
+        write(buffer, offset, length);
+    }
+
+    @Override
+    public void flush()
+    {
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
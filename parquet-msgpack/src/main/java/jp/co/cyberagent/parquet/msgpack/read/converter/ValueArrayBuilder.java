@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read.converter;
+
+import org.msgpack.value.ImmutableArrayValue;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.util.Arrays;
+
+/**
+ * Elements of an array reused for all records.
+ *
+ * Elements set by the typed setters are kept in a primitive array as long as all elements of the
+ * array have the same type, and they are converted to values only when the array is built.
+ * Otherwise elements are kept as values.
+ */
+class ValueArrayBuilder extends ParentContainerUpdater.Noop
+{
+    private static final int INITIAL_CAPACITY = 16;
+
+    private enum Kind
+    {
+        EMPTY, LONG, DOUBLE, BOOLEAN, VALUE
+    }
+
+    private Kind kind = Kind.EMPTY;
+    private int size = 0;
+    private long[] longs = null;
+    private double[] doubles = null;
+    private boolean[] booleans = null;
+    private Value[] values = null;
+
+    /**
+     * Discards elements of the previous array.
+     */
+    void clear()
+    {
+        if (kind == Kind.VALUE) {
+            // values are not retained by the builder after the array is built
+            Arrays.fill(values, 0, size, null);
+        }
+        kind = Kind.EMPTY;
+        size = 0;
+    }
+
+    ImmutableArrayValue build()
+    {
+        if (size == 0) {
+            return ValueFactory.emptyArray();
+        }
+        Value[] array = new Value[size];
+        switch (kind) {
+            case LONG:
+                for (int i = 0; i < size; i++) {
+                    array[i] = ValueFactory.newInteger(longs[i]);
+                }
+                break;
+            case DOUBLE:
+                for (int i = 0; i < size; i++) {
+                    array[i] = ValueFactory.newFloat(doubles[i]);
+                }
+                break;
+            case BOOLEAN:
+                for (int i = 0; i < size; i++) {
+                    array[i] = ValueFactory.newBoolean(booleans[i]);
+                }
+                break;
+            default:
+                System.arraycopy(values, 0, array, 0, size);
+                break;
+        }
+        return ValueFactory.newArray(array, true);
+    }
+
+    @Override
+    public void set(Value value)
+    {
+        if (kind != Kind.VALUE || values.length == size) {
+            toValues();
+        }
+        values[size++] = value;
+    }
+
+    @Override
+    public void setBoolean(boolean value)
+    {
+        if (kind == Kind.EMPTY) {
+            kind = Kind.BOOLEAN;
+        }
+        else if (kind != Kind.BOOLEAN) {
+            set(ValueFactory.newBoolean(value));
+            return;
+        }
+        if (booleans == null || booleans.length == size) {
+            booleans = booleans == null ? new boolean[INITIAL_CAPACITY] : Arrays.copyOf(booleans, size * 2);
+        }
+        booleans[size++] = value;
+    }
+
+    @Override
+    public void setByte(byte value)
+    {
+        setLong(value);
+    }
+
+    @Override
+    public void setShort(short value)
+    {
+        setLong(value);
+    }
+
+    @Override
+    public void setInt(int value)
+    {
+        setLong(value);
+    }
+
+    @Override
+    public void setLong(long value)
+    {
+        if (kind == Kind.EMPTY) {
+            kind = Kind.LONG;
+        }
+        else if (kind != Kind.LONG) {
+            set(ValueFactory.newInteger(value));
+            return;
+        }
+        if (longs == null || longs.length == size) {
+            longs = longs == null ? new long[INITIAL_CAPACITY] : Arrays.copyOf(longs, size * 2);
+        }
+        longs[size++] = value;
+    }
+
+    @Override
+    public void setFloat(float value)
+    {
+        // floats are kept as doubles by ValueFactory as well
+        setDouble(value);
+    }
+
+    @Override
+    public void setDouble(double value)
+    {
+        if (kind == Kind.EMPTY) {
+            kind = Kind.DOUBLE;
+        }
+        else if (kind != Kind.DOUBLE) {
+            set(ValueFactory.newFloat(value));
+            return;
+        }
+        if (doubles == null || doubles.length == size) {
+            doubles = doubles == null ? new double[INITIAL_CAPACITY] : Arrays.copyOf(doubles, size * 2);
+        }
+        doubles[size++] = value;
+    }
+
+    // converts elements kept so far to values, and makes room for another value
+    private void toValues()
+    {
+        if (values == null || values.length <= size) {
+            values = values == null
+                    ? new Value[Math.max(INITIAL_CAPACITY, size + 1)]
+                    : Arrays.copyOf(values, Math.max(values.length * 2, size + 1));
+        }
+        if (kind == Kind.VALUE) {
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            switch (kind) {
+                case LONG:
+                    values[i] = ValueFactory.newInteger(longs[i]);
+                    break;
+                case DOUBLE:
+                    values[i] = ValueFactory.newFloat(doubles[i]);
+                    break;
+                case BOOLEAN:
+                    values[i] = ValueFactory.newBoolean(booleans[i]);
+                    break;
+                default:
+                    break;
+            }
+        }
+        kind = Kind.VALUE;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.column.Encoding;
+import org.apache.parquet.format.converter.ParquetMetadataConverter;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.api.ReadSupport;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.junit.Test;
+import org.msgpack.core.buffer.MessageBuffer;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Values converted from dictionaries must be the same as values converted one by one.
+ *
+ * dictionary.parquet and plain.parquet have the same 1000 records written by parquet-mr with and
+ * without dictionary encoding. A column of each type has 10 distinct values, and the repeated
+ * c_longs has 0 to 3 values of 6 distinct ones.
+ */
+public class TestDictionaryEncoding
+{
+    private static final String DICTIONARY_FILENAME = "test-data/parquet-mr/dictionary.parquet";
+    private static final String PLAIN_FILENAME = "test-data/parquet-mr/plain.parquet";
+    private static final int RECORDS = 1000;
+
+    @Test
+    public void testEncodings() throws Exception
+    {
+        for (ColumnChunkMetaData chunk : readChunks(DICTIONARY_FILENAME)) {
+            assertThat(chunk.getEncodings()).as("%s", chunk.getPath()).contains(Encoding.PLAIN_DICTIONARY);
+        }
+        for (ColumnChunkMetaData chunk : readChunks(PLAIN_FILENAME)) {
+            assertThat(chunk.getEncodings()).as("%s", chunk.getPath()).doesNotContain(Encoding.PLAIN_DICTIONARY);
+        }
+    }
+
+    @Test
+    public void testValues() throws Exception
+    {
+        List<Value> values = read(new MessagePackReadSupport(), DICTIONARY_FILENAME);
+        assertThat(values).isEqualTo(read(new MessagePackReadSupport(), PLAIN_FILENAME));
+
+        assertThat(values).hasSize(RECORDS);
+        for (int i = 0; i < RECORDS; i++) {
+            Value record = values.get(i);
+            assertThat(record.asMapValue().map().get(ValueFactory.newString("c_int")))
+                    .as("record %d", i).isEqualTo(ValueFactory.newInteger((i % 10) * 1000 - 3000));
+            assertThat(record.asMapValue().map().get(ValueFactory.newString("c_longs")).asArrayValue().size())
+                    .as("record %d", i).isEqualTo(i % 4);
+            for (Value value : record.asMapValue().map().values()) {
+                assertThat(value).as("record %d", i).isNotNull();
+            }
+        }
+    }
+
+    @Test
+    public void testBytes() throws Exception
+    {
+        List<MessageBuffer> dictionaryRecords = read(new MessagePackBytesReadSupport(), DICTIONARY_FILENAME);
+        List<MessageBuffer> plainRecords = read(new MessagePackBytesReadSupport(), PLAIN_FILENAME);
+
+        assertThat(dictionaryRecords).hasSize(RECORDS);
+        assertThat(plainRecords).hasSize(RECORDS);
+        for (int i = 0; i < RECORDS; i++) {
+            assertThat(dictionaryRecords.get(i).toByteArray()).as("record %d", i)
+                    .isEqualTo(plainRecords.get(i).toByteArray());
+        }
+    }
+
+    private static <T> List<T> read(ReadSupport<T> readSupport, String filename) throws Exception
+    {
+        List<T> records = new ArrayList<>();
+        try (ParquetReader<T> reader = ParquetReader.builder(readSupport, getPath(filename)).build()) {
+            T record;
+            while ((record = reader.read()) != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private static List<ColumnChunkMetaData> readChunks(String filename) throws Exception
+    {
+        List<ColumnChunkMetaData> chunks = new ArrayList<>();
+        for (BlockMetaData block : ParquetFileReader.readFooter(new Configuration(), getPath(filename),
+                ParquetMetadataConverter.NO_FILTER).getBlocks()) {
+            chunks.addAll(block.getColumns());
+        }
+        return chunks;
+    }
+
+    private static Path getPath(String filename)
+    {
+        return new Path(Thread.currentThread().getContextClassLoader().getResource(filename).getPath());
+    }
+}
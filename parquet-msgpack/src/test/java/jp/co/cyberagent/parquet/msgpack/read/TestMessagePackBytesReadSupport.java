@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.buffer.MessageBuffer;
+import org.msgpack.value.Value;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Records read as bytes must be the same as records read as values and packed.
+ */
+@RunWith(Parameterized.class)
+public class TestMessagePackBytesReadSupport
+{
+    private final String parquetFilename;
+
+    @Parameterized.Parameters
+    public static List<String> data()
+    {
+        return Arrays.asList(
+                "test-data/parquet-cpp/alltypes_dictionary.parquet",
+                "test-data/parquet-cpp/alltypes_plain.parquet",
+                "test-data/parquet-cpp/alltypes_plain.snappy.parquet",
+                "test-data/parquet-python/nation.dict.parquet",
+                "test-data/parquet-python/nation.impala.parquet",
+                "test-data/parquet-python/test-converted-type-null.parquet",
+                "test-data/parquet-python/test-null-dictionary.parquet",
+                "test-data/parquet-python/test-null.parquet",
+                "test-data/spark/nested-array-struct.parquet",
+                "test-data/spark/old-repeated-int.parquet",
+                "test-data/spark/old-repeated-message.parquet",
+                "test-data/spark/parquet-thrift-compat.snappy.parquet",
+                "test-data/spark/proto-repeated-string.parquet",
+                "test-data/spark/proto-repeated-struct.parquet",
+                "test-data/spark/proto-struct-with-array-many.parquet",
+                "test-data/spark/proto-struct-with-array.parquet"
+        );
+    }
+
+    public TestMessagePackBytesReadSupport(String parquetFilename)
+    {
+        this.parquetFilename = parquetFilename;
+    }
+
+    @Test
+    public void testing() throws Exception
+    {
+        Path path = new Path(Thread.currentThread().getContextClassLoader().getResource(parquetFilename).getPath());
+        int records = 0;
+        try (ParquetReader<Value> values = ParquetReader.builder(new MessagePackReadSupport(), path).build();
+                ParquetReader<MessageBuffer> bytes = ParquetReader.builder(new MessagePackBytesReadSupport(), path).build()) {
+            MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+            Value value;
+            while ((value = values.read()) != null) {
+                MessageBuffer buffer = bytes.read();
+                assertThat(buffer).as("record %d", records).isNotNull();
+
+                packer.clear();
+                value.writeTo(packer);
+                assertThat(buffer.toByteArray()).as("record %d: %s", records, value).isEqualTo(packer.toByteArray());
+                records++;
+            }
+            assertThat(bytes.read()).isNull();
+        }
+        assertThat(records).isGreaterThan(0);
+    }
+
+    @Test
+    public void testingOmitNullFields() throws Exception
+    {
+        Path path = new Path(Thread.currentThread().getContextClassLoader().getResource(parquetFilename).getPath());
+        MessagePackReadSupport omittingReadSupport = new MessagePackReadSupport();
+        omittingReadSupport.setOmitNullFields(true);
+        MessagePackBytesReadSupport omittingBytesReadSupport = new MessagePackBytesReadSupport();
+        omittingBytesReadSupport.setOmitNullFields(true);
+        int records = 0;
+        try (ParquetReader<Value> values = ParquetReader.builder(new MessagePackReadSupport(), path).build();
+                ParquetReader<Value> omittedValues = ParquetReader.builder(omittingReadSupport, path).build();
+                ParquetReader<MessageBuffer> bytes = ParquetReader.builder(omittingBytesReadSupport, path).build()) {
+            MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+            Value value;
+            while ((value = values.read()) != null) {
+                Value omitted = omittedValues.read();
+                MessageBuffer buffer = bytes.read();
+                assertThat(buffer).as("record %d", records).isNotNull();
+
+                Map<Value, Value> nonNullFields = new LinkedHashMap<>();
+                for (Map.Entry<Value, Value> field : value.asMapValue().entrySet()) {
+                    if (!field.getValue().isNilValue()) {
+                        nonNullFields.put(field.getKey(), field.getValue());
+                    }
+                }
+                assertThat(omitted.asMapValue().keySet()).as("record %d", records).containsExactlyElementsOf(nonNullFields.keySet());
+
+                packer.clear();
+                omitted.writeTo(packer);
+                assertThat(buffer.toByteArray()).as("record %d: %s", records, omitted).isEqualTo(packer.toByteArray());
+                records++;
+            }
+            assertThat(omittedValues.read()).isNull();
+            assertThat(bytes.read()).isNull();
+        }
+        assertThat(records).isGreaterThan(0);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.junit.Test;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestMessagePackReadSupport
+{
+    private static final String PARQUET_FILENAME = "test-data/parquet-python/test-null.parquet";
+
+    @Test
+    public void testExtraFields() throws Exception
+    {
+        assertExtraFields(false);
+    }
+
+    @Test
+    public void testExtraFieldsOmittingNullFields() throws Exception
+    {
+        assertExtraFields(true);
+    }
+
+    private void assertExtraFields(boolean omitNullFields) throws Exception
+    {
+        Path path = new Path(Thread.currentThread().getContextClassLoader().getResource(PARQUET_FILENAME).getPath());
+        MessagePackReadSupport readSupport = new MessagePackReadSupport();
+        readSupport.setOmitNullFields(omitNullFields);
+        MessagePackReadSupport extendedReadSupport = new MessagePackReadSupport();
+        extendedReadSupport.setOmitNullFields(omitNullFields);
+        int records = 0;
+        try (ParquetReader<Value> values = ParquetReader.builder(readSupport, path).build()) {
+            Value first = values.read();
+            assertThat(first).isNotNull();
+            // replaces the first field of the file, and adds a field
+            Value replacedKey = first.asMapValue().getKeyValueArray()[0];
+            Value[] extraFields = new Value[] {
+                    replacedKey, ValueFactory.newString("replaced"),
+                    ValueFactory.newString("extra"), ValueFactory.newInteger(1)};
+            extendedReadSupport.setExtraFields(extraFields);
+
+            try (ParquetReader<Value> extendedValues = ParquetReader.builder(extendedReadSupport, path).build()) {
+                Value value = first;
+                while (value != null) {
+                    Map<Value, Value> expected = new LinkedHashMap<>(value.asMapValue().map());
+                    expected.remove(replacedKey);
+                    expected.put(extraFields[0], extraFields[1]);
+                    expected.put(extraFields[2], extraFields[3]);
+
+                    Value extended = extendedValues.read();
+                    assertThat(extended).as("record %d", records).isNotNull();
+                    assertThat(extended.asMapValue().keySet()).as("record %d", records).containsExactlyElementsOf(expected.keySet());
+                    assertThat(extended.asMapValue().map()).as("record %d", records).isEqualTo(expected);
+                    records++;
+                    value = values.read();
+                }
+                assertThat(extendedValues.read()).isNull();
+            }
+        }
+        assertThat(records).isGreaterThan(0);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read;
+
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.MessageTypeParser;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TestSchemaProjection
+{
+    private static final MessageType SCHEMA = MessageTypeParser.parseMessageType(
+            "message root {\n" +
+            "  required int64 id;\n" +
+            "  optional group user {\n" +
+            "    optional binary name (UTF8);\n" +
+            "    optional group address {\n" +
+            "      optional binary city (UTF8);\n" +
+            "      optional int32 zip;\n" +
+            "    }\n" +
+            "  }\n" +
+            "  optional group tags (MAP) {\n" +
+            "    repeated group key_value {\n" +
+            "      required binary key (UTF8);\n" +
+            "      optional binary value (UTF8);\n" +
+            "    }\n" +
+            "  }\n" +
+            "}");
+
+    @Test
+    public void testNestedPath()
+    {
+        assertThat(project("user.address.city", "id"), is(MessageTypeParser.parseMessageType(
+                "message root {\n" +
+                "  required int64 id;\n" +
+                "  optional group user {\n" +
+                "    optional group address {\n" +
+                "      optional binary city (UTF8);\n" +
+                "    }\n" +
+                "  }\n" +
+                "}")));
+    }
+
+    @Test
+    public void testWholeGroupWins()
+    {
+        assertThat(project("user.address.city", "user"), is(MessageTypeParser.parseMessageType(
+                "message root {\n" +
+                "  optional group user {\n" +
+                "    optional binary name (UTF8);\n" +
+                "    optional group address {\n" +
+                "      optional binary city (UTF8);\n" +
+                "      optional int32 zip;\n" +
+                "    }\n" +
+                "  }\n" +
+                "}")));
+    }
+
+    @Test
+    public void testMapIsKeptAsWhole()
+    {
+        assertThat(project("tags.key_value.value"), is(MessageTypeParser.parseMessageType(
+                "message root {\n" +
+                "  optional group tags (MAP) {\n" +
+                "    repeated group key_value {\n" +
+                "      required binary key (UTF8);\n" +
+                "      optional binary value (UTF8);\n" +
+                "    }\n" +
+                "  }\n" +
+                "}")));
+    }
+
+    @Test
+    public void testMissingPath()
+    {
+        List<String> columns = Arrays.asList("nothing", "user.nothing", "id.nothing");
+        assertThat(SchemaProjection.of(columns).projectFields(SCHEMA).isEmpty(), is(true));
+    }
+
+    private static MessageType project(String... columns)
+    {
+        return new MessageType(SCHEMA.getName(), SchemaProjection.of(Arrays.asList(columns)).projectFields(SCHEMA));
+    }
+}
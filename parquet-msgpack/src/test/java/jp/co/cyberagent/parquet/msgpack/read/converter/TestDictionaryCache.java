@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read.converter;
+
+import org.apache.parquet.schema.PrimitiveType;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class TestDictionaryCache
+{
+    private static final PrimitiveType.PrimitiveTypeName INT32 = PrimitiveType.PrimitiveTypeName.INT32;
+
+    @Test
+    public void testSharesDictionariesOfSameEntries()
+    {
+        DictionaryCache cache = new DictionaryCache(DictionaryCache.DEFAULT_MEMORY_LIMIT);
+        LazyDictionary dictionary = cache.get(new TestLazyDictionary.IntDictionary(100, 10), INT32, "a");
+        assertThat(cache.get(new TestLazyDictionary.IntDictionary(100, 10), INT32, "a"), sameInstance(dictionary));
+
+        TestLazyDictionary.CountingConversion conversion = new TestLazyDictionary.CountingConversion();
+        assertThat(dictionary.get(3, conversion).asIntegerValue().asInt(), is(30));
+        assertThat(cache.get(new TestLazyDictionary.IntDictionary(100, 10), INT32, "a").get(3, conversion).asIntegerValue().asInt(), is(30));
+        assertThat(conversion.converted, is(1));
+    }
+
+    @Test
+    public void testSeparatesDictionariesOfDifferentEntriesOrConversions()
+    {
+        DictionaryCache cache = new DictionaryCache(DictionaryCache.DEFAULT_MEMORY_LIMIT);
+        LazyDictionary dictionary = cache.get(new TestLazyDictionary.IntDictionary(100, 10), INT32, "a");
+        assertThat(cache.get(new TestLazyDictionary.IntDictionary(100, 11), INT32, "a"), not(sameInstance(dictionary)));
+        assertThat(cache.get(new TestLazyDictionary.IntDictionary(101, 10), INT32, "a"), not(sameInstance(dictionary)));
+        assertThat(cache.get(new TestLazyDictionary.IntDictionary(100, 10), INT32, "b"), not(sameInstance(dictionary)));
+        assertThat(cache.size(), is(4));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedDictionaries()
+    {
+        // a dictionary of 100 ints takes 100 * 8 bytes and 100 * 8 + 100 * 32 bytes of values
+        DictionaryCache cache = new DictionaryCache(3 * 4800);
+        LazyDictionary first = cache.get(new TestLazyDictionary.IntDictionary(100, 1), INT32, "a");
+        cache.get(new TestLazyDictionary.IntDictionary(100, 2), INT32, "a");
+        cache.get(new TestLazyDictionary.IntDictionary(100, 3), INT32, "a");
+        assertThat(cache.get(new TestLazyDictionary.IntDictionary(100, 1), INT32, "a"), sameInstance(first));
+
+        LazyDictionary fourth = cache.get(new TestLazyDictionary.IntDictionary(100, 4), INT32, "a");
+        assertThat(cache.size(), is(3));
+        assertThat(cache.get(new TestLazyDictionary.IntDictionary(100, 1), INT32, "a"), sameInstance(first));
+        assertThat(cache.get(new TestLazyDictionary.IntDictionary(100, 4), INT32, "a"), sameInstance(fourth));
+    }
+
+    @Test
+    public void testDoesNotCacheLargeDictionaries()
+    {
+        DictionaryCache cache = new DictionaryCache(4 * 8 * 100 - 1);
+        LazyDictionary dictionary = cache.get(new TestLazyDictionary.IntDictionary(100, 10), INT32, "a");
+        assertThat(cache.get(new TestLazyDictionary.IntDictionary(100, 10), INT32, "a"), not(sameInstance(dictionary)));
+        assertThat(cache.size(), is(0));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read.converter;
+
+import org.apache.parquet.column.Dictionary;
+import org.apache.parquet.column.Encoding;
+import org.junit.Test;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TestLazyDictionary
+{
+    static class CountingConversion implements LazyDictionary.Conversion
+    {
+        int converted = 0;
+
+        @Override
+        public Value convert(Dictionary dictionary, int id)
+        {
+            converted++;
+            return ValueFactory.newInteger(dictionary.decodeToInt(id));
+        }
+
+        @Override
+        public long estimateSize(Dictionary dictionary, int id)
+        {
+            return LazyDictionary.VALUE_BYTES;
+        }
+    }
+
+    static class IntDictionary extends Dictionary
+    {
+        private final int size;
+        private final int factor;
+
+        IntDictionary(int size, int factor)
+        {
+            super(Encoding.RLE_DICTIONARY);
+            this.size = size;
+            this.factor = factor;
+        }
+
+        @Override
+        public int getMaxId()
+        {
+            return size - 1;
+        }
+
+        @Override
+        public int decodeToInt(int id)
+        {
+            return id * factor;
+        }
+    }
+
+    @Test
+    public void testConvertsOnFirstUse()
+    {
+        LazyDictionary dictionary = new LazyDictionary(new IntDictionary(1000000, 10));
+        CountingConversion conversion = new CountingConversion();
+        assertThat(dictionary.get(123456, conversion).asIntegerValue().asInt(), is(1234560));
+        assertThat(dictionary.get(123456, conversion).asIntegerValue().asInt(), is(1234560));
+        assertThat(dictionary.get(7, conversion).asIntegerValue().asInt(), is(70));
+        assertThat(conversion.converted, is(2));
+    }
+
+    @Test
+    public void testConvertsAgainOverMemoryLimit()
+    {
+        // a chunk and a few values
+        LazyDictionary dictionary = new LazyDictionary(new IntDictionary(100, 10), 8 * 1024 + 16 + 32 * 3);
+        CountingConversion conversion = new CountingConversion();
+        for (int i = 0; i < 2; i++) {
+            for (int id = 0; id < 5; id++) {
+                assertThat(dictionary.get(id, conversion).asIntegerValue().asInt(), is(id * 10));
+            }
+        }
+        assertThat(conversion.converted, is(3 + 2 * 2));
+        assertThat(dictionary.getUsedBytes() <= 8 * 1024 + 16 + 32 * 3, is(true));
+    }
+}
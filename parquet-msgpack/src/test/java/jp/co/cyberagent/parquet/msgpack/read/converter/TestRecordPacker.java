@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read.converter;
+
+import org.junit.Test;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestRecordPacker
+{
+    @Test
+    public void testHeadersOfAllSizes() throws Exception
+    {
+        // a header of 16 elements or more is longer than the reserved byte
+        for (int size : new int[] {0, 1, 15, 16, 255, 65535, 65536, 100000}) {
+            RecordPacker packer = new RecordPacker();
+            MessageBufferPacker expected = MessagePack.newDefaultBufferPacker();
+            packer.clear();
+
+            // {"a": [0, 1, ...], "b": {0: true, 1: true, ...}, "c": nil}
+            int map = packer.reserveHeader();
+            expected.packMapHeader(3);
+            packer.packLong(1);
+            expected.packLong(1);
+            int array = packer.reserveHeader();
+            expected.packArrayHeader(size);
+            for (int i = 0; i < size; i++) {
+                packer.packLong(i);
+                expected.packLong(i);
+            }
+            packer.putArrayHeader(array, size);
+            packer.packLong(2);
+            expected.packLong(2);
+            int nested = packer.reserveHeader();
+            expected.packMapHeader(size);
+            for (int i = 0; i < size; i++) {
+                packer.packLong(i);
+                packer.packBoolean(true);
+                expected.packLong(i);
+                expected.packBoolean(true);
+            }
+            packer.putMapHeader(nested, size);
+            packer.packLong(3);
+            packer.packNil();
+            expected.packLong(3);
+            expected.packNil();
+            packer.putMapHeader(map, 3);
+
+            assertThat(packer.toByteArray()).as("size %d", size).isEqualTo(expected.toByteArray());
+            assertThat(packer.position()).as("size %d", size).isEqualTo(expected.toByteArray().length);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 CyberAgent, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jp.co.cyberagent.parquet.msgpack.read.converter;
+
+import org.junit.Test;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TestValueArrayBuilder
+{
+    @Test
+    public void testBuildsPrimitiveArrays()
+    {
+        ValueArrayBuilder builder = new ValueArrayBuilder();
+        for (int i = 0; i < 1000; i++) {
+            builder.setLong(i);
+        }
+        Value[] expected = new Value[1000];
+        for (int i = 0; i < 1000; i++) {
+            expected[i] = ValueFactory.newInteger(i);
+        }
+        assertThat(builder.build(), is((Value) ValueFactory.newArray(expected)));
+
+        builder.clear();
+        builder.setFloat(1.5f);
+        builder.setDouble(2.5);
+        assertThat(builder.build(), is((Value) ValueFactory.newArray(ValueFactory.newFloat(1.5), ValueFactory.newFloat(2.5))));
+
+        builder.clear();
+        assertThat(builder.build(), is((Value) ValueFactory.emptyArray()));
+    }
+
+    @Test
+    public void testKeepsTypesOfMixedElements()
+    {
+        ValueArrayBuilder builder = new ValueArrayBuilder();
+        builder.setInt(1);
+        builder.setLong(2);
+        builder.set(ValueFactory.newNil());
+        builder.setBoolean(true);
+        for (int i = 0; i < 20; i++) {
+            builder.set(ValueFactory.newString("s"));
+        }
+        builder.setDouble(3.0);
+
+        Value[] expected = new Value[25];
+        expected[0] = ValueFactory.newInteger(1);
+        expected[1] = ValueFactory.newInteger(2);
+        expected[2] = ValueFactory.newNil();
+        expected[3] = ValueFactory.newBoolean(true);
+        for (int i = 0; i < 20; i++) {
+            expected[4 + i] = ValueFactory.newString("s");
+        }
+        expected[24] = ValueFactory.newFloat(3.0);
+        assertThat(builder.build(), is((Value) ValueFactory.newArray(expected)));
+
+        builder.clear();
+        builder.setBoolean(false);
+        assertThat(builder.build(), is((Value) ValueFactory.newArray(ValueFactory.newBoolean(false))));
+    }
+}